@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.classifier.OnlineLearner;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.function.UnaryFunction;
+
+import java.util.Random;
+
+/**
+ * Common parts of latent factor models for dyads whose outcome is one of several categories rather
+ * than just 0 or 1.  Each left and right item has a row of factors, updated by SGD with a learning
+ * rate that decays with the row's update count and with L1 shrinkage applied as the row is updated.
+ * <p/>
+ * Scoring fills a caller supplied array with the probability of each category so that scoring many
+ * dyads needs no allocation.
+ */
+public abstract class AbstractMultiClassLatentLogLinear implements OnlineLearner, DyadicLearner {
+  // new factors are gaussian with this standard deviation
+  private static final double INITIAL_SCALE = 0.1;
+
+  private final int numCategories;
+  private final int factors;
+
+  FactorMatrix left;
+  FactorMatrix right;
+
+  double mu0 = 1;
+  double lambda = 1.0e-5;
+
+  // initializes new rows, this is recreated after deserialization
+  private transient UnaryFunction gaussian;
+
+  /**
+   * @param numCategories  How many outcomes there are.
+   * @param factors        How many latent factors each item has for each set of factors.
+   * @param width          How many values each item's row holds.
+   */
+  AbstractMultiClassLatentLogLinear(int numCategories, int factors, int width) {
+    Preconditions.checkArgument(numCategories >= 2, "Must have at least two categories");
+    this.numCategories = numCategories;
+    this.factors = factors;
+    left = new FactorMatrix(width);
+    right = new FactorMatrix(width);
+  }
+
+  /**
+   * Updates the model with a single dyad.
+   *
+   * @param leftId   The id of the left item.
+   * @param rightId  The id of the right item.
+   * @param actual   The category of the dyad, in [0, numCategories).
+   */
+  public abstract void train(int leftId, int rightId, int actual);
+
+  /**
+   * Computes the probability of each category for a dyad.  If either item has not been trained,
+   * all probabilities are NaN.  This neither allocates nor changes the model.
+   *
+   * @param leftId   The id of the left item.
+   * @param rightId  The id of the right item.
+   * @param r        Where to put the probabilities, at least numCategories long.
+   */
+  public abstract void classifyFull(int leftId, int rightId, double[] r);
+
+  /**
+   * Returns the most likely category for a dyad, or -1 if either item has not been trained.
+   *
+   * @param r  Scratch space for the probabilities, at least numCategories long.
+   */
+  public int classify(int leftId, int rightId, double[] r) {
+    classifyFull(leftId, rightId, r);
+    if (Double.isNaN(r[0])) {
+      return -1;
+    }
+    int best = 0;
+    for (int i = 1; i < numCategories; i++) {
+      if (r[i] > r[best]) {
+        best = i;
+      }
+    }
+    return best;
+  }
+
+  @Override
+  public void train(int actual, Vector instance) {
+    train(LatentLogLinear.rowId(instance), LatentLogLinear.columnId(instance), actual);
+  }
+
+  @Override
+  public void train(long trackingKey, String groupKey, int actual, Vector instance) {
+    train(actual, instance);
+  }
+
+  @Override
+  public void train(long trackingKey, int actual, Vector instance) {
+    train(actual, instance);
+  }
+
+  @Override
+  public void close() {
+    // nothing to do
+  }
+
+  public AbstractMultiClassLatentLogLinear learningRate(double mu0) {
+    this.mu0 = mu0;
+    return this;
+  }
+
+  public AbstractMultiClassLatentLogLinear lambda(double lambda) {
+    this.lambda = lambda;
+    return this;
+  }
+
+  public double getLearningRate() {
+    return mu0;
+  }
+
+  public double getLambda() {
+    return lambda;
+  }
+
+  public int numCategories() {
+    return numCategories;
+  }
+
+  public int getFactors() {
+    return factors;
+  }
+
+  void checkCategory(int actual) {
+    if (actual < 0 || actual >= numCategories) {
+      throw new IllegalArgumentException("Category must be in [0, " + numCategories + "), got " + actual);
+    }
+  }
+
+  void extend(FactorMatrix m, int row) {
+    if (!m.isInitialized(row)) {
+      m.initializeRow(row, gaussian());
+    }
+  }
+
+  /**
+   * Counts an update of a row and returns the learning rate for it.
+   */
+  double learningRate(FactorMatrix m, int row) {
+    return mu0 / Math.sqrt(m.incrementUpdateCount(row));
+  }
+
+  /**
+   * Shrinks part of a row towards zero and then moves it along x by step.
+   */
+  void update(double[] w, int base, double[] x, int xOffset, int n, double step, double shrink) {
+    for (int k = 0; k < n; k++) {
+      double newValue = LatentLogLinear.l1(w[base + k], shrink) + step * x[xOffset + k];
+      if (Double.isNaN(newValue) || Double.isInfinite(newValue)) {
+        throw new ArithmeticException(String.format("Updating from %.3f to nastiness\n", w[base + k]));
+      }
+      w[base + k] = newValue;
+    }
+  }
+
+  static double dot(double[] x, int i, double[] y, int j, int n) {
+    double sum = 0;
+    for (int k = 0; k < n; k++) {
+      sum += x[i + k] * y[j + k];
+    }
+    return sum;
+  }
+
+  private synchronized UnaryFunction gaussian() {
+    if (gaussian == null) {
+      final Random rand = RandomUtils.getRandom();
+      gaussian = new UnaryFunction() {
+        @Override
+        public double apply(double arg1) {
+          return INITIAL_SCALE * rand.nextGaussian();
+        }
+      };
+    }
+    return gaussian;
+  }
+}
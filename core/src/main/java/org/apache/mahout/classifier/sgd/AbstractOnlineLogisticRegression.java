@@ -21,12 +21,12 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Predicates;
 import org.apache.mahout.classifier.AbstractVectorClassifier;
 import org.apache.mahout.classifier.OnlineLearner;
-import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.SparseRowMatrix;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.function.Functions;
-import org.apache.mahout.math.function.UnaryFunction;
 
+import java.util.BitSet;
 import java.util.Iterator;
 
 /**
@@ -65,6 +65,10 @@ public abstract class AbstractOnlineLogisticRegression extends AbstractVectorCla
   // by default we don't do any fancy training
   private Gradient gradient = new DefaultGradient();
 
+  // the latest scoring snapshot and the blocks of features that changed since it was made
+  private transient volatile LogisticRegressionSnapshot snapshot;
+  private transient BitSet changedBlocks = new BitSet();
+
   /**
    * Chainable configuration option.
    *
@@ -147,11 +151,19 @@ public abstract class AbstractOnlineLogisticRegression extends AbstractVectorCla
   public double classifyScalar(Vector instance) {
     Preconditions.checkArgument(numCategories() == 2, "Can only call classifyScalar with two categories");
 
-    // apply pending regularization to whichever coefficients matter
-    regularize(instance);
+    if (!binaryFastPath()) {
+      // apply pending regularization the way the subclass does it
+      regularize(instance);
+      return link(classifyScalarNoLink(instance));
+    }
 
-    // result is a vector with one element so we can just use dot product
-    return link(classifyScalarNoLink(instance));
+    if (updateSteps == null || isSealed()) {
+      // nothing is pending, and the result has one element so we can just use dot product
+      return link(classifyScalarNoLink(instance));
+    }
+
+    // apply pending regularization to whichever coefficients matter while taking the dot product
+    return link(regularizeAndScore(instance, currentLearningRate()));
   }
 
   @Override
@@ -160,6 +172,11 @@ public abstract class AbstractOnlineLogisticRegression extends AbstractVectorCla
 
     double learningRate = currentLearningRate();
 
+    if (numCategories == 2 && gradient instanceof DefaultGradient && binaryFastPath()) {
+      trainBinary(actual, instance, learningRate);
+      return;
+    }
+
     // push coefficients back to zero based on the prior
     regularize(instance);
 
@@ -189,9 +206,89 @@ public abstract class AbstractOnlineLogisticRegression extends AbstractVectorCla
       int j = element.index();
       updateSteps.setQuick(j, getStep());
       updateCounts.setQuick(j, updateCounts.getQuick(j) + 1);
+      changed(j);
+    }
+    nextStep();
+
+  }
+
+  /**
+   * Tells whether a model with two categories and the default gradient may train and score with
+   * the fused code below.  That code inlines what {@link #regularize(Vector)} and
+   * {@link #classify(Vector)} do here, so subclasses that override either of them should return
+   * false to keep their own behavior.
+   */
+  protected boolean binaryFastPath() {
+    return true;
+  }
+
+  /**
+   * Does the same as the general training code for a model with two categories and the default
+   * gradient, but without allocating anything other than iterators.  The first pass over the
+   * instance applies the pending regularization and takes the dot product, the second applies the
+   * gradient and updates the step and count of each feature.  The gradient can't be folded into the
+   * first pass because it depends on the whole dot product.
+   */
+  private void trainBinary(int actual, Vector instance, double learningRate) {
+    double r = regularizeAndScore(instance, learningRate);
+
+    // this is the link function for vectors applied to a single element, so that the result is the
+    // same as what DefaultGradient would give
+    double p;
+    if (r >= 40) {
+      p = 1;
+    } else {
+      double e = Math.exp(r);
+      p = e / (1 + e);
+    }
+    double gradientBase = (actual != 0 ? 1 : 0) - p;
+
+    Vector row = beta.getRow(0);
+    int step = getStep();
+    Iterator<Vector.Element> nonZeros = instance.iterateNonZero();
+    while (nonZeros.hasNext()) {
+      Vector.Element updateLocation = nonZeros.next();
+      int j = updateLocation.index();
+
+      double oldValue = row.getQuick(j);
+      double newValue = oldValue + gradientBase * learningRate * perTermLearningRate(j) * updateLocation.get();
+      if (Double.isNaN(newValue) || Double.isInfinite(newValue)) {
+        throw new ArithmeticException(String.format("Updating from %.3f to nastiness\n", oldValue));
+      }
+      row.setQuick(j, newValue);
+
+      // remember that this element got updated
+      updateSteps.setQuick(j, step);
+      updateCounts.setQuick(j, updateCounts.getQuick(j) + 1);
+      changed(j);
     }
     nextStep();
+  }
 
+  /**
+   * Lazily applies the prior to the coefficients of a two category model that the instance uses
+   * and returns the dot product of the instance with the regularized coefficients.
+   */
+  private double regularizeAndScore(Vector instance, double learningRate) {
+    Vector row = beta.getRow(0);
+    int step = getStep();
+    double r = 0;
+    Iterator<Vector.Element> nonZeros = instance.iterateNonZero();
+    while (nonZeros.hasNext()) {
+      Vector.Element element = nonZeros.next();
+      int j = element.index();
+      double value = row.getQuick(j);
+      double missingUpdates = step - updateSteps.getQuick(j);
+      if (missingUpdates > 0) {
+        double rate = getLambda() * learningRate * perTermLearningRate(j);
+        value = prior.age(value, missingUpdates, rate);
+        row.setQuick(j, value);
+        updateSteps.setQuick(j, step);
+        changed(j);
+      }
+      r += value * element.get();
+    }
+    return r;
   }
 
   @Override
@@ -224,6 +321,7 @@ public abstract class AbstractOnlineLogisticRegression extends AbstractVectorCla
           double newValue = prior.age(beta.get(i, j), missingUpdates, rate);
           beta.set(i, j, newValue);
           updateSteps.set(j, getStep());
+          changed(j);
         }
       }
     }
@@ -254,6 +352,7 @@ public abstract class AbstractOnlineLogisticRegression extends AbstractVectorCla
 
   public void setBeta(int i, int j, double betaIJ) {
     beta.set(i, j, betaIJ);
+    changed(j);
   }
 
   @Override
@@ -285,10 +384,37 @@ public abstract class AbstractOnlineLogisticRegression extends AbstractVectorCla
     sealed = false;
   }
 
+  /**
+   * Does the same as regularizing with an instance that has every feature, but leaves features
+   * whose coefficients are all zero alone.  Every prior keeps zero at zero, and training sets the
+   * update step of a feature when it makes the feature non-zero, so skipping them changes nothing.
+   * Not touching them means that closing a model doesn't write to its whole coefficient matrix,
+   * which would force a copy-on-write matrix to copy everything.
+   */
   private void regularizeAll() {
-    Vector all = new DenseVector(beta.numCols());
-    all.assign(1);
-    regularize(all);
+    if (updateSteps == null || isSealed()) {
+      return;
+    }
+
+    double learningRate = currentLearningRate();
+    for (int row = 0; row < numCategories - 1; row++) {
+      // a column that is non-zero in several rows comes up more than once, but the update step
+      // is current after the first time so the later ones do nothing
+      Iterator<Vector.Element> nonZeros = beta.getRow(row).iterateNonZero();
+      while (nonZeros.hasNext()) {
+        int j = nonZeros.next().index();
+        // the same order of updates as regularize
+        for (int i = 0; i < numCategories - 1; i++) {
+          double missingUpdates = getStep() - updateSteps.get(j);
+          if (missingUpdates > 0) {
+            double rate = getLambda() * learningRate * perTermLearningRate(j);
+            beta.set(i, j, prior.age(beta.get(i, j), missingUpdates, rate));
+            updateSteps.set(j, getStep());
+            changed(j);
+          }
+        }
+      }
+    }
   }
 
   @Override
@@ -307,22 +433,81 @@ public abstract class AbstractOnlineLogisticRegression extends AbstractVectorCla
     // number of categories we are classifying.  This should the number of rows of beta plus one.
     Preconditions.checkArgument(numCategories == other.numCategories, "Can't copy unless number of target categories is the same");
 
-    beta.assign(other.beta);
+    beta = copyOf(other.beta);
 
     step = other.step;
 
-    updateSteps.assign(other.updateSteps);
-    updateCounts.assign(other.updateCounts);
+    updateSteps = copyOf(other.updateSteps);
+    updateCounts = copyOf(other.updateCounts);
+
+    // snapshots of the old coefficients can't be the base of new ones
+    snapshot = null;
+    changedBlocks = new BitSet();
+  }
+
+  /**
+   * Makes an immutable copy of this model for scoring and publishes it to {@link #getSnapshot()}.
+   * Only the blocks of features that changed since the last snapshot are copied, the rest are
+   * shared with it.  This has to be called by the thread that trains the model.
+   * <p/>
+   * Coefficients changed through the matrix returned by {@link #getBeta()} aren't noticed.
+   *
+   * @return The new snapshot.
+   */
+  public LogisticRegressionSnapshot snapshot() {
+    if (changedBlocks == null) {
+      // made by Gson
+      changedBlocks = new BitSet();
+    }
+    LogisticRegressionSnapshot r = LogisticRegressionSnapshot.of(this, snapshot, changedBlocks);
+    changedBlocks.clear();
+    snapshot = r;
+    return r;
+  }
+
+  /**
+   * Returns the latest snapshot made by {@link #snapshot()}, or null if there is none.  This can be
+   * called from any thread.
+   */
+  public LogisticRegressionSnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Remembers that the coefficients or update step of feature j changed so that the next snapshot
+   * copies its block.
+   */
+  private void changed(int j) {
+    if (changedBlocks == null) {
+      changedBlocks = new BitSet();
+    }
+    changedBlocks.set(j >>> LogisticRegressionSnapshot.BLOCK_SHIFT);
+  }
+
+  /**
+   * Copies keep the kind of storage of the original.  Dense storage is shared with the original
+   * until one of them changes it, sparse storage is small enough to just copy.
+   */
+  private static Matrix copyOf(Matrix m) {
+    return m instanceof SparseRowMatrix ? m.clone() : CopyOnWriteMatrix.copyOf(m);
+  }
+
+  private static Vector copyOf(Vector v) {
+    return v.isDense() ? CopyOnWriteVector.copyOf(v) : v.clone();
   }
 
   public boolean validModel() {
-    double k = beta.aggregate(Functions.PLUS, new UnaryFunction() {
-      @Override
-      public double apply(double v) {
-        return Double.isNaN(v) || Double.isInfinite(v) ? 1 : 0;
+    // NaN and infinity aren't zero, so only the non-zero coefficients need to be checked
+    for (int i = 0; i < beta.numRows(); i++) {
+      Iterator<Vector.Element> nonZeros = beta.getRow(i).iterateNonZero();
+      while (nonZeros.hasNext()) {
+        double v = nonZeros.next().get();
+        if (Double.isNaN(v) || Double.isInfinite(v)) {
+          return false;
+        }
       }
-    });
-    return k < 1;
+    }
+    return true;
   }
 
 }
@@ -0,0 +1,362 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.classifier.OnlineLearner;
+import org.apache.mahout.ep.EvolutionaryProcess;
+import org.apache.mahout.ep.Mapping;
+import org.apache.mahout.ep.Payload;
+import org.apache.mahout.ep.State;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.list.IntArrayList;
+import org.apache.mahout.math.stats.GlobalOnlineAuc;
+import org.apache.mahout.math.stats.OnlineAuc;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Meta-learner that evolves a pool of {@link LatentLogLinear} models with different settings in the
+ * same way that {@link AdaptiveLogisticRegression} evolves a pool of logistic regressions.  Training
+ * dyads are buffered and each buffer is used to train every member of the pool in parallel.  Every
+ * so often the members with the best AUC survive and the rest are replaced by mutated copies of the
+ * survivors.  The schedule for this is the same as for AdaptiveLogisticRegression.
+ * <p/>
+ * The settings that evolve are lambda, the learning rate, the rank mix rate and the number of
+ * factors.  The number of factors can't change once a model has been trained, so it only varies
+ * across the initial pool.  Later generations inherit it from their parents.
+ * <p/>
+ * Fitness is AUC on held out dyads.  A fixed fraction of all dyads, chosen by hashing the left and
+ * right ids, is never used for training.  Those dyads are only scored, and only once both of their
+ * items have been trained, so the AUC measures how well a model predicts dyads it hasn't seen.
+ */
+public class AdaptiveLatentLogLinear implements OnlineLearner, DyadicLearner {
+  private static final int SURVIVORS = 2;
+
+  private int record;
+  private final EvolutionSchedule schedule = new EvolutionSchedule();
+
+  // buffered dyads as triples of left id, right id and label
+  private final IntArrayList buffer = new IntArrayList();
+
+  private EvolutionaryProcess<Wrapper> ep;
+  private State<Wrapper> best;
+  private int threadCount = 20;
+  private int poolSize = 20;
+  private State<Wrapper> seed;
+
+  public AdaptiveLatentLogLinear() {
+    this(20, 10);
+  }
+
+  /**
+   * @param factors  The number of factors of the seed model.
+   * @param holdout  One in this many dyads is held out to measure AUC.
+   */
+  public AdaptiveLatentLogLinear(int factors, int holdout) {
+    seed = new State<Wrapper>(new double[4], 10);
+    Wrapper w = new Wrapper(factors, holdout);
+    seed.setPayload(w);
+    w.setMappings(seed);
+    setPoolSize(poolSize);
+  }
+
+  @Override
+  public void train(int leftId, int rightId, int actual) {
+    record++;
+
+    buffer.add(leftId);
+    buffer.add(rightId);
+    buffer.add(actual);
+    if (schedule.isFull(buffer.size() / 3)) {
+      trainWithBufferedExamples();
+    }
+  }
+
+  @Override
+  public void train(int actual, Vector instance) {
+    train(LatentLogLinear.rowId(instance), LatentLogLinear.columnId(instance), actual);
+  }
+
+  @Override
+  public void train(long trackingKey, int actual, Vector instance) {
+    train(actual, instance);
+  }
+
+  @Override
+  public void train(long trackingKey, String groupKey, int actual, Vector instance) {
+    train(actual, instance);
+  }
+
+  private void trainWithBufferedExamples() {
+    final IntArrayList data = buffer;
+    final int n = buffer.size();
+    try {
+      this.best = ep.parallelDo(new EvolutionaryProcess.Function<Wrapper>() {
+        @Override
+        public double apply(Wrapper x, double[] params) {
+          for (int i = 0; i < n; i += 3) {
+            x.train(data.getQuick(i), data.getQuick(i + 1), data.getQuick(i + 2));
+          }
+          return x.auc();
+        }
+      });
+    } catch (InterruptedException e) {
+      // ignore ... shouldn't happen
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+    buffer.clear();
+
+    if (schedule.evolve(record)) {
+      // evolve based on new fitness
+      ep.mutatePopulation(SURVIVORS);
+    }
+  }
+
+  /**
+   * Returns the record number at which the next round of evolution happens.
+   *
+   * @see AdaptiveLogisticRegression#nextStep(int)
+   */
+  public int nextStep(int recordNumber) {
+    return schedule.nextStep(recordNumber);
+  }
+
+  @Override
+  public void close() {
+    trainWithBufferedExamples();
+    try {
+      ep.parallelDo(new EvolutionaryProcess.Function<Wrapper>() {
+        @Override
+        public double apply(Wrapper payload, double[] params) {
+          payload.getModel().close();
+          return payload.auc();
+        }
+      });
+      ep.close();
+    } catch (InterruptedException e) {
+      // ignore
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Scores a dyad with the current best model.
+   *
+   * @return The probability that the dyad is positive, or NaN if there is no best model yet.
+   */
+  public double classifyScalar(int leftId, int rightId) {
+    if (best == null) {
+      return Double.NaN;
+    }
+    return best.getPayload().getModel().classifyScalar(leftId, rightId);
+  }
+
+  /**
+   * How often should the evolutionary optimization of learning parameters occur?
+   *
+   * @param interval  Number of training examples to use in each epoch of optimization.
+   */
+  public void setInterval(int interval) {
+    setInterval(interval, interval);
+  }
+
+  /**
+   * Starts optimization using the shorter interval and progresses to the longer.  Values below 200
+   * are not accepted.
+   *
+   * @see AdaptiveLogisticRegression#setInterval(int, int)
+   */
+  public void setInterval(int minInterval, int maxInterval) {
+    schedule.setInterval(minInterval, maxInterval, record);
+  }
+
+  public void setPoolSize(int poolSize) {
+    this.poolSize = poolSize;
+    setupOptimizer(poolSize);
+  }
+
+  public void setThreadCount(int threadCount) {
+    this.threadCount = threadCount;
+    setupOptimizer(poolSize);
+  }
+
+  /**
+   * Sets how the held out AUC is measured.  Every member of the population gets its own new
+   * instance of the same class, so the class needs a public no-argument constructor.
+   */
+  public void setAucEvaluator(OnlineAuc auc) {
+    seed.getPayload().auc = auc;
+    setupOptimizer(poolSize);
+  }
+
+  private void setupOptimizer(int poolSize) {
+    if (ep != null) {
+      ep.close();
+    }
+    ep = new EvolutionaryProcess<Wrapper>(threadCount, poolSize, seed);
+  }
+
+  /**
+   * Returns the held out AUC of the current best member of the population, or NaN if there is
+   * none yet.
+   */
+  public double auc() {
+    if (best == null) {
+      return Double.NaN;
+    } else {
+      return best.getPayload().auc();
+    }
+  }
+
+  public State<Wrapper> getBest() {
+    return best;
+  }
+
+  /**
+   * Returns the model of the current best member of the population, or null if there is none yet.
+   */
+  public LatentLogLinear getBestModel() {
+    return best == null ? null : best.getPayload().getModel();
+  }
+
+  public int getRecord() {
+    return record;
+  }
+
+  public int getMinInterval() {
+    return schedule.getMinInterval();
+  }
+
+  public int getMaxInterval() {
+    return schedule.getMaxInterval();
+  }
+
+  public EvolutionaryProcess<Wrapper> getEp() {
+    return ep;
+  }
+
+  public State<Wrapper> getSeed() {
+    return seed;
+  }
+
+  /**
+   * Shim between the EP optimization and a LatentLogLinear model.  The parameters are taken from the
+   * double[] params in the following order <ul> <li> regularization constant lambda <li> learning
+   * rate <li> rank mix rate <li> number of factors </ul>.
+   */
+  public static class Wrapper implements Payload<Wrapper> {
+    private LatentLogLinear model;
+    private OnlineAuc auc = new GlobalOnlineAuc();
+    private int holdout;
+
+    private Wrapper() {
+      // just here to help copy
+    }
+
+    public Wrapper(int factors, int holdout) {
+      Preconditions.checkArgument(holdout >= 2, "Must hold out at most half of the dyads");
+      this.model = new LatentLogLinear(factors);
+      this.holdout = holdout;
+    }
+
+    @Override
+    public Wrapper copy() {
+      Wrapper r = new Wrapper();
+      r.model = model.copy();
+      r.holdout = holdout;
+      // samples of the original model say nothing about how the copy does
+      r.auc = newEvaluator(auc.getClass());
+      return r;
+    }
+
+    private static OnlineAuc newEvaluator(Class<? extends OnlineAuc> type) {
+      try {
+        return type.newInstance();
+      } catch (InstantiationException e) {
+        throw new IllegalStateException("Can't make a new " + type.getName(), e);
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException("Can't make a new " + type.getName(), e);
+      }
+    }
+
+    @Override
+    public void update(double[] params) {
+      int i = 0;
+      double lambda = params[i++];
+      double learningRate = params[i++];
+      double rankMixRate = params[i++];
+      int factors = (int) Math.round(params[i]);
+
+      if (model.getStep() == 0 && factors != model.getFactors()) {
+        model = new LatentLogLinear(factors);
+      }
+      model.lambda(lambda).learningRate(learningRate).rankMixRate(rankMixRate);
+    }
+
+    public void setMappings(State<Wrapper> x) {
+      int i = 0;
+      // set the range for regularization (lambda)
+      x.setMap(i++, Mapping.logLimit(1.0e-8, 0.1));
+      // set the range for learning rate (mu)
+      x.setMap(i++, Mapping.logLimit(1.0e-3, 10));
+      // set the range for the rank mix rate
+      x.setMap(i++, Mapping.softLimit(0, 0.5));
+      // set the range for the number of factors
+      x.setMap(i, Mapping.logLimit(2, 100));
+    }
+
+    /**
+     * Trains the model on a dyad unless the dyad is held out, in which case it is scored.
+     */
+    public void train(int leftId, int rightId, int actual) {
+      if (isHeldOut(leftId, rightId)) {
+        if (model.leftFactors().isInitialized(leftId) && model.rightFactors().isInitialized(rightId)) {
+          auc.addSample(actual, model.classifyScalar(leftId, rightId));
+        }
+      } else {
+        model.train(leftId, rightId, actual);
+      }
+    }
+
+    private boolean isHeldOut(int leftId, int rightId) {
+      long h = (leftId * 0x9E3779B97F4A7C15L + rightId) * 0xC2B2AE3D27D4EB4FL;
+      return (h >>> 33) % holdout == 0;
+    }
+
+    public double auc() {
+      return auc.auc();
+    }
+
+    public LatentLogLinear getModel() {
+      return model;
+    }
+
+    public OnlineAuc getAucEvaluator() {
+      return auc;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ENGLISH, "auc=%.2f factors=%d", auc(), model.getFactors());
+    }
+  }
+}
@@ -28,7 +28,11 @@ import org.apache.mahout.math.stats.OnlineAuc;
 
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This is a meta-learner that maintains a pool of ordinary OnlineLogisticRegression learners. Each
@@ -57,17 +61,18 @@ import java.util.concurrent.ExecutionException;
  * use of AUC means that AdaptiveLogisticRegression is mostly suited for binary target variables.
  * This will be fixed before long by extending OnlineAuc to handle non-binary cases or by using
  * a different fitness value in non-binary cases.
+ * <p/>
+ * Normally the caller of train waits while each generation trains on the buffered examples.  In
+ * pipelined mode, generations run one at a time on a background thread while the next buffer fills.
+ * A full buffer waits for the previous generation to finish, so generations still happen in order
+ * and give the same results.
  */
 public class AdaptiveLogisticRegression implements OnlineLearner {
 
   private static final int SURVIVORS = 2;
 
   private int record;
-  private int cutoff = 1000;
-  private int minInterval = 1000;
-  private int maxInterval = 1000;
-  private int currentStep = 1000;
-  private int bufferSize = 1000;
+  private final EvolutionSchedule schedule = new EvolutionSchedule();
 
   private List<TrainingExample> buffer = Lists.newArrayList();
   private EvolutionaryProcess<Wrapper> ep;
@@ -79,13 +84,30 @@ public class AdaptiveLogisticRegression implements OnlineLearner {
 
   private boolean freezeSurvivors = true;
 
+  private transient boolean pipelined;
+  // runs generations in pipelined mode.  The buffer of the running generation is kept as the spare.
+  private transient ExecutorService generations;
+  private transient Future<State<Wrapper>> pending;
+  private transient List<TrainingExample> spare;
+
   // for GSON
   private AdaptiveLogisticRegression() {
   }
 
   public AdaptiveLogisticRegression(int numCategories, int numFeatures, PriorFunction prior) {
+    this(new Wrapper(numCategories, numFeatures, prior));
+  }
+
+  /**
+   * Evolves copies of a prototype learner, such as a {@link FtrlLogisticRegression}, rather than
+   * {@link OnlineLogisticRegression} models.
+   */
+  public AdaptiveLogisticRegression(AdjustableOnlineLearner prototype) {
+    this(new Wrapper(prototype));
+  }
+
+  private AdaptiveLogisticRegression(Wrapper w) {
     seed = new State<Wrapper>(new double[2], 10);
-    Wrapper w = new Wrapper(numCategories, numFeatures, prior);
     this.numFeatures = w.getLearner().getNumFeatures();
     seed.setPayload(w);
     w.setMappings(seed);
@@ -107,17 +129,58 @@ public class AdaptiveLogisticRegression implements OnlineLearner {
     record++;
 
     buffer.add(new TrainingExample(trackingKey, groupKey, actual, instance));
-    if (buffer.size() > bufferSize) {
+    if (schedule.isFull(buffer.size())) {
       trainWithBufferedExamples();
     }
   }
 
   private void trainWithBufferedExamples() {
+    if (!pipelined) {
+      runGeneration(buffer, record);
+      return;
+    }
+
+    finishGeneration();
+    final List<TrainingExample> examples = buffer;
+    final int recordNumber = record;
+    buffer = spare == null ? Lists.<TrainingExample>newArrayList() : spare;
+    spare = examples;
+    if (generations == null) {
+      generations = Executors.newSingleThreadExecutor();
+    }
+    pending = generations.submit(new Callable<State<Wrapper>>() {
+      @Override
+      public State<Wrapper> call() {
+        runGeneration(examples, recordNumber);
+        return best;
+      }
+    });
+  }
+
+  /**
+   * Waits for the generation running in the background, if any.
+   */
+  private void finishGeneration() {
+    if (pending != null) {
+      try {
+        best = pending.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for a generation", e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException(e.getCause());
+      } finally {
+        pending = null;
+      }
+    }
+  }
+
+  private void runGeneration(final List<TrainingExample> examples, int recordNumber) {
     try {
       this.best = ep.parallelDo(new EvolutionaryProcess.Function<Wrapper>() {
         @Override
         public double apply(Wrapper x, double[] params) {
-          for (TrainingExample example : buffer) {
+          for (TrainingExample example : examples) {
             x.train(example);
           }
           if (x.getLearner().validModel()) {
@@ -136,11 +199,9 @@ public class AdaptiveLogisticRegression implements OnlineLearner {
     } catch (ExecutionException e) {
       throw new IllegalStateException(e.getCause());
     }
-    buffer.clear();
-
-    if (record > cutoff) {
-      cutoff = nextStep(record);
+    examples.clear();
 
+    if (schedule.evolve(recordNumber)) {
       // evolve based on new fitness
       ep.mutatePopulation(SURVIVORS);
 
@@ -157,36 +218,21 @@ public class AdaptiveLogisticRegression implements OnlineLearner {
   }
 
   public int nextStep(int recordNumber) {
-    int stepSize = stepSize(recordNumber, 2.6);
-    if (stepSize < minInterval) {
-      stepSize = minInterval;
-    }
-
-    if (stepSize > maxInterval) {
-      stepSize = maxInterval;
-    }
-
-    int newCutoff = stepSize * (recordNumber / stepSize + 1);
-    if (newCutoff < cutoff + currentStep) {
-      newCutoff = cutoff + currentStep;
-    } else {
-      this.currentStep = stepSize;
-    }
-    return newCutoff;
+    return schedule.nextStep(recordNumber);
   }
 
   public static int stepSize(int recordNumber, double multiplier) {
-    int[] bumps = {1, 2, 5};
-    double log = Math.floor(multiplier * Math.log10(recordNumber));
-    int bump = bumps[(int) log % bumps.length];
-    int scale = (int) Math.pow(10, Math.floor(log / bumps.length));
-
-    return bump * scale;
+    return EvolutionSchedule.stepSize(recordNumber, multiplier);
   }
 
   @Override
   public void close() {
     trainWithBufferedExamples();
+    finishGeneration();
+    if (generations != null) {
+      generations.shutdown();
+      generations = null;
+    }
     try {
       ep.parallelDo(new EvolutionaryProcess.Function<Wrapper>() {
         @Override
@@ -220,11 +266,8 @@ public class AdaptiveLogisticRegression implements OnlineLearner {
    * @param maxInterval  The maximum epoch length
    */
   public void setInterval(int minInterval, int maxInterval) {
-    this.minInterval = Math.max(200, minInterval);
-    this.maxInterval = Math.max(200, maxInterval);
-    this.cutoff = minInterval * (record / minInterval + 1);
-    this.currentStep = minInterval;
-    bufferSize = Math.min(minInterval, bufferSize);
+    finishGeneration();
+    schedule.setInterval(minInterval, maxInterval, record);
   }
 
   public void setPoolSize(int poolSize) {
@@ -243,6 +286,7 @@ public class AdaptiveLogisticRegression implements OnlineLearner {
   }
 
   private void setupOptimizer(int poolSize) {
+    finishGeneration();
     ep = new EvolutionaryProcess<Wrapper>(threadCount, poolSize, seed);
   }
 
@@ -262,6 +306,7 @@ public class AdaptiveLogisticRegression implements OnlineLearner {
    * @return  The AUC of the best member of the population or NaN if we can't figure that out.
    */
   public double auc() {
+    finishGeneration();
     if (best == null) {
       return Double.NaN;
     } else {
@@ -270,6 +315,7 @@ public class AdaptiveLogisticRegression implements OnlineLearner {
   }
 
   public State<Wrapper> getBest() {
+    finishGeneration();
     return best;
   }
 
@@ -286,11 +332,11 @@ public class AdaptiveLogisticRegression implements OnlineLearner {
   }
 
   public int getMinInterval() {
-    return minInterval;
+    return schedule.getMinInterval();
   }
 
   public int getMaxInterval() {
-    return maxInterval;
+    return schedule.getMaxInterval();
   }
 
   public int getNumCategories() {
@@ -310,6 +356,7 @@ public class AdaptiveLogisticRegression implements OnlineLearner {
   }
 
   public EvolutionaryProcess<Wrapper> getEp() {
+    finishGeneration();
     return ep;
   }
 
@@ -338,6 +385,21 @@ public class AdaptiveLogisticRegression implements OnlineLearner {
     this.freezeSurvivors = freezeSurvivors;
   }
 
+  /**
+   * Sets whether generations train in the background while the next buffer of examples fills.
+   * The status methods wait for the running generation, so they see the same state either way.
+   */
+  public void setPipelined(boolean pipelined) {
+    if (!pipelined) {
+      finishGeneration();
+    }
+    this.pipelined = pipelined;
+  }
+
+  public boolean isPipelined() {
+    return pipelined;
+  }
+
   /**
    * Provides a shim between the EP optimization stuff and the CrossFoldLearner.  The most important
    * interface has to do with the parameters of the optimization.  These are taken from the double[]
@@ -359,6 +421,10 @@ public class AdaptiveLogisticRegression implements OnlineLearner {
       wrapped = new CrossFoldLearner(5, numCategories, numFeatures, prior);
     }
 
+    public Wrapper(AdjustableOnlineLearner prototype) {
+      wrapped = new CrossFoldLearner(5, prototype);
+    }
+
     @Override
     public Wrapper copy() {
       Wrapper r = new Wrapper();
@@ -391,6 +457,13 @@ public class AdaptiveLogisticRegression implements OnlineLearner {
 
     public void setMappings(State<Wrapper> x) {
       int i = 0;
+      if (wrapped.getModels().get(0) instanceof FtrlLogisticRegression) {
+        // FTRL's L1 weight is compared to summed gradients and its alpha to per-coordinate gradient
+        // norms, so both are on a much larger scale
+        x.setMap(i++, Mapping.logLimit(1.0e-4, 100));
+        x.setMap(i, Mapping.logLimit(1.0e-4, 10));
+        return;
+      }
       // set the range for regularization (lambda)
       x.setMap(i++, Mapping.logLimit(1.0e-8, 0.1));
       // set the range for learning rate (mu)
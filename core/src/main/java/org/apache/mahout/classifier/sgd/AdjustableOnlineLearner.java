@@ -44,4 +44,9 @@ public interface AdjustableOnlineLearner extends OnlineLearner, VectorClassifier
   PriorFunction getPrior();
 
   void copyFrom(AdjustableOnlineLearner model);
+
+  /**
+   * Returns a closed copy of this learner of the same kind.
+   */
+  AdjustableOnlineLearner copy();
 }
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import org.apache.mahout.math.AbstractMatrix;
+import org.apache.mahout.math.CardinalityException;
+import org.apache.mahout.math.IndexException;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.MatrixView;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.function.BinaryFunction;
+import org.apache.mahout.math.function.UnaryFunction;
+
+/**
+ * A dense matrix whose rows are {@link CopyOnWriteVector}s so that clones share storage with the
+ * original and only keep track of what they change.
+ */
+public class CopyOnWriteMatrix extends AbstractMatrix {
+  private CopyOnWriteVector[] rows;
+
+  public CopyOnWriteMatrix(int rows, int columns) {
+    this.rows = new CopyOnWriteVector[rows];
+    for (int i = 0; i < rows; i++) {
+      this.rows[i] = new CopyOnWriteVector(columns);
+    }
+    cardinality[ROW] = rows;
+    cardinality[COL] = columns;
+  }
+
+  /**
+   * Makes a copy of any matrix.  Storage is shared if the original is also a CopyOnWriteMatrix.
+   */
+  public static CopyOnWriteMatrix copyOf(Matrix other) {
+    if (other instanceof CopyOnWriteMatrix) {
+      return ((CopyOnWriteMatrix) other).clone();
+    }
+    CopyOnWriteMatrix r = new CopyOnWriteMatrix(other.numRows(), other.numCols());
+    for (int i = 0; i < other.numRows(); i++) {
+      r.rows[i] = CopyOnWriteVector.copyOf(other.getRow(i));
+    }
+    return r;
+  }
+
+  @Override
+  public CopyOnWriteMatrix clone() {
+    CopyOnWriteMatrix r = (CopyOnWriteMatrix) super.clone();
+    r.rows = new CopyOnWriteVector[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      r.rows[i] = rows[i].clone();
+    }
+    return r;
+  }
+
+  @Override
+  public double getQuick(int row, int column) {
+    return rows[row].getQuick(column);
+  }
+
+  @Override
+  public void setQuick(int row, int column, double value) {
+    rows[row].setQuick(column, value);
+  }
+
+  @Override
+  public Matrix like() {
+    return like(rowSize(), columnSize());
+  }
+
+  @Override
+  public Matrix like(int rows, int columns) {
+    return new CopyOnWriteMatrix(rows, columns);
+  }
+
+  @Override
+  public int[] getNumNondefaultElements() {
+    return size();
+  }
+
+  @Override
+  public Matrix viewPart(int[] offset, int[] size) {
+    if (offset[ROW] < 0 || offset[ROW] + size[ROW] > rowSize()) {
+      throw new IndexException(offset[ROW] + size[ROW], rowSize());
+    }
+    if (offset[COL] < 0 || offset[COL] + size[COL] > columnSize()) {
+      throw new IndexException(offset[COL] + size[COL], columnSize());
+    }
+    return new MatrixView(this, offset, size);
+  }
+
+  @Override
+  public Matrix assign(double value) {
+    for (CopyOnWriteVector row : rows) {
+      row.assign(value);
+    }
+    return this;
+  }
+
+  @Override
+  public Matrix assignColumn(int column, Vector other) {
+    if (rowSize() != other.size()) {
+      throw new CardinalityException(rowSize(), other.size());
+    }
+    if (column < 0 || column >= columnSize()) {
+      throw new IndexException(column, columnSize());
+    }
+    for (int row = 0; row < rowSize(); row++) {
+      rows[row].setQuick(column, other.getQuick(row));
+    }
+    return this;
+  }
+
+  @Override
+  public Matrix assignRow(int row, Vector other) {
+    if (columnSize() != other.size()) {
+      throw new CardinalityException(columnSize(), other.size());
+    }
+    if (row < 0 || row >= rowSize()) {
+      throw new IndexException(row, rowSize());
+    }
+    rows[row].assign(other);
+    return this;
+  }
+
+  @Override
+  public Vector getColumn(int column) {
+    if (column < 0 || column >= columnSize()) {
+      throw new IndexException(column, columnSize());
+    }
+    return new TransposeViewVector(this, column) {};
+  }
+
+  /**
+   * Returns a live view of a row.
+   */
+  @Override
+  public Vector getRow(int row) {
+    if (row < 0 || row >= rowSize()) {
+      throw new IndexException(row, rowSize());
+    }
+    return rows[row];
+  }
+
+  /**
+   * Aggregates each row directly rather than through a view so that the changes to a shared row
+   * don't have to be looked up one element at a time.
+   */
+  @Override
+  public double aggregate(BinaryFunction combiner, UnaryFunction mapper) {
+    double result = rows[0].aggregate(combiner, mapper);
+    for (int i = 1; i < rows.length; i++) {
+      result = combiner.apply(result, rows[i].aggregate(combiner, mapper));
+    }
+    return result;
+  }
+}
@@ -0,0 +1,344 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import org.apache.mahout.math.AbstractVector;
+import org.apache.mahout.math.CardinalityException;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.function.BinaryFunction;
+import org.apache.mahout.math.function.IntDoubleProcedure;
+import org.apache.mahout.math.function.UnaryFunction;
+import org.apache.mahout.math.map.OpenIntDoubleHashMap;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A dense vector that shares its values with its clones until there are enough changes to make
+ * sharing pointless.
+ * <p/>
+ * Cloning just shares the array of values.  From then on, neither side writes to the shared array.
+ * Changes are kept in a hash map on top of it instead, so a clone that is trained on sparse data
+ * only pays for the values it actually changes.  Once the changes reach a thirty-second of the size
+ * of the vector, they are folded into a private copy of the array and the vector goes back to being
+ * an ordinary dense vector.  Setting a value to what it already is doesn't count as a change.  A vector
+ * filled with a constant doesn't allocate its array until a value changes.
+ * <p/>
+ * This is used for the coefficients of {@link OnlineLogisticRegression} so that the copies made by
+ * {@link AdaptiveLogisticRegression} for each generation stay cheap.  It is not thread-safe.
+ */
+public class CopyOnWriteVector extends AbstractVector {
+  private static final int MIN_CHANGES = 64;
+
+  // the values, or null if every value is fill
+  private double[] values;
+  private double fill;
+  // set when values is shared with another vector and changes go into the delta
+  private boolean shared;
+  private OpenIntDoubleHashMap delta;
+
+  public CopyOnWriteVector(int size) {
+    super(size);
+  }
+
+  /**
+   * Makes a copy of any vector.  The values are shared if the original is also a
+   * CopyOnWriteVector.
+   */
+  public static CopyOnWriteVector copyOf(Vector other) {
+    if (other instanceof CopyOnWriteVector) {
+      return ((CopyOnWriteVector) other).clone();
+    }
+    CopyOnWriteVector r = new CopyOnWriteVector(other.size());
+    Iterator<Element> i = other.iterateNonZero();
+    while (i.hasNext()) {
+      Element element = i.next();
+      r.setQuick(element.index(), element.get());
+    }
+    return r;
+  }
+
+  @Override
+  public CopyOnWriteVector clone() {
+    CopyOnWriteVector r = (CopyOnWriteVector) super.clone();
+    if (values != null) {
+      shared = true;
+      r.shared = true;
+    }
+    if (delta != null) {
+      r.delta = (OpenIntDoubleHashMap) delta.clone();
+    }
+    return r;
+  }
+
+  @Override
+  public double getQuick(int index) {
+    if (delta != null) {
+      double v = delta.get(index);
+      if (v != 0 || delta.containsKey(index)) {
+        return v;
+      }
+    }
+    return values == null ? fill : values[index];
+  }
+
+  @Override
+  public void setQuick(int index, double value) {
+    if (shared) {
+      if (getQuick(index) == value) {
+        return;
+      }
+      if (delta == null) {
+        delta = new OpenIntDoubleHashMap();
+      }
+      delta.put(index, value);
+      if (delta.size() > Math.max(MIN_CHANGES, size() / 32)) {
+        unshare();
+      }
+    } else {
+      if (values == null) {
+        if (value == fill) {
+          return;
+        }
+        values = new double[size()];
+        Arrays.fill(values, fill);
+      }
+      values[index] = value;
+    }
+    lengthSquared = -1;
+  }
+
+  /**
+   * Folds the changes into a private copy of the values.
+   */
+  private void unshare() {
+    final double[] copy = values.clone();
+    delta.forEachPair(new IntDoubleProcedure() {
+      @Override
+      public boolean apply(int index, double value) {
+        copy[index] = value;
+        return true;
+      }
+    });
+    values = copy;
+    delta = null;
+    shared = false;
+  }
+
+  @Override
+  public Vector assign(double value) {
+    values = null;
+    fill = value;
+    shared = false;
+    delta = null;
+    lengthSquared = -1;
+    return this;
+  }
+
+  /**
+   * Returns true if this vector shares its values with another vector.
+   */
+  public boolean isShared() {
+    return shared;
+  }
+
+  /**
+   * Returns how many values have been changed since the values were shared.
+   */
+  public int getDeltaSize() {
+    return delta == null ? 0 : delta.size();
+  }
+
+  @Override
+  public double dot(Vector x) {
+    if (size() != x.size()) {
+      throw new CardinalityException(size(), x.size());
+    }
+    if (x.isDense()) {
+      return super.dot(x);
+    }
+    double result = 0;
+    Iterator<Element> i = x.iterateNonZero();
+    while (i.hasNext()) {
+      Element element = i.next();
+      result += element.get() * getQuick(element.index());
+    }
+    return result;
+  }
+
+  @Override
+  public boolean isDense() {
+    return true;
+  }
+
+  @Override
+  public boolean isSequentialAccess() {
+    return true;
+  }
+
+  @Override
+  public Vector like() {
+    return new CopyOnWriteVector(size());
+  }
+
+  @Override
+  protected Matrix matrixLike(int rows, int columns) {
+    return new CopyOnWriteMatrix(rows, columns);
+  }
+
+  @Override
+  public int getNumNondefaultElements() {
+    return size();
+  }
+
+  @Override
+  public Iterator<Element> iterateNonZero() {
+    return new Walker(true);
+  }
+
+  @Override
+  public Iterator<Element> iterator() {
+    return new Walker(false);
+  }
+
+  /**
+   * Returns the indexes of the changed values in order.
+   */
+  private int[] sortedDelta() {
+    if (delta == null) {
+      return new int[0];
+    }
+    final int[] r = new int[delta.size()];
+    delta.forEachPair(new IntDoubleProcedure() {
+      private int n;
+
+      @Override
+      public boolean apply(int index, double value) {
+        r[n++] = index;
+        return true;
+      }
+    });
+    Arrays.sort(r);
+    return r;
+  }
+
+  @Override
+  public double aggregate(BinaryFunction aggregator, UnaryFunction map) {
+    if (size() < 1) {
+      throw new IllegalArgumentException("Cannot aggregate empty vector");
+    }
+    // walk the changes alongside the values rather than looking up every index in the delta
+    int[] changed = sortedDelta();
+    int k = 0;
+    double result = 0;
+    for (int i = 0; i < size(); i++) {
+      double v;
+      if (k < changed.length && changed[k] == i) {
+        v = delta.get(i);
+        k++;
+      } else {
+        v = values == null ? fill : values[i];
+      }
+      result = i == 0 ? map.apply(v) : aggregator.apply(result, map.apply(v));
+    }
+    return result;
+  }
+
+  /**
+   * Steps through the values in order.  Only the indexes that were changed after sharing are looked
+   * up in the delta, so skipping zeros costs about what it does for a plain dense vector.
+   */
+  private final class Walker implements Iterator<Element> {
+    private final boolean skipZeros;
+    private final LocalElement element = new LocalElement();
+    private final double[] base = values;
+    private final int[] changed = sortedDelta();
+    private int k;
+    private int next;
+
+    private Walker(boolean skipZeros) {
+      this.skipZeros = skipZeros;
+      if (skipZeros && base == null && changed.length == 0 && fill == 0) {
+        next = size();
+      }
+      advance();
+    }
+
+    private void advance() {
+      if (!skipZeros) {
+        return;
+      }
+      while (next < size()) {
+        if (k < changed.length && changed[k] == next) {
+          if (getQuick(next) != 0) {
+            return;
+          }
+          k++;
+        } else if ((base == null ? fill : base[next]) != 0) {
+          return;
+        }
+        next++;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next < size();
+    }
+
+    @Override
+    public Element next() {
+      if (next >= size()) {
+        throw new NoSuchElementException();
+      }
+      element.index = next;
+      if (k < changed.length && changed[k] == next) {
+        k++;
+      }
+      next++;
+      advance();
+      return element;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private final class LocalElement implements Element {
+    private int index;
+
+    @Override
+    public double get() {
+      return getQuick(index);
+    }
+
+    @Override
+    public int index() {
+      return index;
+    }
+
+    @Override
+    public void set(double value) {
+      setQuick(index, value);
+    }
+  }
+}
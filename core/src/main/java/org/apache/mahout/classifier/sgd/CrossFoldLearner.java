@@ -31,11 +31,15 @@ import java.util.List;
 
 /**
  * Does cross-fold validation of log-likelihood and AUC on several online logistic regression
- * models. Each record is passed to all but one of the models for training and to the remaining
- * model for evaluation.  In order to maintain proper segregation between the different folds across
- * training data iterations, data should either be passed to this learner in the same order each
- * time the training data is traversed or a tracking key such as the file offset of the training
- * record should be passed with each training example.
+ * models.  These are {@link OnlineLogisticRegression} models unless a prototype of another kind of
+ * learner is given.  Each record is passed to all but one of the models for training and to the
+ * remaining model for evaluation.  In order to maintain proper segregation between the different
+ * folds across training data iterations, data should either be passed to this learner in the same
+ * order each time the training data is traversed or a tracking key such as the file offset of the
+ * training record should be passed with each training example.
+ * <p/>
+ * In concurrent mode each fold model is trained by its own thread.  Training examples are then
+ * queued and the models and statistics only reflect all of them after {@link #close()}.
  */
 public class CrossFoldLearner extends AbstractVectorClassifier implements OnlineLearner {
   private int record;
@@ -53,6 +57,10 @@ public class CrossFoldLearner extends AbstractVectorClassifier implements Online
 
   private int windowSize = Integer.MAX_VALUE;
 
+  private transient boolean concurrent;
+  // trains the folds in concurrent mode, started by the first example after close
+  private transient FoldRing ring;
+
   // pretty much just for GSON
   public CrossFoldLearner() {
   }
@@ -67,6 +75,20 @@ public class CrossFoldLearner extends AbstractVectorClassifier implements Online
     }
   }
 
+  /**
+   * Makes a learner whose folds are copies of a prototype, which can be any kind of learner.
+   *
+   * @param folds      The number of folds.
+   * @param prototype  The learner to copy for each fold.
+   */
+  public CrossFoldLearner(int folds, AdjustableOnlineLearner prototype) {
+    this.numFeatures = prototype.numFeatures();
+    this.prior = prototype.getPrior();
+    for (int i = 0; i < folds; i++) {
+      models.add(prototype.copy());
+    }
+  }
+
   // -------- builder-like configuration methods
 
   public CrossFoldLearner lambda(double v) {
@@ -104,6 +126,19 @@ public class CrossFoldLearner extends AbstractVectorClassifier implements Online
     return this;
   }
 
+  /**
+   * Sets whether each fold model is trained by a thread of its own.  The results are the same
+   * either way, but in concurrent mode the statistics only count examples that every fold has
+   * finished with, and the models shouldn't be used for classification until after {@link #close()}.
+   */
+  public CrossFoldLearner concurrent(boolean concurrent) {
+    if (!concurrent) {
+      stopRing();
+    }
+    this.concurrent = concurrent;
+    return this;
+  }
+
   // -------- training methods
   @Override
   public void train(int actual, Vector instance) {
@@ -118,18 +153,20 @@ public class CrossFoldLearner extends AbstractVectorClassifier implements Online
   @Override
   public void train(long trackingKey, String groupKey, int actual, Vector instance) {
     record++;
+    if (concurrent) {
+      if (ring == null) {
+        ring = new FoldRing(this, models);
+      }
+      ring.add(record, trackingKey, groupKey, actual, instance);
+      return;
+    }
+
     int k = 0;
     for (AdjustableOnlineLearner model : models) {
       if (k == trackingKey % models.size()) {
         Vector v = model.classifyFull(instance);
-        double score = Math.max(v.get(actual), MIN_SCORE);
-        logLikelihood += (Math.log(score) - logLikelihood) / Math.min(record, windowSize);
-
-        int correct = v.maxValueIndex() == actual ? 1 : 0;
-        percentCorrect += (correct - percentCorrect) / Math.min(record, windowSize);
-        if (numCategories() == 2) {
-          auc.addSample(actual, groupKey, v.get(1));
-        }
+        addScore(record, actual, groupKey, v.get(actual), v.maxValueIndex() == actual,
+            numCategories() == 2 ? v.get(1) : Double.NaN);
       } else {
         model.train(trackingKey, groupKey, actual, instance);
       }
@@ -137,13 +174,45 @@ public class CrossFoldLearner extends AbstractVectorClassifier implements Online
     }
   }
 
+  /**
+   * Updates the statistics with the held out score of a record.  In concurrent mode this is called
+   * in record order as the fold threads finish with each record.
+   *
+   * @param record   The record count when the record was trained.
+   * @param score    The score the held out model gave to the actual category.
+   * @param correct  Whether the actual category got the highest score.
+   * @param p1       The score of category 1 for binary problems.
+   */
+  void addScore(int record, int actual, String groupKey, double score, boolean correct, double p1) {
+    logLikelihood += (Math.log(Math.max(score, MIN_SCORE)) - logLikelihood) / Math.min(record, windowSize);
+    percentCorrect += ((correct ? 1 : 0) - percentCorrect) / Math.min(record, windowSize);
+    if (numCategories() == 2) {
+      auc.addSample(actual, groupKey, p1);
+    }
+  }
+
+  /**
+   * Finishes training, including any examples still queued in concurrent mode, and closes the
+   * models.  More training after close in concurrent mode restarts the fold threads.
+   */
   @Override
   public void close() {
+    stopRing();
     for (AdjustableOnlineLearner m : models) {
       m.close();
     }
   }
 
+  private void stopRing() {
+    if (ring != null) {
+      try {
+        ring.close();
+      } finally {
+        ring = null;
+      }
+    }
+  }
+
   public void resetLineCounter() {
     record = 0;
   }
@@ -211,17 +280,23 @@ public class CrossFoldLearner extends AbstractVectorClassifier implements Online
   // -------- evolutionary optimization
 
   public CrossFoldLearner copy() {
-    CrossFoldLearner r = new CrossFoldLearner(models.size(), numCategories(), numFeatures, prior);
-    r.models.clear();
+    CrossFoldLearner r = new CrossFoldLearner();
+    r.numFeatures = numFeatures;
+    r.prior = prior;
+    // the copy starts its own fold threads on its first example
+    r.concurrent = concurrent;
+    stopRing();
     for (AdjustableOnlineLearner model : models) {
-      model.close();
-      AdjustableOnlineLearner newModel = new OnlineLogisticRegression(model.numCategories(), model.numFeatures(), model.getPrior());
-      newModel.copyFrom(model);
-      r.models.add(newModel);
+      // keeps the kind of model
+      r.models.add(model.copy());
     }
     return r;
   }
 
+  public boolean isConcurrent() {
+    return concurrent;
+  }
+
   public int getRecord() {
     return record;
   }
@@ -250,7 +325,7 @@ public class CrossFoldLearner extends AbstractVectorClassifier implements Online
     return models;
   }
 
-  public void addModel(OnlineLogisticRegression model) {
+  public void addModel(AdjustableOnlineLearner model) {
     models.add(model);
   }
 
@@ -25,6 +25,7 @@ import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.vectorizer.encoders.ConstantValueEncoder;
 import org.apache.mahout.vectorizer.encoders.ContinuousValueEncoder;
@@ -94,6 +95,8 @@ public class CsvRecordFactory implements RecordFactory {
   private final String targetName;
   private final Map<String, String> typeMap;
   private List<String> variableNames;
+  // the header line, kept so that copies can be made for other threads
+  private String header;
   private boolean includeBiasTerm;
   private static final String CANNOT_CONSTRUCT_CONVERTER = "Unable to construct type converter... shouldn't be possible";
 
@@ -155,6 +158,7 @@ public class CsvRecordFactory implements RecordFactory {
   public void firstLine(String line) {
     // read variable names, build map of name -> column
     final Map<String, Integer> vars = Maps.newHashMap();
+    header = line;
     variableNames = Lists.newArrayList(onComma.split(line));
     int column = 0;
     for (String var : variableNames) {
@@ -224,12 +228,17 @@ public class CsvRecordFactory implements RecordFactory {
    */
   @Override
   public int processLine(String line, Vector featureVector) {
-    List<String> values = Lists.newArrayList(onComma.split(line));
+    return targetValue(processFeatures(line, featureVector));
+  }
 
-    int targetValue = targetDictionary.intern(values.get(target));
-    if (targetValue >= maxTargetValue) {
-      targetValue = maxTargetValue - 1;
-    }
+  /**
+   * Does the part of {@link #processLine(String, Vector)} that only depends on the line.  Copies
+   * made by {@link #copyForThread()} can do this on other threads.
+   *
+   * @return The raw value of the target variable.
+   */
+  String processFeatures(String line, Vector featureVector) {
+    List<String> values = Lists.newArrayList(onComma.split(line));
 
     for (Integer predictor : predictors) {
       String value;
@@ -240,9 +249,46 @@ public class CsvRecordFactory implements RecordFactory {
       }
       predictorEncoders.get(predictor).addToVector(value, featureVector);
     }
+    return values.get(target);
+  }
+
+  /**
+   * Encodes a raw value of the target variable.  Values are numbered in the order they are first
+   * seen, so this has to be called in the order of the input.
+   */
+  int targetValue(String value) {
+    int targetValue = targetDictionary.intern(value);
+    if (targetValue >= maxTargetValue) {
+      targetValue = maxTargetValue - 1;
+    }
     return targetValue;
   }
 
+  /**
+   * Makes a copy with its own encoders and trace dictionary that can encode features on another
+   * thread.  Target values should still be encoded by this factory.
+   */
+  CsvRecordFactory copyForThread() {
+    Preconditions.checkState(header != null, "The first line has to be processed before copying");
+    CsvRecordFactory r = new CsvRecordFactory(targetName, typeMap).includeBiasTerm(includeBiasTerm);
+    r.firstLine(header);
+    return r;
+  }
+
+  /**
+   * Adds the features traced by a copy to the trace dictionary of this factory.
+   */
+  void mergeTraceDictionary(CsvRecordFactory copy) {
+    for (Map.Entry<String, Set<Integer>> entry : copy.traceDictionary.entrySet()) {
+      Set<Integer> trace = traceDictionary.get(entry.getKey());
+      if (trace == null) {
+        traceDictionary.put(entry.getKey(), Sets.newHashSet(entry.getValue()));
+      } else {
+        trace.addAll(entry.getValue());
+      }
+    }
+  }
+
   /**
    * Returns a list of the names of the predictor variables.
    *
@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import org.apache.mahout.classifier.OnlineLearner;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.SequentialAccessSparseVector;
+import org.apache.mahout.math.Vector;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Trains an {@link OnlineLearner} on a csv file for some number of passes, parsing and encoding
+ * lines with {@link CsvRecordFactory} on several threads.
+ * <p/>
+ * A reader thread cuts the file into chunks of lines and hands each chunk to a pool of workers.
+ * Each worker has its own copy of the record factory and encodes the lines of a chunk into vectors
+ * that belong to the chunk.  The calling thread takes the chunks in file order from a bounded queue
+ * and trains on them, so the learner sees the same examples in the same order as it would with a
+ * single thread.  Target values are encoded by the calling thread for the same reason.  Trained
+ * chunks go back to the reader with their vectors to be filled again.  Since vectors are reused,
+ * learners that keep the instances they are given, such as {@link AdaptiveLogisticRegression},
+ * need {@link #reuseVectors(boolean)} to be turned off.
+ * <p/>
+ * With more than one pass, the encoded vectors of the first pass are kept by default and later
+ * passes train on them without reading the file again.  Each example is trained with its line
+ * number as the tracking key so that a {@link CrossFoldLearner} holds out the same examples on
+ * every pass.
+ */
+public class CsvTrainer {
+  private static final int DEFAULT_CHUNK_SIZE = 1000;
+  private static final int READ_BUFFER_SIZE = 1 << 20;
+
+  private final CsvRecordFactory csv;
+  private final int numFeatures;
+  private int passes = 1;
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private int chunkSize = DEFAULT_CHUNK_SIZE;
+  private int queueSize = -1;
+  private boolean cache = true;
+  private boolean reuseVectors = true;
+
+  // encoded examples from the first pass if they are being kept
+  private List<Vector> cachedInstances;
+  private int[] cachedTargets;
+
+  public CsvTrainer(CsvRecordFactory csv, int numFeatures) {
+    this.csv = csv;
+    this.numFeatures = numFeatures;
+  }
+
+  public CsvTrainer passes(int passes) {
+    if (passes < 1) {
+      throw new IllegalArgumentException("Need at least one pass");
+    }
+    this.passes = passes;
+    return this;
+  }
+
+  /**
+   * Sets the number of threads that parse and encode lines.
+   */
+  public CsvTrainer threads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Need at least one thread");
+    }
+    this.threads = threads;
+    return this;
+  }
+
+  /**
+   * Sets the number of lines in each chunk handed to a worker.
+   */
+  public CsvTrainer chunkSize(int chunkSize) {
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("Chunk size must be positive");
+    }
+    this.chunkSize = chunkSize;
+    return this;
+  }
+
+  /**
+   * Sets how many chunks can be read ahead of the learner.  The default is twice the number of
+   * threads.
+   */
+  public CsvTrainer queueSize(int queueSize) {
+    if (queueSize < 1) {
+      throw new IllegalArgumentException("Queue size must be positive");
+    }
+    this.queueSize = queueSize;
+    return this;
+  }
+
+  /**
+   * Sets whether the vectors of the first pass are kept for later passes.  If not, every pass reads
+   * and parses the file again.
+   */
+  public CsvTrainer cache(boolean cache) {
+    this.cache = cache;
+    return this;
+  }
+
+  /**
+   * Sets whether the vectors of a chunk are reused once the learner has trained on them.  This has
+   * to be off for learners that hold on to instances after training on them.
+   */
+  public CsvTrainer reuseVectors(boolean reuseVectors) {
+    this.reuseVectors = reuseVectors;
+    return this;
+  }
+
+  /**
+   * Trains the learner on all passes over a file whose first line names the variables.  The learner
+   * isn't closed.
+   *
+   * @return The number of training calls made.
+   */
+  public long train(File input, OnlineLearner learner) throws IOException {
+    cachedInstances = null;
+    cachedTargets = null;
+    boolean keep = cache && passes > 1;
+
+    long calls = 0;
+    for (int pass = 0; pass < passes; pass++) {
+      if (pass > 0 && keep) {
+        for (int i = 0; i < cachedTargets.length; i++) {
+          learner.train(i, cachedTargets[i], cachedInstances.get(i));
+        }
+        calls += cachedTargets.length;
+      } else {
+        calls += trainFromFile(input, learner, pass == 0, keep);
+      }
+    }
+    cachedInstances = null;
+    cachedTargets = null;
+    return calls;
+  }
+
+  private long trainFromFile(File input, OnlineLearner learner, boolean firstPass, boolean keep)
+    throws IOException {
+    final BufferedReader in = new BufferedReader(
+        new InputStreamReader(new FileInputStream(input), Charsets.UTF_8), READ_BUFFER_SIZE);
+    try {
+      String header = in.readLine();
+      if (header == null) {
+        return 0;
+      }
+      if (firstPass) {
+        csv.firstLine(header);
+      }
+
+      int chunks = queueSize > 0 ? queueSize : 2 * threads;
+      final BlockingQueue<Chunk> free = new ArrayBlockingQueue<Chunk>(chunks + threads + 1);
+      for (int i = 0; i < chunks + threads + 1; i++) {
+        free.add(new Chunk(chunkSize));
+      }
+      final BlockingQueue<Future<Chunk>> ready = new ArrayBlockingQueue<Future<Chunk>>(chunks);
+
+      // every worker thread encodes with its own copy of the record factory
+      final List<CsvRecordFactory> copies = Lists.newArrayList();
+      final ThreadLocal<CsvRecordFactory> localCsv = new ThreadLocal<CsvRecordFactory>() {
+        @Override
+        protected CsvRecordFactory initialValue() {
+          CsvRecordFactory r = csv.copyForThread();
+          synchronized (copies) {
+            copies.add(r);
+          }
+          return r;
+        }
+      };
+
+      final ExecutorService workers = Executors.newFixedThreadPool(threads);
+      ExecutorService reader = Executors.newSingleThreadExecutor();
+      List<Vector> instances = keep ? Lists.<Vector>newArrayList() : null;
+      List<Integer> targets = keep ? Lists.<Integer>newArrayList() : null;
+      long record = 0;
+      try {
+        Future<Void> reading = reader.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            try {
+              while (true) {
+                final Chunk chunk = free.take();
+                chunk.size = 0;
+                String line = in.readLine();
+                while (line != null) {
+                  chunk.lines[chunk.size++] = line;
+                  if (chunk.size == chunk.lines.length) {
+                    break;
+                  }
+                  line = in.readLine();
+                }
+                if (chunk.size == 0) {
+                  return null;
+                }
+                ready.put(workers.submit(new Callable<Chunk>() {
+                  @Override
+                  public Chunk call() {
+                    chunk.encode(localCsv.get(), numFeatures, reuseVectors);
+                    return chunk;
+                  }
+                }));
+                if (line == null) {
+                  return null;
+                }
+              }
+            } finally {
+              // an empty chunk marks the end
+              ready.put(workers.submit(new Callable<Chunk>() {
+                @Override
+                public Chunk call() {
+                  return new Chunk(0);
+                }
+              }));
+            }
+          }
+        });
+
+        while (true) {
+          Chunk chunk = ready.take().get();
+          if (chunk.size == 0) {
+            break;
+          }
+          for (int i = 0; i < chunk.size; i++) {
+            int target = csv.targetValue(chunk.targets[i]);
+            learner.train(record, target, chunk.vectors[i]);
+            if (keep) {
+              instances.add(new SequentialAccessSparseVector(chunk.vectors[i]));
+              targets.add(target);
+            }
+            record++;
+          }
+          free.put(chunk);
+        }
+        reading.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while training", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw new IllegalStateException(e.getCause());
+      } finally {
+        reader.shutdownNow();
+        workers.shutdownNow();
+      }
+
+      if (firstPass) {
+        for (CsvRecordFactory copy : copies) {
+          csv.mergeTraceDictionary(copy);
+        }
+      }
+      if (keep) {
+        cachedInstances = instances;
+        cachedTargets = new int[targets.size()];
+        for (int i = 0; i < cachedTargets.length; i++) {
+          cachedTargets[i] = targets.get(i);
+        }
+      }
+      return record;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Lines of the input and the vectors and raw target values they are encoded into.
+   */
+  private static final class Chunk {
+    private final String[] lines;
+    private final Vector[] vectors;
+    private final String[] targets;
+    private int size;
+
+    private Chunk(int capacity) {
+      lines = new String[capacity];
+      vectors = new Vector[capacity];
+      targets = new String[capacity];
+    }
+
+    void encode(CsvRecordFactory csv, int numFeatures, boolean reuse) {
+      for (int i = 0; i < size; i++) {
+        if (reuse && vectors[i] != null) {
+          vectors[i].assign(0);
+        } else {
+          vectors[i] = new RandomAccessSparseVector(numFeatures);
+        }
+        targets[i] = csv.processFeatures(lines[i], vectors[i]);
+        lines[i] = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only, memory mapped view of a file of dyad events written by {@link DyadEventWriter}.
+ * <p/>
+ * The file starts with the magic number 0x44594144, the format version and a flags word, all as
+ * big-endian ints.  After that come fixed width records, each holding the left id and right id as
+ * ints, the label as a byte and, if bit 0 of the flags is set, a float weight.  Records are read
+ * in place by index so nothing is allocated per record and the file can be much larger than the
+ * heap.
+ */
+public class DyadEventFile {
+  static final int MAGIC = 0x44594144;
+  static final int VERSION = 1;
+  static final int WEIGHTED = 1;
+  static final int HEADER_BYTES = 12;
+
+  // each mapped buffer holds at most about this many bytes of records
+  private static final int MAX_BUFFER_BYTES = 1 << 30;
+
+  private final long size;
+  private final boolean weighted;
+  private final int width;
+
+  // records are split over several buffers since one buffer can't hold more than 2GB
+  private final MappedByteBuffer[] buffers;
+  private final int recordsPerBuffer;
+
+  private DyadEventFile(long size, boolean weighted, MappedByteBuffer[] buffers, int recordsPerBuffer) {
+    this.size = size;
+    this.weighted = weighted;
+    this.width = recordWidth(weighted);
+    this.buffers = buffers;
+    this.recordsPerBuffer = recordsPerBuffer;
+  }
+
+  /**
+   * Maps a file of dyad events.
+   */
+  public static DyadEventFile open(File file) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      int magic = in.readInt();
+      if (magic != MAGIC) {
+        throw new IOException(String.format("Not a dyad event file, found magic number %08x", magic));
+      }
+      int version = in.readInt();
+      if (version > VERSION) {
+        throw new IOException("Can't read dyad event file version " + version);
+      }
+      boolean weighted = (in.readInt() & WEIGHTED) != 0;
+      int width = recordWidth(weighted);
+
+      long bytes = in.length() - HEADER_BYTES;
+      if (bytes % width != 0) {
+        throw new IOException("Dyad event file is truncated " + file);
+      }
+      long size = bytes / width;
+
+      FileChannel channel = in.getChannel();
+      int recordsPerBuffer = MAX_BUFFER_BYTES / width;
+      MappedByteBuffer[] buffers = new MappedByteBuffer[(int) ((size + recordsPerBuffer - 1) / recordsPerBuffer)];
+      long start = HEADER_BYTES;
+      for (int i = 0; i < buffers.length; i++) {
+        long length = (long) width * Math.min(recordsPerBuffer, size - (long) i * recordsPerBuffer);
+        buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        start += length;
+      }
+      return new DyadEventFile(size, weighted, buffers, recordsPerBuffer);
+    } finally {
+      // mappings stay valid after the file is closed
+      in.close();
+    }
+  }
+
+  static int recordWidth(boolean weighted) {
+    return weighted ? 13 : 9;
+  }
+
+  /**
+   * Returns the number of events in the file.
+   */
+  public long size() {
+    return size;
+  }
+
+  public boolean isWeighted() {
+    return weighted;
+  }
+
+  public int leftId(long event) {
+    return buffer(event).getInt(position(event));
+  }
+
+  public int rightId(long event) {
+    return buffer(event).getInt(position(event) + 4);
+  }
+
+  public int actual(long event) {
+    return buffer(event).get(position(event) + 8);
+  }
+
+  /**
+   * Returns the weight of an event, which is 1 if the file has no weights.
+   */
+  public float weight(long event) {
+    return weighted ? buffer(event).getFloat(position(event) + 9) : 1;
+  }
+
+  private MappedByteBuffer buffer(long event) {
+    return buffers[(int) (event / recordsPerBuffer)];
+  }
+
+  private int position(long event) {
+    return (int) (event % recordsPerBuffer) * width;
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import org.apache.mahout.common.RandomUtils;
+
+import java.util.Random;
+
+/**
+ * Streams the events in a {@link DyadEventFile} into a {@link DyadicLearner} for some number of
+ * epochs.
+ * <p/>
+ * Events are shuffled on the fly without copying the file.  The file is cut into blocks of
+ * consecutive events and each epoch visits the blocks in a new random order, starting each block at a
+ * random event and wrapping around.  Blocks should be large enough to read efficiently from disk and
+ * small enough that their number gives a good mix.
+ * <p/>
+ * Weighted events are trained a random number of times whose expected value is the weight, so
+ * learners need no special support for weights.
+ */
+public class DyadEventTrainer {
+  private static final int DEFAULT_BLOCK_SIZE = 4096;
+
+  private final DyadEventFile events;
+  private final Random rand = RandomUtils.getRandom();
+  private int epochs = 1;
+  private int blockSize = DEFAULT_BLOCK_SIZE;
+  private boolean shuffle = true;
+
+  public DyadEventTrainer(DyadEventFile events) {
+    this.events = events;
+  }
+
+  public DyadEventTrainer epochs(int epochs) {
+    this.epochs = epochs;
+    return this;
+  }
+
+  public DyadEventTrainer blockSize(int blockSize) {
+    if (blockSize < 1) {
+      throw new IllegalArgumentException("Block size must be positive");
+    }
+    this.blockSize = blockSize;
+    return this;
+  }
+
+  /**
+   * Sets whether events are shuffled.  If not, each epoch reads the file in order.
+   */
+  public DyadEventTrainer shuffle(boolean shuffle) {
+    this.shuffle = shuffle;
+    return this;
+  }
+
+  /**
+   * Trains the learner on all epochs.
+   *
+   * @return The number of training calls made.
+   */
+  public long train(DyadicLearner learner) {
+    long size = events.size();
+    long blocks = (size + blockSize - 1) / blockSize;
+    if (blocks > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Too many blocks, use a larger block size");
+    }
+    int[] order = new int[(int) blocks];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+
+    boolean weighted = events.isWeighted();
+    long calls = 0;
+    for (int epoch = 0; epoch < epochs; epoch++) {
+      if (shuffle) {
+        for (int i = order.length - 1; i > 0; i--) {
+          int j = rand.nextInt(i + 1);
+          int tmp = order[i];
+          order[i] = order[j];
+          order[j] = tmp;
+        }
+      }
+      for (int block : order) {
+        long start = (long) block * blockSize;
+        int n = (int) Math.min(blockSize, size - start);
+        int first = shuffle ? rand.nextInt(n) : 0;
+        for (int i = 0; i < n; i++) {
+          long event = start + (first + i) % n;
+          int leftId = events.leftId(event);
+          int rightId = events.rightId(event);
+          int actual = events.actual(event);
+          int repeats = weighted ? repeats(events.weight(event)) : 1;
+          for (int r = 0; r < repeats; r++) {
+            learner.train(leftId, rightId, actual);
+          }
+          calls += repeats;
+        }
+      }
+    }
+    return calls;
+  }
+
+  // rounds a weight up or down at random so that the expected result is the weight
+  private int repeats(float weight) {
+    if (weight <= 0) {
+      return 0;
+    }
+    int whole = (int) Math.floor(weight);
+    return whole + (rand.nextDouble() < weight - whole ? 1 : 0);
+  }
+}
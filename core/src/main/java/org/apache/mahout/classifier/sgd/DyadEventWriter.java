@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
+import org.apache.mahout.common.FileLineIterator;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * Writes dyad events in the compact binary format read by {@link DyadEventFile}.
+ */
+public class DyadEventWriter implements Closeable {
+  private final DataOutputStream out;
+  private final boolean weighted;
+  private long count;
+
+  /**
+   * @param file      Where to write the events.
+   * @param weighted  Whether each event has a weight.
+   */
+  public DyadEventWriter(File file, boolean weighted) throws IOException {
+    this.weighted = weighted;
+    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    out.writeInt(DyadEventFile.MAGIC);
+    out.writeInt(DyadEventFile.VERSION);
+    out.writeInt(weighted ? DyadEventFile.WEIGHTED : 0);
+  }
+
+  /**
+   * Writes an event.  If the file is weighted, the weight is 1.
+   */
+  public void write(int leftId, int rightId, int actual) throws IOException {
+    write(leftId, rightId, actual, 1);
+  }
+
+  public void write(int leftId, int rightId, int actual, float weight) throws IOException {
+    Preconditions.checkArgument(actual == (byte) actual, "Label must fit in a byte");
+    Preconditions.checkArgument(weighted || weight == 1, "Can't write a weight to an unweighted file");
+    out.writeInt(leftId);
+    out.writeInt(rightId);
+    out.writeByte(actual);
+    if (weighted) {
+      out.writeFloat(weight);
+    }
+    count++;
+  }
+
+  /**
+   * Returns how many events have been written.
+   */
+  public long getCount() {
+    return count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+
+  /**
+   * Converts a file in the text format read by {@link FileDataModel} to dyad events with the user
+   * id on the left and the item id on the right.  Preferences of at least the threshold get label 1
+   * and the rest get label 0.  Lines without a preference value count as label 1.  Blank lines and
+   * comments are skipped.  An empty preference value, which FileDataModel reads as the removal of an
+   * earlier preference, is rejected since events that were already written can't be taken back.
+   *
+   * @param input      The text file, possibly compressed.
+   * @param output     Where to write the events.
+   * @param threshold  The smallest preference that counts as positive.
+   * @return The number of events written.
+   */
+  public static long convert(File input, File output, double threshold) throws IOException {
+    FileLineIterator lines = new FileLineIterator(input);
+    DyadEventWriter out = new DyadEventWriter(output, false);
+    try {
+      Pattern delimiter = null;
+      while (lines.hasNext()) {
+        String line = lines.next();
+        if (line.length() == 0 || line.charAt(0) == '#') {
+          continue;
+        }
+        if (delimiter == null) {
+          delimiter = Pattern.compile(String.valueOf(FileDataModel.determineDelimiter(line)));
+        }
+        // keep trailing empty fields so that a removal isn't mistaken for a line without a preference
+        String[] tokens = delimiter.split(line, -1);
+        Preconditions.checkArgument(tokens.length >= 2, "Bad line: %s", line);
+        Preconditions.checkArgument(tokens.length < 3 || tokens[2].length() > 0,
+            "Removing preferences isn't supported: %s", line);
+        int actual = tokens.length < 3 || Double.parseDouble(tokens[2]) >= threshold ? 1 : 0;
+        out.write(id(tokens[0]), id(tokens[1]), actual);
+      }
+      return out.getCount();
+    } finally {
+      out.close();
+      lines.close();
+    }
+  }
+
+  private static int id(String token) {
+    long id = Long.parseLong(token);
+    Preconditions.checkArgument(id >= 0 && id <= Integer.MAX_VALUE, "Id doesn't fit in an int: %s", token);
+    return (int) id;
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+/**
+ * Learns from dyads given directly as a pair of integer ids and a target value.  This avoids the
+ * cost of packing the ids into a vector for {@link org.apache.mahout.classifier.OnlineLearner}.
+ */
+public interface DyadicLearner {
+  /**
+   * Updates the model with a single dyad.
+   *
+   * @param leftId   The id of the left item.
+   * @param rightId  The id of the right item.
+   * @param actual   The target value.
+   */
+  void train(int leftId, int rightId, int actual);
+}
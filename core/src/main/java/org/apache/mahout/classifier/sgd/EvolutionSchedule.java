@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+/**
+ * Decides when the population of an adaptive learner such as {@link AdaptiveLogisticRegression} or
+ * {@link AdaptiveLatentLogLinear} trains and when it evolves.  Examples are buffered and the whole
+ * population trains on a buffer once it is full.  After training, the population evolves if the
+ * record number has passed the cutoff.  The cutoffs start the minimum interval apart and spread out
+ * to the maximum interval as the record number grows.
+ */
+final class EvolutionSchedule {
+  private int cutoff = 1000;
+  private int minInterval = 1000;
+  private int maxInterval = 1000;
+  private int currentStep = 1000;
+  private int bufferSize = 1000;
+
+  /**
+   * Tells whether a buffer holding this many examples should be trained.
+   */
+  boolean isFull(int buffered) {
+    return buffered > bufferSize;
+  }
+
+  /**
+   * Tells whether the population should evolve after training up to the given record and if so
+   * moves the cutoff on to the next round of evolution.
+   */
+  boolean evolve(int recordNumber) {
+    if (recordNumber > cutoff) {
+      cutoff = nextStep(recordNumber);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the record number at which the next round of evolution should happen.
+   */
+  int nextStep(int recordNumber) {
+    int stepSize = stepSize(recordNumber, 2.6);
+    if (stepSize < minInterval) {
+      stepSize = minInterval;
+    }
+
+    if (stepSize > maxInterval) {
+      stepSize = maxInterval;
+    }
+
+    int newCutoff = stepSize * (recordNumber / stepSize + 1);
+    if (newCutoff < cutoff + currentStep) {
+      newCutoff = cutoff + currentStep;
+    } else {
+      this.currentStep = stepSize;
+    }
+    return newCutoff;
+  }
+
+  static int stepSize(int recordNumber, double multiplier) {
+    int[] bumps = {1, 2, 5};
+    double log = Math.floor(multiplier * Math.log10(recordNumber));
+    int bump = bumps[(int) log % bumps.length];
+    int scale = (int) Math.pow(10, Math.floor(log / bumps.length));
+
+    return bump * scale;
+  }
+
+  /**
+   * Starts optimization using the shorter interval and progresses to the longer.  Values below 200
+   * are not accepted.
+   *
+   * @param minInterval  The minimum epoch length for the evolutionary optimization
+   * @param maxInterval  The maximum epoch length
+   * @param record       The number of records seen so far.
+   */
+  void setInterval(int minInterval, int maxInterval, int record) {
+    this.minInterval = Math.max(200, minInterval);
+    this.maxInterval = Math.max(200, maxInterval);
+    this.cutoff = minInterval * (record / minInterval + 1);
+    this.currentStep = minInterval;
+    bufferSize = Math.min(minInterval, bufferSize);
+  }
+
+  int getMinInterval() {
+    return minInterval;
+  }
+
+  int getMaxInterval() {
+    return maxInterval;
+  }
+}
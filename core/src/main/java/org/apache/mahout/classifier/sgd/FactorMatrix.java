@@ -0,0 +1,515 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.math.AbstractMatrix;
+import org.apache.mahout.math.AbstractVector;
+import org.apache.mahout.math.CardinalityException;
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.IndexException;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.MatrixView;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.function.UnaryFunction;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Stores the latent factors for one side of a dyadic model.  Like {@link BlockSparseMatrix}, this
+ * matrix has a fixed number of columns and grows to accommodate any row that is touched, but the
+ * data are kept in large chunks of primitive doubles rather than in a map of one-row matrices.
+ * Each row is contiguous within its chunk and is addressed by shifting and masking the row id so
+ * there is no hashing or boxing on access and a row costs little more than its own values.
+ * <p/>
+ * The chunk index grows by doubling, while chunks themselves are only allocated when a row in
+ * them is first touched.  Code that needs speed can get at the raw storage for a row using
+ * {@link #values(int)} and {@link #offset(int)}.
+ * <p/>
+ * Alongside the values, each row has an update count which is -1 until the row has been
+ * initialized by {@link #initializeRow(int, UnaryFunction)}.  Growth, initialization and the
+ * update counts are safe to use from many threads at once.  Reads and writes of the values
+ * themselves are not synchronized at all, which is what Hogwild style training wants.
+ * <p/>
+ * Each row also has a last step which models that regularize lazily use to remember when the
+ * prior was last applied to the row.  It is -1 until somebody sets it.  Like the values, the last
+ * steps are not synchronized.
+ */
+public class FactorMatrix extends AbstractMatrix {
+  // target number of doubles in each chunk
+  private static final int CHUNK_SIZE = 1 << 16;
+
+  private volatile int rows = 0;
+  private int columns;
+
+  // each chunk holds 2^chunkShift rows
+  private int chunkShift;
+  private int chunkMask;
+  private volatile double[][] chunks = new double[0][];
+
+  // update counts for each row, -1 means that the row has not been initialized
+  private volatile AtomicIntegerArray[] counts = new AtomicIntegerArray[0];
+
+  // step at which each row was last regularized, -1 if never
+  private volatile long[][] steps = new long[0][];
+
+  public FactorMatrix(int columns) {
+    Preconditions.checkArgument(columns > 0, "Must have at least one column");
+    this.columns = columns;
+    cardinality[COL] = columns;
+
+    chunkShift = 31 - Integer.numberOfLeadingZeros(Math.max(1, CHUNK_SIZE / columns));
+    chunkMask = (1 << chunkShift) - 1;
+  }
+
+  // only for GSON use
+  private FactorMatrix() {}
+
+  /**
+   * Returns the chunk of storage that holds a row, extending the matrix if necessary.  The
+   * values for the row start at {@link #offset(int)} and run for {@link #columnSize()} elements.
+   *
+   * @param row  The row of interest.
+   * @return The array that contains the values of the row.
+   */
+  public double[] values(int row) {
+    if (row < 0) {
+      throw new IndexException(row, rows);
+    }
+    double[][] c = chunks;
+    int chunk = row >>> chunkShift;
+    if (row >= rows || chunk >= c.length || c[chunk] == null) {
+      extendToThisRow(row);
+      c = chunks;
+    }
+    return c[chunk];
+  }
+
+  /**
+   * Returns the offset of a row within the array returned by {@link #values(int)}.
+   */
+  public int offset(int row) {
+    return (row & chunkMask) * columns;
+  }
+
+  /**
+   * Computes the dot product of one of our rows with a row of another matrix without allocating
+   * any intermediate vectors.
+   *
+   * @param row       A row in this matrix.
+   * @param other     The other matrix which must have the same number of columns.
+   * @param otherRow  A row in the other matrix.
+   * @return The dot product of the two rows.
+   */
+  public double dot(int row, FactorMatrix other, int otherRow) {
+    if (other.columns != columns) {
+      throw new CardinalityException(columns, other.columns);
+    }
+    double[] x = values(row);
+    int i = offset(row);
+    double[] y = other.values(otherRow);
+    int j = other.offset(otherRow);
+
+    double sum = 0;
+    for (int k = 0; k < columns; k++) {
+      sum += x[i + k] * y[j + k];
+    }
+    return sum;
+  }
+
+  /**
+   * Makes sure that a row has been initialized, extending the matrix if need be.  The
+   * initializer is applied to each element of the row exactly once even if several threads
+   * race to initialize the same row.
+   *
+   * @param row   The row to initialize.
+   * @param init  The function used to set the initial values.
+   * @return True if this call did the initialization.
+   */
+  public boolean initializeRow(int row, UnaryFunction init) {
+    double[] data = values(row);
+    AtomicIntegerArray c = counts[row >>> chunkShift];
+    int i = row & chunkMask;
+    if (c.get(i) >= 0) {
+      return false;
+    }
+    synchronized (c) {
+      if (c.get(i) >= 0) {
+        return false;
+      }
+      int base = offset(row);
+      for (int k = 0; k < columns; k++) {
+        data[base + k] = init.apply(data[base + k]);
+      }
+      // volatile write publishes the new values to anybody who reads the count
+      c.set(i, 0);
+      return true;
+    }
+  }
+
+  /**
+   * Tells whether a row has been initialized.  Unlike most other methods, this never extends the
+   * matrix.
+   */
+  public boolean isInitialized(int row) {
+    if (row < 0 || row >= rows) {
+      return false;
+    }
+    AtomicIntegerArray[] c = counts;
+    int chunk = row >>> chunkShift;
+    return chunk < c.length && c[chunk] != null && c[chunk].get(row & chunkMask) >= 0;
+  }
+
+  /**
+   * Returns the number of updates recorded for a row or -1 if the row has not been initialized.
+   */
+  public int updateCount(int row) {
+    values(row);
+    return counts[row >>> chunkShift].get(row & chunkMask);
+  }
+
+  /**
+   * Atomically adds to the update count for a row.
+   *
+   * @return The new count.
+   */
+  public int addToUpdateCount(int row, int delta) {
+    values(row);
+    return counts[row >>> chunkShift].addAndGet(row & chunkMask, delta);
+  }
+
+  /**
+   * Sets the update count for a row.  This is used when loading a saved model and marks the row as
+   * initialized if the count is non-negative.
+   */
+  public void setUpdateCount(int row, int count) {
+    values(row);
+    counts[row >>> chunkShift].set(row & chunkMask, count);
+  }
+
+  /**
+   * Atomically increments the update count for a row.
+   *
+   * @return The new count.
+   */
+  public int incrementUpdateCount(int row) {
+    values(row);
+    return counts[row >>> chunkShift].incrementAndGet(row & chunkMask);
+  }
+
+  /**
+   * Returns the step at which a row was last regularized, or -1 if that has never been recorded.
+   * Unlike most other methods, this never extends the matrix.
+   */
+  public long lastStep(int row) {
+    if (row < 0 || row >= rows) {
+      return -1;
+    }
+    long[][] s = steps;
+    int chunk = row >>> chunkShift;
+    return chunk < s.length && s[chunk] != null ? s[chunk][row & chunkMask] : -1;
+  }
+
+  /**
+   * Records the step at which a row was last regularized.
+   */
+  public void setLastStep(int row, long step) {
+    values(row);
+    steps[row >>> chunkShift][row & chunkMask] = step;
+  }
+
+  private synchronized void extendToThisRow(int row) {
+    int chunk = row >>> chunkShift;
+    if (chunk >= chunks.length) {
+      int n = Math.max(chunk + 1, 2 * chunks.length);
+      // counts are extended first so any thread that sees a chunk can also see its counts
+      counts = Arrays.copyOf(counts, n);
+      steps = Arrays.copyOf(steps, n);
+      chunks = Arrays.copyOf(chunks, n);
+    }
+    if (chunks[chunk] == null) {
+      AtomicIntegerArray c = new AtomicIntegerArray(chunkMask + 1);
+      for (int i = 0; i <= chunkMask; i++) {
+        c.set(i, -1);
+      }
+      counts[chunk] = c;
+      long[] s = new long[chunkMask + 1];
+      Arrays.fill(s, -1);
+      steps[chunk] = s;
+      double[][] newChunks = chunks.clone();
+      newChunks[chunk] = new double[(chunkMask + 1) * columns];
+      chunks = newChunks;
+    }
+    if (row >= rows) {
+      rows = row + 1;
+      cardinality[ROW] = row + 1;
+    }
+  }
+
+  @Override
+  public Matrix assignColumn(int column, Vector other) {
+    if (other.size() < rows) {
+      throw new CardinalityException(rows, other.size());
+    }
+    if (column < 0 || column >= columns) {
+      throw new IndexException(column, columns);
+    }
+    for (int row = 0; row < other.size(); row++) {
+      values(row)[offset(row) + column] = other.getQuick(row);
+    }
+    return this;
+  }
+
+  @Override
+  public Matrix assignRow(int row, Vector other) {
+    Preconditions.checkArgument(row >= 0 && row < rows, "Bad row number %d not in [0,%d)", row, rows);
+    if (other.size() != columns) {
+      throw new CardinalityException(columns, other.size());
+    }
+    double[] data = values(row);
+    int base = offset(row);
+    for (int column = 0; column < columns; column++) {
+      data[base + column] = other.getQuick(column);
+    }
+    return this;
+  }
+
+  @Override
+  public Vector getColumn(int column) {
+    if (column < 0 || column >= columns) {
+      throw new IndexException(column, columns);
+    }
+    return viewColumn(column);
+  }
+
+  /**
+   * Returns a view of a row, extending the matrix if necessary.  Writes to the view go through to
+   * the matrix.
+   */
+  @Override
+  public Vector getRow(int row) {
+    return new FactorRow(values(row), offset(row), columns);
+  }
+
+  @Override
+  public double getQuick(int row, int column) {
+    return values(row)[offset(row) + column];
+  }
+
+  @Override
+  public void setQuick(int row, int column, double value) {
+    values(row)[offset(row) + column] = value;
+  }
+
+  @Override
+  public Matrix like() {
+    return like(rows, columns);
+  }
+
+  @Override
+  public Matrix like(int rows, int columns) {
+    FactorMatrix r = new FactorMatrix(columns);
+    if (rows > 0) {
+      r.extendToThisRow(rows - 1);
+    }
+    return r;
+  }
+
+  @Override
+  public Matrix clone() {
+    FactorMatrix r = (FactorMatrix) super.clone();
+    r.cardinality = cardinality.clone();
+    double[][] newChunks = new double[chunks.length][];
+    AtomicIntegerArray[] newCounts = new AtomicIntegerArray[counts.length];
+    long[][] newSteps = new long[steps.length][];
+    for (int i = 0; i < chunks.length; i++) {
+      if (chunks[i] != null) {
+        newChunks[i] = chunks[i].clone();
+        newCounts[i] = new AtomicIntegerArray(counts[i].length());
+        for (int j = 0; j < counts[i].length(); j++) {
+          newCounts[i].set(j, counts[i].get(j));
+        }
+        newSteps[i] = steps[i].clone();
+      }
+    }
+    r.chunks = newChunks;
+    r.counts = newCounts;
+    r.steps = newSteps;
+    return r;
+  }
+
+  @Override
+  public int[] getNumNondefaultElements() {
+    return new int[]{rows, columns};
+  }
+
+  @Override
+  public Matrix viewPart(int[] offset, int[] size) {
+    if (offset[ROW] >= rows || offset[ROW] < 0) {
+      throw new IndexException(offset[ROW], rows);
+    }
+    if (offset[COL] >= columns || offset[COL] < 0) {
+      throw new IndexException(offset[COL], columns);
+    }
+    if (offset[ROW] + size[ROW] > rows || size[ROW] < 0) {
+      throw new IndexException(rows - offset[ROW], size[ROW]);
+    }
+    if (offset[COL] + size[COL] > columns || size[COL] < 0) {
+      throw new IndexException(columns - offset[COL], size[COL]);
+    }
+    return new MatrixView(this, offset, size);
+  }
+
+  /**
+   * A dense view of a single row that shares storage with the matrix.
+   */
+  private static final class FactorRow extends AbstractVector {
+    private final double[] values;
+    private final int offset;
+
+    private FactorRow(double[] values, int offset, int size) {
+      super(size);
+      this.values = values;
+      this.offset = offset;
+    }
+
+    @Override
+    protected Matrix matrixLike(int rows, int columns) {
+      return new DenseMatrix(rows, columns);
+    }
+
+    @Override
+    public Vector clone() {
+      return new DenseVector(Arrays.copyOfRange(values, offset, offset + size()));
+    }
+
+    @Override
+    public boolean isDense() {
+      return true;
+    }
+
+    @Override
+    public boolean isSequentialAccess() {
+      return true;
+    }
+
+    @Override
+    public double dot(Vector x) {
+      if (!(x instanceof FactorRow)) {
+        return super.dot(x);
+      }
+      if (size() != x.size()) {
+        throw new CardinalityException(size(), x.size());
+      }
+      FactorRow other = (FactorRow) x;
+      double sum = 0;
+      for (int i = 0; i < size(); i++) {
+        sum += values[offset + i] * other.values[other.offset + i];
+      }
+      return sum;
+    }
+
+    @Override
+    public Iterator<Element> iterator() {
+      return new RowIterator(false);
+    }
+
+    @Override
+    public Iterator<Element> iterateNonZero() {
+      return new RowIterator(true);
+    }
+
+    @Override
+    public double getQuick(int index) {
+      return values[offset + index];
+    }
+
+    @Override
+    public Vector like() {
+      return new DenseVector(size());
+    }
+
+    @Override
+    public void setQuick(int index, double value) {
+      lengthSquared = -1;
+      values[offset + index] = value;
+    }
+
+    @Override
+    public int getNumNondefaultElements() {
+      return size();
+    }
+
+    private final class RowIterator implements Iterator<Element>, Element {
+      private final boolean skipZeros;
+      private int index = -1;
+      private int next = -1;
+
+      private RowIterator(boolean skipZeros) {
+        this.skipZeros = skipZeros;
+        advance();
+      }
+
+      private void advance() {
+        next++;
+        while (skipZeros && next < size() && values[offset + next] == 0) {
+          next++;
+        }
+      }
+
+      @Override
+      public boolean hasNext() {
+        return next < size();
+      }
+
+      @Override
+      public Element next() {
+        if (next >= size()) {
+          throw new NoSuchElementException();
+        }
+        index = next;
+        advance();
+        return this;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException("Can't remove from a matrix row");
+      }
+
+      @Override
+      public double get() {
+        return values[offset + index];
+      }
+
+      @Override
+      public int index() {
+        return index;
+      }
+
+      @Override
+      public void set(double value) {
+        setQuick(index, value);
+      }
+    }
+  }
+}
@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.math.Vector;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Trains the fold models of a {@link CrossFoldLearner} with one worker thread per fold.
+ * <p/>
+ * Examples are copied into batches that live in a fixed ring.  Each batch is published once and
+ * every worker reads the whole ring in order, training its model on the records that belong to
+ * other folds and scoring the records that belong to its own fold.  The scores are left in the
+ * batch and are handed to the learner in record order when the producer recycles the slot.  Since
+ * each model still sees the records in their original order, the models and the statistics end up
+ * exactly as they would with serial training.
+ * <p/>
+ * A ring is started on the first example and is finished for good by {@link #close()}.
+ */
+final class FoldRing {
+  private static final int SLOTS = 8;
+  private static final int BATCH_SIZE = 256;
+
+  private final CrossFoldLearner learner;
+  private final List<AdjustableOnlineLearner> models;
+  private final Batch[] ring = new Batch[SLOTS];
+
+  // how many batches have been published and how many each worker has finished, guarded by this
+  private long published;
+  private final long[] consumed;
+  private boolean stopping;
+
+  // batches whose scores have been handed to the learner, only touched by the producer
+  private long collected;
+  private Batch current;
+
+  private final ExecutorService pool;
+  private final List<Future<Integer>> workers = Lists.newArrayList();
+
+  FoldRing(CrossFoldLearner learner, List<AdjustableOnlineLearner> models) {
+    this.learner = learner;
+    this.models = models;
+    for (int i = 0; i < SLOTS; i++) {
+      ring[i] = new Batch();
+    }
+    consumed = new long[models.size()];
+    current = ring[0];
+
+    pool = Executors.newFixedThreadPool(models.size());
+    for (int k = 0; k < models.size(); k++) {
+      workers.add(pool.submit(new Worker(k)));
+    }
+  }
+
+  /**
+   * Adds an example to the ring.  The instance is copied since callers commonly reuse vectors.  This
+   * blocks if the slowest fold has fallen a full ring behind.
+   */
+  void add(int record, long trackingKey, String groupKey, int actual, Vector instance) {
+    Batch b = current;
+    int n = b.n;
+    b.records[n] = record;
+    b.keys[n] = trackingKey;
+    b.groups[n] = groupKey;
+    b.actuals[n] = actual;
+    b.instances[n] = instance.clone();
+    b.scores[n] = Double.NaN;
+    b.n = n + 1;
+    if (b.n == BATCH_SIZE) {
+      publish();
+      current = claim(published);
+    }
+  }
+
+  /**
+   * Waits for every fold to finish the published examples, collects the last scores and stops the
+   * workers.
+   *
+   * @throws IllegalStateException if a worker failed.
+   */
+  void close() {
+    try {
+      if (current.n > 0) {
+        publish();
+      }
+      synchronized (this) {
+        while (slowest() < published) {
+          wait();
+        }
+        stopping = true;
+        notifyAll();
+      }
+      while (collected < published) {
+        collect(ring[(int) (collected % SLOTS)]);
+      }
+      for (Future<Integer> worker : workers) {
+        worker.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for training to finish", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Training thread failed", e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private synchronized void publish() {
+    published++;
+    notifyAll();
+  }
+
+  /**
+   * Gets the slot for batch {@code sequence} once every worker is done with its previous contents.
+   */
+  private Batch claim(long sequence) {
+    try {
+      synchronized (this) {
+        while (slowest() <= sequence - SLOTS) {
+          wait();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for a free batch", e);
+    }
+    while (collected <= sequence - SLOTS) {
+      collect(ring[(int) (collected % SLOTS)]);
+    }
+    Batch r = ring[(int) (sequence % SLOTS)];
+    r.n = 0;
+    return r;
+  }
+
+  private void collect(Batch b) {
+    for (int i = 0; i < b.n; i++) {
+      if (!Double.isNaN(b.scores[i])) {
+        learner.addScore(b.records[i], b.actuals[i], b.groups[i], b.scores[i], b.correct[i], b.p1[i]);
+      }
+      // don't hang on to the examples until the slot is reused
+      b.instances[i] = null;
+      b.groups[i] = null;
+    }
+    collected++;
+  }
+
+  private long slowest() {
+    long r = Long.MAX_VALUE;
+    for (long c : consumed) {
+      r = Math.min(r, c);
+    }
+    return r;
+  }
+
+  private static final class Batch {
+    private int n;
+    private final int[] records = new int[BATCH_SIZE];
+    private final long[] keys = new long[BATCH_SIZE];
+    private final String[] groups = new String[BATCH_SIZE];
+    private final int[] actuals = new int[BATCH_SIZE];
+    private final Vector[] instances = new Vector[BATCH_SIZE];
+
+    // filled in by the worker for the fold that holds each record out, NaN for the rest
+    private final double[] scores = new double[BATCH_SIZE];
+    private final boolean[] correct = new boolean[BATCH_SIZE];
+    private final double[] p1 = new double[BATCH_SIZE];
+  }
+
+  private class Worker implements Callable<Integer> {
+    private final int fold;
+
+    private Worker(int fold) {
+      this.fold = fold;
+    }
+
+    /**
+     * Works through the ring until told to stop.  If training fails, the worker keeps marking
+     * batches as done so that the producer never blocks and the failure is reported by close.
+     *
+     * @return The number of examples processed.
+     */
+    @Override
+    public Integer call() throws InterruptedException {
+      AdjustableOnlineLearner model = models.get(fold);
+      int folds = models.size();
+      RuntimeException failure = null;
+      int count = 0;
+      long next = 0;
+      while (true) {
+        synchronized (FoldRing.this) {
+          while (next == published && !stopping) {
+            FoldRing.this.wait();
+          }
+          if (next == published) {
+            break;
+          }
+        }
+
+        Batch b = ring[(int) (next % SLOTS)];
+        if (failure == null) {
+          try {
+            for (int i = 0; i < b.n; i++) {
+              if (b.keys[i] % folds == fold) {
+                Vector v = model.classifyFull(b.instances[i]);
+                b.scores[i] = v.get(b.actuals[i]);
+                b.correct[i] = v.maxValueIndex() == b.actuals[i];
+                b.p1[i] = v.size() == 2 ? v.get(1) : Double.NaN;
+              } else {
+                model.train(b.keys[i], b.groups[i], b.actuals[i], b.instances[i]);
+              }
+            }
+            count += b.n;
+          } catch (RuntimeException e) {
+            failure = e;
+          }
+        }
+
+        synchronized (FoldRing.this) {
+          consumed[fold] = ++next;
+          FoldRing.this.notifyAll();
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return count;
+    }
+  }
+}
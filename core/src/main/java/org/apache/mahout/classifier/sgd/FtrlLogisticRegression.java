@@ -0,0 +1,348 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.classifier.AbstractVectorClassifier;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.SparseRowMatrix;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.function.Functions;
+
+import java.util.Iterator;
+
+/**
+ * Logistic regression learned with FTRL-Proximal (follow the regularized leader), as described by
+ * McMahan et al in "Ad Click Prediction: a View from the Trenches".  Each coefficient has its own
+ * learning rate that shrinks with the sum of its squared gradients, and the L1 penalty is applied
+ * exactly, so coefficients whose accumulated gradient stays below lambda1 are exactly zero.
+ * <p/>
+ * The per-coefficient state z and n is kept only for features that have been seen, and the
+ * coefficients are kept only where they are not zero.  Scoring reads nothing else.
+ * <p/>
+ * As an {@link AdjustableOnlineLearner}, {@link #lambda(double)} sets the L1 weight,
+ * {@link #learningRate(double)} sets alpha and {@link #stepOffset(int)} sets beta.  There is no
+ * global annealing, so {@link #alpha(double)} and {@link #decayExponent(double)} have no effect.
+ * Like {@link OnlineLogisticRegression}, categories use 1 of n-1 coding.
+ */
+public class FtrlLogisticRegression extends AbstractVectorClassifier implements AdjustableOnlineLearner {
+  private int numCategories;
+
+  // alpha and beta set the per-coordinate learning rate alpha / (beta + sqrt(n))
+  private double alpha = 0.1;
+  private double beta = 1;
+  private double lambda1 = 1;
+  private double lambda2 = 0;
+
+  // only for the interface, the penalties above are what is applied
+  private PriorFunction prior = new L1();
+
+  // (numCategories-1) x numFeatures, sparse in all three
+  private Matrix z;
+  private Matrix n;
+  private Matrix weights;
+
+  private FtrlLogisticRegression() {
+    // private constructor available for Gson, but not normal use
+  }
+
+  public FtrlLogisticRegression(int numCategories, int numFeatures) {
+    Preconditions.checkArgument(numCategories >= 2, "Need at least two categories");
+    this.numCategories = numCategories;
+    z = new SparseRowMatrix(new int[]{numCategories - 1, numFeatures});
+    n = new SparseRowMatrix(new int[]{numCategories - 1, numFeatures});
+    weights = new SparseRowMatrix(new int[]{numCategories - 1, numFeatures});
+  }
+
+  /**
+   * Chainable configuration option.
+   *
+   * @param lambda New value of lambda1, the weight of the L1 penalty.
+   * @return This, so other configurations can be chained.
+   */
+  @Override
+  public FtrlLogisticRegression lambda(double lambda) {
+    this.lambda1 = lambda;
+    updateWeights();
+    return this;
+  }
+
+  /**
+   * Chainable configuration option.
+   *
+   * @param lambda2 New value of the weight of the L2 penalty.
+   * @return This, so other configurations can be chained.
+   */
+  public FtrlLogisticRegression lambda2(double lambda2) {
+    this.lambda2 = lambda2;
+    updateWeights();
+    return this;
+  }
+
+  /**
+   * Chainable configuration option.
+   *
+   * @param learningRate New value of alpha, the scale of the per-coordinate learning rates.
+   * @return This, so other configurations can be chained.
+   */
+  @Override
+  public FtrlLogisticRegression learningRate(double learningRate) {
+    this.alpha = learningRate;
+    updateWeights();
+    return this;
+  }
+
+  /**
+   * Chainable configuration option.
+   *
+   * @param beta New value of beta, which keeps the first learning rates of a coordinate from being
+   *             too large.
+   * @return This, so other configurations can be chained.
+   */
+  public FtrlLogisticRegression beta(double beta) {
+    this.beta = beta;
+    updateWeights();
+    return this;
+  }
+
+  @Override
+  public FtrlLogisticRegression stepOffset(int offset) {
+    return beta(offset);
+  }
+
+  @Override
+  public FtrlLogisticRegression decayExponent(double x) {
+    // learning rates only depend on each coordinate's gradients
+    return this;
+  }
+
+  @Override
+  public FtrlLogisticRegression alpha(double decayFactor) {
+    // there is no global learning rate to decay
+    return this;
+  }
+
+  @Override
+  public void train(long trackingKey, String groupKey, int actual, Vector instance) {
+    if (numCategories == 2) {
+      // same as the general case, without the vectors
+      double p = link(dot(weights.getRow(0), instance));
+      update(0, p - (actual == 1 ? 1 : 0), instance);
+    } else {
+      Vector p = classify(instance);
+      for (int i = 0; i < numCategories - 1; i++) {
+        update(i, p.getQuick(i) - (actual == i + 1 ? 1 : 0), instance);
+      }
+    }
+  }
+
+  @Override
+  public void train(long trackingKey, int actual, Vector instance) {
+    train(trackingKey, null, actual, instance);
+  }
+
+  @Override
+  public void train(int actual, Vector instance) {
+    train(0, null, actual, instance);
+  }
+
+  /**
+   * Applies the gradient of one row of coefficients for one instance.
+   *
+   * @param i          The row.
+   * @param error      The predicted minus the actual probability of the row's category.
+   * @param instance   The features.
+   */
+  private void update(int i, double error, Vector instance) {
+    Vector zRow = z.getRow(i);
+    Vector nRow = n.getRow(i);
+    Vector wRow = weights.getRow(i);
+    Iterator<Vector.Element> nonZeros = instance.iterateNonZero();
+    while (nonZeros.hasNext()) {
+      Vector.Element element = nonZeros.next();
+      int j = element.index();
+      double g = error * element.get();
+      double nOld = nRow.getQuick(j);
+      double nNew = nOld + g * g;
+      double sigma = (Math.sqrt(nNew) - Math.sqrt(nOld)) / alpha;
+      double zNew = zRow.getQuick(j) + g - sigma * wRow.getQuick(j);
+      if (Double.isNaN(zNew) || Double.isInfinite(zNew)) {
+        throw new ArithmeticException(String.format("Updating from %.3f to nastiness\n", wRow.getQuick(j)));
+      }
+      zRow.setQuick(j, zNew);
+      nRow.setQuick(j, nNew);
+      // zeros aren't stored by a sparse vector
+      wRow.setQuick(j, weight(zNew, nNew));
+    }
+  }
+
+  /**
+   * The closed form of the coefficient that minimizes the regularized loss for one coordinate.
+   */
+  private double weight(double zj, double nj) {
+    if (Math.abs(zj) <= lambda1) {
+      return 0;
+    }
+    return -(zj - Math.signum(zj) * lambda1) / ((beta + Math.sqrt(nj)) / alpha + lambda2);
+  }
+
+  /**
+   * Recomputes every coefficient after a change of parameters.
+   */
+  private void updateWeights() {
+    if (z == null) {
+      return;
+    }
+    for (int i = 0; i < numCategories - 1; i++) {
+      Vector zRow = z.getRow(i);
+      Vector nRow = n.getRow(i);
+      Vector wRow = weights.getRow(i);
+      Iterator<Vector.Element> nonZeros = zRow.iterateNonZero();
+      while (nonZeros.hasNext()) {
+        Vector.Element element = nonZeros.next();
+        int j = element.index();
+        wRow.setQuick(j, weight(element.get(), nRow.getQuick(j)));
+      }
+    }
+  }
+
+  /**
+   * Iterates over the instance rather than the coefficients unless the coefficients are fewer.
+   */
+  private static double dot(Vector w, Vector instance) {
+    return instance.getNumNondefaultElements() <= w.getNumNondefaultElements() ? instance.dot(w) : w.dot(instance);
+  }
+
+  private static double link(double r) {
+    if (r < 0) {
+      double s = Math.exp(r);
+      return s / (1 + s);
+    } else {
+      double s = Math.exp(-r);
+      return 1 / (1 + s);
+    }
+  }
+
+  @Override
+  public Vector classifyNoLink(Vector instance) {
+    Vector r = new DenseVector(numCategories - 1);
+    for (int i = 0; i < numCategories - 1; i++) {
+      r.setQuick(i, dot(weights.getRow(i), instance));
+    }
+    return r;
+  }
+
+  /**
+   * Returns n-1 probabilities, one for each category but the 0-th.
+   */
+  @Override
+  public Vector classify(Vector instance) {
+    Vector v = classifyNoLink(instance);
+    double max = v.maxValue();
+    if (max >= 40) {
+      // if max > 40, we subtract the large offset first
+      v.assign(Functions.minus(max)).assign(Functions.EXP);
+      return v.divide(v.norm(1));
+    } else {
+      v.assign(Functions.EXP);
+      return v.divide(1 + v.norm(1));
+    }
+  }
+
+  /**
+   * Returns the probability of the first of two categories.
+   *
+   * @throws IllegalArgumentException If the classifier doesn't have two categories.
+   */
+  @Override
+  public double classifyScalar(Vector instance) {
+    Preconditions.checkArgument(numCategories == 2, "Can only call classifyScalar with two categories");
+    return link(dot(weights.getRow(0), instance));
+  }
+
+  @Override
+  public void close() {
+    // nothing is owed to the coefficients
+  }
+
+  @Override
+  public int numCategories() {
+    return numCategories;
+  }
+
+  @Override
+  public int numFeatures() {
+    return weights.numCols();
+  }
+
+  /**
+   * Returns the non-zero coefficients.  Features that were never seen or whose coefficient is zero
+   * have no entry.
+   */
+  public Matrix getBeta() {
+    return weights;
+  }
+
+  public double getLambda() {
+    return lambda1;
+  }
+
+  @Override
+  public PriorFunction getPrior() {
+    return prior;
+  }
+
+  @Override
+  public boolean validModel() {
+    for (int i = 0; i < numCategories - 1; i++) {
+      Iterator<Vector.Element> nonZeros = weights.getRow(i).iterateNonZero();
+      while (nonZeros.hasNext()) {
+        double v = nonZeros.next().get();
+        if (Double.isNaN(v) || Double.isInfinite(v)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void copyFrom(AdjustableOnlineLearner otherLearner) {
+    Preconditions.checkArgument(otherLearner instanceof FtrlLogisticRegression);
+    FtrlLogisticRegression other = (FtrlLogisticRegression) otherLearner;
+    Preconditions.checkArgument(numCategories == other.numCategories,
+        "Can't copy unless number of target categories is the same");
+
+    alpha = other.alpha;
+    beta = other.beta;
+    lambda1 = other.lambda1;
+    lambda2 = other.lambda2;
+    prior = other.prior;
+    z = other.z.clone();
+    n = other.n.clone();
+    weights = other.weights.clone();
+  }
+
+  @Override
+  public FtrlLogisticRegression copy() {
+    FtrlLogisticRegression r = new FtrlLogisticRegression(numCategories(), numFeatures());
+    r.copyFrom(this);
+    return r;
+  }
+}
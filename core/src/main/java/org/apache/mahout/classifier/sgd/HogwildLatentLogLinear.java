@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.classifier.OnlineLearner;
+import org.apache.mahout.math.Vector;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Trains a {@link LatentLogLinear} model using several threads in the style of Hogwild! (Niu,
+ * Recht, Re and Wright, http://arxiv.org/abs/1106.5730).
+ * <p/>
+ * Training examples are packed into batches and the batches are dealt out to worker threads in
+ * rotation.  All workers update the shared factor rows without any locking.  Since each dyad only
+ * touches two rows, collisions between threads are rare and the occasional lost update doesn't
+ * hurt convergence much.
+ * <p/>
+ * Training is asynchronous so the model is only guaranteed to have seen all examples after
+ * {@link #close()} returns.  More training after close will restart the worker threads.
+ */
+public class HogwildLatentLogLinear implements OnlineLearner, DyadicLearner {
+  private static final int DEFAULT_BATCH_SIZE = 1000;
+
+  // sent to a worker to tell it to exit
+  private static final int[] STOP = new int[0];
+
+  private final LatentLogLinear model;
+  private final int threadCount;
+  private final int batchSize;
+
+  private ExecutorService pool;
+  private List<BlockingQueue<int[]>> queues;
+  private List<Future<Integer>> workers;
+
+  // batches that are available for filling
+  private BlockingQueue<int[]> free;
+
+  // the batch currently being filled.  The first element is the number of examples.
+  private int[] batch;
+  private int nextWorker;
+
+  public HogwildLatentLogLinear(LatentLogLinear model, int threadCount) {
+    this(model, threadCount, DEFAULT_BATCH_SIZE);
+  }
+
+  public HogwildLatentLogLinear(LatentLogLinear model, int threadCount, int batchSize) {
+    if (threadCount < 1) {
+      throw new IllegalArgumentException("Must have at least one thread");
+    }
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be positive");
+    }
+    this.model = model;
+    this.threadCount = threadCount;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Queues a single dyad for training.  This will block if the workers have fallen behind.
+   *
+   * @param leftId   The id of the left item.
+   * @param rightId  The id of the right item.
+   * @param actual   The target value, either 0 or 1.
+   */
+  @Override
+  public void train(int leftId, int rightId, int actual) {
+    if (batch == null) {
+      start();
+      batch = nextBatch();
+    }
+    int n = batch[0];
+    batch[3 * n + 1] = leftId;
+    batch[3 * n + 2] = rightId;
+    batch[3 * n + 3] = actual;
+    batch[0] = n + 1;
+    if (n + 1 == batchSize) {
+      send(batch);
+      batch = nextBatch();
+    }
+  }
+
+  @Override
+  public void train(int actual, Vector instance) {
+    train(LatentLogLinear.rowId(instance), LatentLogLinear.columnId(instance), actual);
+  }
+
+  @Override
+  public void train(long trackingKey, String groupKey, int actual, Vector instance) {
+    train(actual, instance);
+  }
+
+  @Override
+  public void train(long trackingKey, int actual, Vector instance) {
+    train(actual, instance);
+  }
+
+  /**
+   * Waits for all queued examples to be trained, stops the worker threads and closes the
+   * underlying model.
+   */
+  @Override
+  public void close() {
+    if (pool != null) {
+      if (batch != null && batch[0] > 0) {
+        send(batch);
+      }
+      batch = null;
+      try {
+        for (BlockingQueue<int[]> queue : queues) {
+          queue.put(STOP);
+        }
+        for (Future<Integer> worker : workers) {
+          worker.get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for training to finish", e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Training thread failed", e.getCause());
+      } finally {
+        pool.shutdownNow();
+        pool = null;
+      }
+    }
+    model.close();
+  }
+
+  public LatentLogLinear getModel() {
+    return model;
+  }
+
+  public int getThreadCount() {
+    return threadCount;
+  }
+
+  private void start() {
+    if (pool == null) {
+      pool = Executors.newFixedThreadPool(threadCount);
+      queues = Lists.newArrayList();
+      workers = Lists.newArrayList();
+
+      // enough batches so that every worker has one in hand and one waiting
+      free = new ArrayBlockingQueue<int[]>(2 * threadCount + 1);
+      for (int i = 0; i < 2 * threadCount + 1; i++) {
+        free.add(new int[3 * batchSize + 1]);
+      }
+
+      for (int i = 0; i < threadCount; i++) {
+        BlockingQueue<int[]> queue = new ArrayBlockingQueue<int[]>(2);
+        queues.add(queue);
+        workers.add(pool.submit(new Worker(queue, model.newTrainingState())));
+      }
+    }
+  }
+
+  private int[] nextBatch() {
+    try {
+      int[] r = free.take();
+      r[0] = 0;
+      return r;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for a free batch", e);
+    }
+  }
+
+  private void send(int[] data) {
+    try {
+      BlockingQueue<int[]> queue = queues.get(nextWorker);
+      nextWorker = (nextWorker + 1) % threadCount;
+      queue.put(data);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while queuing training data", e);
+    }
+  }
+
+  private class Worker implements Callable<Integer> {
+    private final BlockingQueue<int[]> input;
+    private final LatentLogLinear.TrainingState state;
+
+    private Worker(BlockingQueue<int[]> input, LatentLogLinear.TrainingState state) {
+      this.input = input;
+      this.state = state;
+    }
+
+    /**
+     * Trains on batches until told to stop.  If training fails, the rest of the input is drained
+     * so that the producer never blocks and the failure is reported when the worker is stopped.
+     *
+     * @return The number of examples processed.
+     */
+    @Override
+    public Integer call() throws InterruptedException {
+      RuntimeException failure = null;
+      int count = 0;
+      int[] data = input.take();
+      while (data != STOP) {
+        if (failure == null) {
+          try {
+            int n = data[0];
+            for (int i = 0; i < n; i++) {
+              model.train(data[3 * i + 1], data[3 * i + 2], data[3 * i + 3], state);
+            }
+            count += n;
+          } catch (RuntimeException e) {
+            failure = e;
+          }
+        }
+        free.put(data);
+        data = input.take();
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return count;
+    }
+  }
+}
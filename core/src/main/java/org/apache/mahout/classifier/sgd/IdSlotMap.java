@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.function.IntProcedure;
+import org.apache.mahout.math.list.IntArrayList;
+import org.apache.mahout.math.map.OpenLongIntHashMap;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Assigns small dense slots to sparse 64 bit ids so that they can be used as row numbers.
+ * <p/>
+ * Slots are handed out in order and reused once their id is removed, so the number of slots never
+ * exceeds the number of ids held at once.  If a capacity is set, asking for a new id when the map
+ * is full evicts an old one.  Finding the exact least recently or least frequently used id would
+ * need an ordered structure that is updated on every access, so instead a few slots are sampled at
+ * random and the coldest of those is evicted.  With the default sample this almost never evicts an
+ * id that is in active use.
+ * <p/>
+ * This class is not thread safe.
+ */
+public class IdSlotMap {
+  /**
+   * How to pick an id to evict when the map is full.
+   */
+  public enum Eviction {
+    /** Never evict, the map grows without bound. */
+    NONE,
+    /** Evict the sampled id that was used longest ago. */
+    LEAST_RECENT,
+    /** Evict the sampled id that has been used the fewest times. */
+    LEAST_FREQUENT
+  }
+
+  private static final int DEFAULT_SAMPLE = 8;
+
+  private final Eviction eviction;
+  private final int capacity;
+  private final int sample;
+  private final Random rand = RandomUtils.getRandom();
+
+  // id to slot + 1 so that a missing id reads as -1
+  private final OpenLongIntHashMap slots = new OpenLongIntHashMap();
+
+  // for each slot the id it holds, when it was last used and how often
+  private long[] ids = new long[16];
+  private long[] lastUsed = new long[16];
+  private int[] uses = new int[16];
+  private final IntArrayList free = new IntArrayList();
+  private int nextSlot;
+  private long clock;
+  private long evictions;
+
+  // told about each slot that is evicted before it is reused
+  private IntProcedure evictionListener;
+
+  /**
+   * Makes a map that never evicts.
+   */
+  public IdSlotMap() {
+    this(Eviction.NONE, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @param eviction  How to choose ids to evict.
+   * @param capacity  How many ids to hold before evicting.
+   */
+  public IdSlotMap(Eviction eviction, int capacity) {
+    this(eviction, capacity, DEFAULT_SAMPLE);
+  }
+
+  /**
+   * @param eviction  How to choose ids to evict.
+   * @param capacity  How many ids to hold before evicting.
+   * @param sample    How many slots to look at when picking one to evict.
+   */
+  public IdSlotMap(Eviction eviction, int capacity, int sample) {
+    Preconditions.checkArgument(capacity > 0, "Capacity must be positive");
+    Preconditions.checkArgument(sample > 0, "Sample must be positive");
+    this.eviction = eviction;
+    this.capacity = capacity;
+    this.sample = sample;
+  }
+
+  /**
+   * Sets a procedure to call with each slot that is evicted, before the slot is given to a new id.
+   */
+  public void setEvictionListener(IntProcedure evictionListener) {
+    this.evictionListener = evictionListener;
+  }
+
+  /**
+   * Returns the slot for an id, assigning one if need be, and counts a use of the id.
+   *
+   * @throws IllegalStateException if the map is full and doesn't evict.
+   */
+  public int slot(long id) {
+    int slot = slots.get(id) - 1;
+    if (slot < 0) {
+      slot = allocate();
+      slots.put(id, slot + 1);
+      ids[slot] = id;
+      uses[slot] = 0;
+    }
+    lastUsed[slot] = ++clock;
+    uses[slot]++;
+    return slot;
+  }
+
+  /**
+   * Returns the slot for an id without assigning one or counting a use.
+   *
+   * @return The slot or -1 if the id has none.
+   */
+  public int find(long id) {
+    return slots.get(id) - 1;
+  }
+
+  /**
+   * Returns the id held in a slot.
+   */
+  public long id(int slot) {
+    return ids[slot];
+  }
+
+  /**
+   * Frees the slot of an id.
+   *
+   * @return The slot that was freed, or -1 if the id had none.
+   */
+  public int remove(long id) {
+    int slot = slots.get(id) - 1;
+    if (slot >= 0) {
+      slots.removeKey(id);
+      free.add(slot);
+    }
+    return slot;
+  }
+
+  /**
+   * Returns how many ids have slots.
+   */
+  public int size() {
+    return slots.size();
+  }
+
+  /**
+   * Returns one more than the largest slot ever handed out.
+   */
+  public int slotCount() {
+    return nextSlot;
+  }
+
+  public long getEvictions() {
+    return evictions;
+  }
+
+  private int allocate() {
+    if (!free.isEmpty()) {
+      int slot = free.get(free.size() - 1);
+      free.remove(free.size() - 1);
+      return slot;
+    }
+    if (nextSlot < capacity) {
+      if (nextSlot == ids.length) {
+        int n = (int) Math.min(capacity, 2L * ids.length);
+        ids = Arrays.copyOf(ids, n);
+        lastUsed = Arrays.copyOf(lastUsed, n);
+        uses = Arrays.copyOf(uses, n);
+      }
+      return nextSlot++;
+    }
+    if (eviction == Eviction.NONE) {
+      throw new IllegalStateException("Id map is full at " + capacity + " ids");
+    }
+    return evict();
+  }
+
+  private int evict() {
+    int victim = rand.nextInt(nextSlot);
+    for (int i = 1; i < sample; i++) {
+      int candidate = rand.nextInt(nextSlot);
+      if (eviction == Eviction.LEAST_RECENT
+          ? lastUsed[candidate] < lastUsed[victim]
+          : uses[candidate] < uses[victim] || uses[candidate] == uses[victim] && lastUsed[candidate] < lastUsed[victim]) {
+        victim = candidate;
+      }
+    }
+    slots.removeKey(ids[victim]);
+    evictions++;
+    if (evictionListener != null) {
+      evictionListener.apply(victim);
+    }
+    return victim;
+  }
+}
@@ -17,16 +17,25 @@
 
 package org.apache.mahout.classifier.sgd;
 
+import com.google.common.collect.Lists;
 import org.apache.mahout.classifier.OnlineLearner;
 import org.apache.mahout.common.RandomUtils;
 import org.apache.mahout.math.DenseMatrix;
 import org.apache.mahout.math.DenseVector;
-import org.apache.mahout.math.Matrix;
 import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.function.IntProcedure;
 import org.apache.mahout.math.function.UnaryFunction;
-import org.apache.mahout.math.list.IntArrayList;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Implements a Latent Factor Log-linear model as described in Dyadic Prediction Using a Latent
@@ -37,23 +46,42 @@ import java.util.Random;
  * left and right weights as if they were weights for a logistic regression or a feature vector.  We
  * then use the right weights as a feature to learn the left weights and vice versa.
  * <p/>
- * Regularization is done using an L1 or L2 scheme to decrease weights on each training step.
- * Nothing fancy is done in terms of per term regularization or learning rate annealing because all
- * updates are dense.
+ * Regularization is done using an L1 scheme.  By default this is lazy: each factor row remembers the
+ * training step at which the prior was last applied to it and the decay it missed since then is
+ * applied in closed form when the row is next trained.  Scoring applies any missed decay on the fly
+ * without changing the model.  This way rows of rarely seen items decay just as if they had been
+ * regularized on every step while each step only costs as much as the rows it touches.  Setting
+ * {@link #lazyRegularization(boolean)} to false instead shrinks a row only when it is trained.
+ * <p/>
+ * The factor rows are updated without locking so several threads can train the same model at once
+ * as long as each has its own {@link TrainingState}.  See {@link HogwildLatentLogLinear}.
  */
-public class LatentLogLinear implements OnlineLearner {
-  private final Random rand = RandomUtils.getRandom();
+public class LatentLogLinear implements OnlineLearner, DyadicLearner {
+  // marks the start of the binary format and the current version of that format
+  static final int BINARY_MAGIC = 0x4C4C4C4D;
+  static final int BINARY_VERSION = 3;
+
+  // batches smaller than twice this are scored without using threads
+  private static final int MIN_PARALLEL_BATCH = 10000;
+
   private LogLinearModel left, right;
 
   private double mu0;
 
-  // this contains [leftId, rightId] for actual = 0 and actual = 1 to allow
-  // for rank based learning.
-  int[] oldData = new int[6];
-
   // how much of the training to use as rank data
   double rankMixRate = 0.1;
 
+  // state used by the single threaded training methods
+  private transient TrainingState state;
+
+  // picks partners for rank based training, if null the last dyad with the other label is used.
+  // This is training configuration rather than part of the model so it isn't serialized.
+  private transient NegativeSampler sampler;
+
+  // number of training steps so far, used to age rows that regularize lazily.  Threads training
+  // at the same time may lose a few increments which only makes the decay slightly smaller.
+  private long step;
+
   // for GSON
   private LatentLogLinear() {}
 
@@ -62,12 +90,120 @@ public class LatentLogLinear implements OnlineLearner {
     right = new LogLinearModel(factors);
   }
 
+  /**
+   * Updates the model with a single dyad.  The left and right factor rows are updated in place
+   * without allocating any vectors.
+   *
+   * @param leftId   The id of the left item.
+   * @param rightId  The id of the right item.
+   * @param actual   The target value, either 0 or 1.
+   */
+  @Override
   public void train(int leftId, int rightId, int actual) {
-    // chase intercept term to the left weights
-//    left.adjustBias(leftId, right.getBias(rightId));
-//    right.setBias(rightId, 1);
+    train(leftId, rightId, actual, state());
+  }
+
+  /**
+   * Updates the model with a single dyad using the given per-thread state.  Different threads can
+   * call this concurrently as long as they each use a different state.
+   */
+  void train(int leftId, int rightId, int actual, TrainingState state) {
+    train(leftId, rightId, actual, state, ++step);
+  }
 
-    if (rand.nextDouble() > rankMixRate) {
+  /**
+   * Updates the model with a single dyad as if it were the given training step.  Rows that
+   * regularize lazily are first given any decay they missed up to that step.
+   */
+  void train(int leftId, int rightId, int actual, TrainingState state, long step) {
+    int[] oldData = state.oldData;
+    double[] scratch = state.scratch;
+
+    if (state.rand.nextDouble() > rankMixRate) {
+      trainPointwise(leftId, rightId, actual, step);
+    } else if (sampler != null && state.sampled) {
+      trainPairs(leftId, rightId, actual, state, step);
+    } else {
+      int oldLeft = oldData[(1 - actual) * 3];
+      int oldRight = oldData[(1 - actual) * 3 + 1];
+
+      right.catchUp(rightId, step);
+      right.catchUp(oldRight, step);
+      left.catchUp(leftId, step);
+      left.catchUp(oldLeft, step);
+
+      // train on new - old latent factors
+      right.difference(rightId, oldRight, scratch);
+      left.train(leftId, actual, scratch, 0);
+      left.difference(leftId, oldLeft, scratch);
+      right.train(rightId, actual, scratch, 0);
+    }
+
+    oldData[actual * 3] = leftId;
+    oldData[actual * 3 + 1] = rightId;
+    if (sampler != null && state.sampled) {
+      sampler.observe(leftId, rightId, actual);
+    }
+  }
+
+  private void trainPointwise(int leftId, int rightId, int actual, long step) {
+    FactorMatrix lw = left.weights;
+    FactorMatrix rw = right.weights;
+
+    right.extend(rightId);
+    left.catchUp(leftId, step);
+    right.catchUp(rightId, step);
+    left.train(leftId, actual, rw.values(rightId), rw.offset(rightId));
+    right.train(rightId, actual, lw.values(leftId), lw.offset(leftId));
+  }
+
+  /**
+   * Ranks a dyad against several right ids picked by the sampler.  If the sampler has nothing to
+   * offer yet, this falls back to an ordinary update.
+   */
+  private void trainPairs(int leftId, int rightId, int actual, TrainingState state, long step) {
+    left.catchUp(leftId, step);
+    right.catchUp(rightId, step);
+    boolean trained = false;
+    for (int i = 0; i < sampler.getPairs(); i++) {
+      int otherId = sampler.sample(leftId, rightId, actual, state.rand);
+      if (otherId >= 0 && otherId != rightId) {
+        right.catchUp(otherId, step);
+        trainPair(leftId, rightId, otherId, actual, state);
+        trained = true;
+      }
+    }
+    if (!trained) {
+      trainPointwise(leftId, rightId, actual, step);
+    }
+  }
+
+  /**
+   * Pairwise update for one left item that prefers rightId to otherId if actual is 1 and the
+   * reverse if actual is 0.  The left row learns from the difference of the right rows and the two
+   * right rows move in opposite directions along the left row as it was before the update.
+   */
+  void trainPair(int leftId, int rightId, int otherId, int actual, TrainingState state) {
+    double[] difference = state.scratch;
+    double[] leftRow = state.leftRow;
+    right.difference(rightId, otherId, difference);
+    FactorMatrix lw = left.weights;
+    System.arraycopy(lw.values(leftId), lw.offset(leftId), leftRow, 0, leftRow.length);
+
+    double gradient = left.train(leftId, actual, difference, 0);
+    right.step(rightId, gradient, leftRow, 0);
+    right.step(otherId, -gradient, leftRow, 0);
+  }
+
+  /**
+   * Reference version of {@link #train(int, int, int)} that goes through the generic vector based
+   * training in {@link AbstractOnlineLogisticRegression}.  This is much slower, but is kept to
+   * check that the specialized update gives the same answers.
+   */
+  void trainGeneric(int leftId, int rightId, int actual) {
+    TrainingState state = state();
+    int[] oldData = state.oldData;
+    if (state.rand.nextDouble() > rankMixRate) {
       left.train(leftId, actual, right.weights(rightId));
       right.train(rightId, actual, left.weights(leftId));
     } else {
@@ -83,6 +219,41 @@ public class LatentLogLinear implements OnlineLearner {
     oldData[actual * 3 + 1] = rightId;
   }
 
+  private TrainingState state() {
+    if (state == null) {
+      state = newTrainingState();
+    }
+    return state;
+  }
+
+  TrainingState newTrainingState() {
+    return new TrainingState(left.weights.columnSize());
+  }
+
+  /**
+   * Returns a training state whose memory of previous dyads refers only to the given dyad.  This
+   * keeps rank based updates from reaching rows outside of a block of ids.  The negative sampler
+   * isn't used with such a state since it can pick right ids from any block and is shared by every
+   * state.
+   */
+  TrainingState newTrainingState(int leftId, int rightId) {
+    TrainingState r = newTrainingState();
+    r.sampled = false;
+    for (int actual = 0; actual < 2; actual++) {
+      r.oldData[actual * 3] = leftId;
+      r.oldData[actual * 3 + 1] = rightId;
+    }
+    return r;
+  }
+
+  /**
+   * Makes sure that the factor rows for a dyad exist and have been given their initial values.
+   */
+  void initialize(int leftId, int rightId) {
+    left.extend(leftId);
+    right.extend(rightId);
+  }
+
   /**
    * Updates the model using a particular target variable value and a feature vector that
    * contains just a row and column id.
@@ -93,17 +264,23 @@ public class LatentLogLinear implements OnlineLearner {
    */
   @Override
   public void train(int actual, Vector instance) {
-    double rowId = instance.get(0);
-    double columnId = instance.get(1);
+    train(rowId(instance), columnId(instance), actual);
+  }
 
+  static int rowId(Vector instance) {
+    double rowId = instance.get(0);
     if (Math.floor(rowId) != rowId) {
       throw new IllegalArgumentException("Feature 0 must be row id.  Got a float with non-zero fractional part");
     }
+    return (int) rowId;
+  }
+
+  static int columnId(Vector instance) {
+    double columnId = instance.get(1);
     if (Math.floor(columnId) != columnId) {
       throw new IllegalArgumentException("Feature 1 must be column id.  Got a float with non-zero fractional part");
     }
-
-    train((int) rowId, (int) columnId, actual);
+    return (int) columnId;
   }
 
   /**
@@ -142,10 +319,33 @@ public class LatentLogLinear implements OnlineLearner {
    */
   @Override
   public void close() {
+    left.catchUpAll(step);
+    right.catchUpAll(step);
     left.close();
     right.close();
   }
 
+  /**
+   * Sets whether the prior is applied lazily, which is the default, or only to rows as they are
+   * trained.
+   */
+  public LatentLogLinear lazyRegularization(boolean lazy) {
+    left.lazy = lazy;
+    right.lazy = lazy;
+    return this;
+  }
+
+  /**
+   * Returns the number of training steps so far.
+   */
+  public long getStep() {
+    return step;
+  }
+
+  void setStep(long step) {
+    this.step = step;
+  }
+
   public LatentLogLinear learningRate(double mu0) {
     left.learningRate(mu0);
     right.learningRate(mu0);
@@ -162,13 +362,228 @@ public class LatentLogLinear implements OnlineLearner {
     return left.getLambda();
   }
 
+  public double getLearningRate() {
+    return left.mu0;
+  }
+
+  /**
+   * Sets the fraction of training steps that train on the difference from the last dyad with the
+   * opposite label rather than on the dyad alone.
+   */
+  public LatentLogLinear rankMixRate(double rankMixRate) {
+    this.rankMixRate = rankMixRate;
+    return this;
+  }
+
+  public double getRankMixRate() {
+    return rankMixRate;
+  }
+
+  /**
+   * Sets what the dyads chosen for rank based training are ranked against.  By default each is
+   * ranked against the last dyad with the opposite label, which can be a poor partner if the
+   * input is ordered.  With a sampler, each is ranked against several right ids that the same left
+   * id saw with the opposite label or, for positives, against popular right ids.
+   * <p/>
+   * {@link MiniBatchLatentLogLinear} and {@link StratifiedLatentLogLinear} always use the default,
+   * the latter because sampled ids can come from outside the stratum being trained.  With
+   * {@link HogwildLatentLogLinear} all threads share the sampler without locking, just as they
+   * share the factor rows, so sampled rows can be updated by two threads at once and some of what
+   * the sampler observes can be lost.
+   */
+  public LatentLogLinear negativeSampler(NegativeSampler sampler) {
+    this.sampler = sampler;
+    return this;
+  }
+
+  public NegativeSampler getNegativeSampler() {
+    return sampler;
+  }
+
+  public int getFactors() {
+    return left.weights.columnSize();
+  }
+
+  /**
+   * Returns a deep copy of this model including the training step and the settings, but not the
+   * negative sampler.
+   */
+  public LatentLogLinear copy() {
+    LatentLogLinear r = new LatentLogLinear(getFactors());
+    r.left.copyFrom(left);
+    r.right.copyFrom(right);
+    r.rankMixRate = rankMixRate;
+    r.mu0 = mu0;
+    r.step = step;
+    return r;
+  }
+
   public double classifyScalar(int leftId, int rightId) {
     left.extend(leftId);
     right.extend(rightId);
-    if (leftId >= left.weights.rowSize() || rightId >= left.weights.rowSize()) {
+    if (leftId >= left.weights.rowSize() || rightId >= right.weights.rowSize()) {
       return Double.NaN;
     } else {
-      return logit(left.weights(leftId).dot(right.weights(rightId)));
+      return logit(left.dot(leftId, right, rightId, step));
+    }
+  }
+
+  /**
+   * Scores many dyads at once.  Unlike {@link #classifyScalar(int, int)}, this never creates rows
+   * so any dyad whose left or right row has not been seen in training scores as NaN.  Nothing is
+   * allocated per dyad which makes this the method of choice for serving.
+   *
+   * @param leftIds   The left ids of the dyads to score.
+   * @param rightIds  The right ids of the dyads to score.
+   * @param out       Where to put the scores.  Must be at least as long as leftIds.
+   */
+  public void classifyScalar(int[] leftIds, int[] rightIds, double[] out) {
+    checkBatch(leftIds, rightIds, out);
+    classifyScalar(leftIds, rightIds, out, 0, leftIds.length);
+  }
+
+  /**
+   * Scores many dyads at once, splitting large batches into pieces that are scored by a thread
+   * pool.  Small batches are scored on the calling thread.
+   *
+   * @param leftIds   The left ids of the dyads to score.
+   * @param rightIds  The right ids of the dyads to score.
+   * @param out       Where to put the scores.  Must be at least as long as leftIds.
+   * @param pool      The threads to use for scoring.
+   * @see #classifyScalar(int[], int[], double[])
+   */
+  public void classifyScalar(final int[] leftIds, final int[] rightIds, final double[] out, ExecutorService pool) {
+    checkBatch(leftIds, rightIds, out);
+    int n = leftIds.length;
+    if (n < 2 * MIN_PARALLEL_BATCH) {
+      classifyScalar(leftIds, rightIds, out, 0, n);
+      return;
+    }
+
+    List<Callable<Object>> tasks = Lists.newArrayList();
+    for (int start = 0; start < n; start += MIN_PARALLEL_BATCH) {
+      final int from = start;
+      final int to = Math.min(n, start + MIN_PARALLEL_BATCH);
+      tasks.add(new Callable<Object>() {
+        @Override
+        public Object call() {
+          classifyScalar(leftIds, rightIds, out, from, to);
+          return null;
+        }
+      });
+    }
+    try {
+      for (Future<Object> result : pool.invokeAll(tasks)) {
+        result.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while scoring", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Scoring failed", e.getCause());
+    }
+  }
+
+  /**
+   * Finds the right items that score highest with a left item by scanning all right rows.  Since
+   * the link function is monotone, ranking is done on the raw inner products.  Like batch scoring,
+   * this never creates rows.
+   *
+   * @param leftId  The left item.
+   * @param k       How many right items to return.
+   * @param filter  Returns false for right ids that should not be returned, may be null.
+   * @param ids     Where to put the right ids, best first.
+   * @param scores  Where to put the scores of the right items.
+   * @return The number of items found.  This is zero if the left item has not been trained.
+   */
+  public int topK(int leftId, int k, IntProcedure filter, int[] ids, double[] scores) {
+    FactorMatrix rw = right.weights;
+    if (!left.weights.isInitialized(leftId)) {
+      return 0;
+    }
+    long now = step;
+    double[] query = new double[rw.columnSize()];
+    left.copy(leftId, now, query, 0);
+
+    ScoreHeap heap = new ScoreHeap(k);
+    int rows = rw.rowSize();
+    for (int rightId = 0; rightId < rows; rightId++) {
+      if (rw.isInitialized(rightId)) {
+        double dot = right.dot(rightId, now, query, 0);
+        if (dot > heap.threshold() && (filter == null || filter.apply(rightId))) {
+          heap.offer(rightId, dot);
+        }
+      }
+    }
+    return logit(heap.drain(ids, scores), scores);
+  }
+
+  /**
+   * Builds an approximate search index over the current right factors for use with
+   * {@link #topK(int, int, IntProcedure, MipsIndex, int, int[], double[])}.  Any decay that rows
+   * have missed is applied to a copy of the factors which is indexed.
+   *
+   * @param lists       How many inverted lists the index should have.
+   * @param iterations  How many rounds of k-means to use when building the index.
+   */
+  public MipsIndex rightIndex(int lists, int iterations) {
+    long now = step;
+    FactorMatrix rw = right.weights;
+    FactorMatrix items = new FactorMatrix(rw.columnSize());
+    int rows = rw.rowSize();
+    for (int row = 0; row < rows; row++) {
+      if (rw.isInitialized(row)) {
+        right.copy(row, now, items.values(row), items.offset(row));
+        items.setUpdateCount(row, 0);
+      }
+    }
+    return new MipsIndex(items, lists, iterations);
+  }
+
+  /**
+   * Approximate version of {@link #topK(int, int, IntProcedure, int[], double[])} that only scans
+   * the parts of an index most likely to contain the best items.
+   *
+   * @param probes  How many inverted lists of the index to scan.  More gives better recall.
+   */
+  public int topK(int leftId, int k, IntProcedure filter, MipsIndex index, int probes, int[] ids, double[] scores) {
+    if (!left.weights.isInitialized(leftId)) {
+      return 0;
+    }
+    double[] query = new double[left.weights.columnSize()];
+    left.copy(leftId, step, query, 0);
+    int n = index.search(query, 0, k, filter, probes, ids, scores);
+    return logit(n, scores);
+  }
+
+  private int logit(int n, double[] scores) {
+    for (int i = 0; i < n; i++) {
+      scores[i] = logit(scores[i]);
+    }
+    return n;
+  }
+
+  private static void checkBatch(int[] leftIds, int[] rightIds, double[] out) {
+    if (rightIds.length != leftIds.length) {
+      throw new IllegalArgumentException("Left and right ids must have the same length");
+    }
+    if (out.length < leftIds.length) {
+      throw new IllegalArgumentException("Output array too short");
+    }
+  }
+
+  private void classifyScalar(int[] leftIds, int[] rightIds, double[] out, int from, int to) {
+    FactorMatrix lw = left.weights;
+    FactorMatrix rw = right.weights;
+    long now = step;
+    for (int i = from; i < to; i++) {
+      int leftId = leftIds[i];
+      int rightId = rightIds[i];
+      if (lw.isInitialized(leftId) && rw.isInitialized(rightId)) {
+        out[i] = logit(left.dot(leftId, right, rightId, now));
+      } else {
+        out[i] = Double.NaN;
+      }
     }
   }
 
@@ -176,14 +591,131 @@ public class LatentLogLinear implements OnlineLearner {
     return 1 / (1 + Math.exp(-v));
   }
 
-  private static class LogLinearModel extends AbstractOnlineLogisticRegression {
+  /**
+   * Computes the logistic link the same way as the vector form of link in
+   * AbstractOnlineLogisticRegression so that all training paths agree exactly.
+   */
+  static double logistic(double r) {
+    if (r >= 40) {
+      return 1;
+    } else {
+      double s = Math.exp(r);
+      return s / (1 + s);
+    }
+  }
+
+  /**
+   * Moves a value towards zero by shrink, stopping at zero.
+   */
+  static double l1(double value, double shrink) {
+    double newValue = value - shrink * Math.signum(value);
+    if (newValue * value < 0) {
+      return 0;
+    } else {
+      return newValue;
+    }
+  }
+
+  FactorMatrix leftFactors() {
+    return left.weights;
+  }
+
+  FactorMatrix rightFactors() {
+    return right.weights;
+  }
+
+  LogLinearModel leftModel() {
+    return left;
+  }
+
+  LogLinearModel rightModel() {
+    return right;
+  }
+
+  /**
+   * Writes this model in the binary format described in {@link ModelSerializer#writeBinary}.
+   */
+  void writeBinary(DataOutput out) throws IOException {
+    out.writeInt(BINARY_MAGIC);
+    out.writeInt(BINARY_VERSION);
+    out.writeInt(left.weights.columnSize());
+    out.writeDouble(rankMixRate);
+    out.writeLong(step);
+    out.writeBoolean(left.lazy);
+    left.writeBinary(out);
+    right.writeBinary(out);
+  }
+
+  static LatentLogLinear readBinary(DataInput in) throws IOException {
+    int version = readBinaryVersion(in);
+    LatentLogLinear r = new LatentLogLinear(in.readInt());
+    r.rankMixRate = in.readDouble();
+    if (version >= 2) {
+      r.step = in.readLong();
+    }
+    // older files don't say, so they get the default
+    r.lazyRegularization(version < 3 || in.readBoolean());
+    r.left.readBinary(in, version);
+    r.right.readBinary(in, version);
+    return r;
+  }
+
+  /**
+   * Checks the start of a binary model.
+   *
+   * @return The version of the format.
+   */
+  static int readBinaryVersion(DataInput in) throws IOException {
+    int magic = in.readInt();
+    if (magic != BINARY_MAGIC) {
+      throw new IOException(String.format("Not a binary LatentLogLinear model, found magic number %08x", magic));
+    }
+    int version = in.readInt();
+    if (version > BINARY_VERSION) {
+      throw new IOException("Can't read binary LatentLogLinear model version " + version);
+    }
+    return version;
+  }
+
+  /**
+   * Everything that a training thread changes other than the factors themselves.
+   */
+  static final class TrainingState {
     private final Random rand = RandomUtils.getRandom();
 
-    private Matrix weights;
-    private IntArrayList updates;
+    // this contains [leftId, rightId] for actual = 0 and actual = 1 to allow
+    // for rank based learning.
+    private final int[] oldData = new int[6];
+
+    // holds differences of factor rows for rank based training
+    private final double[] scratch;
+
+    // holds a copy of the left row for pairwise training
+    private final double[] leftRow;
+
+    // whether rank based training may use the negative sampler
+    private boolean sampled = true;
+
+    private TrainingState(int factors) {
+      scratch = new double[factors];
+      leftRow = new double[factors];
+    }
+  }
+
+  /**
+   * One side of the model.  Each row of weights is the logistic regression for one item.
+   */
+  static class LogLinearModel extends AbstractOnlineLogisticRegression {
+    // initializes new rows, this is recreated after deserialization
+    private transient UnaryFunction gaussian;
+
+    private FactorMatrix weights;
     private double mu0 = 1;
     private int updateCount;
 
+    // apply the prior lazily using the last step of each row
+    private boolean lazy = true;
+
     private LogLinearModel(int factors) {
       this.numCategories = 2;
       this.prior = new L1();
@@ -193,8 +725,7 @@ public class LatentLogLinear implements OnlineLearner {
       updateCounts = new DenseVector(numFeatures);
       beta = new DenseMatrix(numCategories - 1, numFeatures);
 
-      weights = new BlockSparseMatrix(numFeatures);
-      updates = new IntArrayList();
+      weights = new FactorMatrix(numFeatures);
     }
 
     @Override
@@ -209,9 +740,7 @@ public class LatentLogLinear implements OnlineLearner {
 
     public void train(int id, int actual, Vector features) {
       extend(id);
-     
-      updateCount = updates.getQuick(id) + 1;
-      updates.setQuick(id, updateCount);
+      updateCount = weights.incrementUpdateCount(id);
 
       if (id >= weights.rowSize()) {
         weights.setQuick(id, 0, 0);
@@ -221,6 +750,245 @@ public class LatentLogLinear implements OnlineLearner {
       train(actual, features);
     }
 
+    /**
+     * Specialized version of train(int, int, Vector) that works directly on primitive arrays.  When
+     * the prior is not lazy, the arithmetic is the same as the generic path, including the fact that
+     * the prior is applied both before the update and again when the gradient classifies the
+     * example.  When it is lazy, the row must already have been caught up with
+     * {@link #catchUp(int, long)}.
+     * <p/>
+     * The only shared state touched is the row being updated and its update count so this can be
+     * called from several threads at once.
+     *
+     * @param id       The row to update.
+     * @param actual   The target value, either 0 or 1.
+     * @param x        Storage holding the features, typically a row of the other side's factors.
+     * @param xOffset  Where the features start in x.
+     * @return The gradient of the log-likelihood with respect to the score.
+     */
+    public double train(int id, int actual, double[] x, int xOffset) {
+      extend(id);
+      int count = weights.incrementUpdateCount(id);
+
+      double[] w = weights.values(id);
+      int base = weights.offset(id);
+      int n = weights.columnSize();
+
+      double learningRate = mu0 / Math.sqrt(count);
+
+      double r = 0;
+      if (lazy) {
+        for (int k = 0; k < n; k++) {
+          r += w[base + k] * x[xOffset + k];
+        }
+      } else {
+        // the generic path regularizes in train and again in classify
+        double shrink = getLambda() * learningRate;
+        for (int k = 0; k < n; k++) {
+          double v = l1(l1(w[base + k], shrink), shrink);
+          w[base + k] = v;
+          r += v * x[xOffset + k];
+        }
+      }
+
+      double gradient = actual - logistic(r);
+      for (int k = 0; k < n; k++) {
+        double xk = x[xOffset + k];
+        if (xk != 0) {
+          double newValue = w[base + k] + gradient * learningRate * xk;
+          if (Double.isNaN(newValue) || Double.isInfinite(newValue)) {
+            throw new ArithmeticException(String.format("Updating from %.3f to nastiness\n", w[base + k]));
+          }
+          w[base + k] = newValue;
+        }
+      }
+      return gradient;
+    }
+
+    /**
+     * Moves a row along x by a gradient that was computed elsewhere, at the row's own learning
+     * rate.  This is for pairwise updates where the gradient depends on more than one row.  When
+     * the prior is not lazy, the row is shrunk once first.
+     */
+    void step(int id, double gradient, double[] x, int xOffset) {
+      extend(id);
+      int count = weights.incrementUpdateCount(id);
+
+      double[] w = weights.values(id);
+      int base = weights.offset(id);
+      int n = weights.columnSize();
+
+      double learningRate = mu0 / Math.sqrt(count);
+      double shrink = lazy ? 0 : getLambda() * learningRate;
+      for (int k = 0; k < n; k++) {
+        double newValue = l1(w[base + k], shrink) + gradient * learningRate * x[xOffset + k];
+        if (Double.isNaN(newValue) || Double.isInfinite(newValue)) {
+          throw new ArithmeticException(String.format("Updating from %.3f to nastiness\n", w[base + k]));
+        }
+        w[base + k] = newValue;
+      }
+    }
+
+    /**
+     * Applies the prior to a row for all of the steps it missed before the given step.  The rate
+     * for each missed step is lambda times the row's current learning rate, just as
+     * {@link AbstractOnlineLogisticRegression#regularize(Vector)} does for each feature.  Does
+     * nothing unless the prior is lazy.
+     */
+    void catchUp(int id, long step) {
+      if (lazy) {
+        extend(id);
+        long last = weights.lastStep(id);
+        if (last < step) {
+          if (last >= 0) {
+            double[] w = weights.values(id);
+            int base = weights.offset(id);
+            double rate = decayRate(id);
+            for (int k = 0; k < weights.columnSize(); k++) {
+              w[base + k] = prior.age(w[base + k], step - last, rate);
+            }
+          }
+          weights.setLastStep(id, step);
+        }
+      }
+    }
+
+    /**
+     * Catches up every initialized row.
+     */
+    void catchUpAll(long step) {
+      int rows = weights.rowSize();
+      for (int row = 0; row < rows; row++) {
+        if (weights.isInitialized(row)) {
+          catchUp(row, step);
+        }
+      }
+    }
+
+    /**
+     * Copies a row into r as it would be after catching up to the given step, but without changing
+     * the row itself.
+     */
+    void copy(int id, long step, double[] r, int offset) {
+      double[] w = weights.values(id);
+      int base = weights.offset(id);
+      int n = weights.columnSize();
+      long missing = missing(id, step);
+      if (missing == 0) {
+        System.arraycopy(w, base, r, offset, n);
+      } else {
+        double rate = decayRate(id);
+        for (int k = 0; k < n; k++) {
+          r[offset + k] = prior.age(w[base + k], missing, rate);
+        }
+      }
+    }
+
+    /**
+     * Computes the dot product of a row, as of the given step, with x.
+     */
+    double dot(int id, long step, double[] x, int xOffset) {
+      double[] w = weights.values(id);
+      int base = weights.offset(id);
+      int n = weights.columnSize();
+      long missing = missing(id, step);
+      double sum = 0;
+      if (missing == 0) {
+        for (int k = 0; k < n; k++) {
+          sum += w[base + k] * x[xOffset + k];
+        }
+      } else {
+        double rate = decayRate(id);
+        for (int k = 0; k < n; k++) {
+          sum += prior.age(w[base + k], missing, rate) * x[xOffset + k];
+        }
+      }
+      return sum;
+    }
+
+    /**
+     * Computes the dot product of one of our rows with a row of the other side, both as of the
+     * given step.
+     */
+    double dot(int id, LogLinearModel other, int otherId, long step) {
+      long missing = missing(id, step);
+      long otherMissing = other.missing(otherId, step);
+      if (missing == 0 && otherMissing == 0) {
+        return weights.dot(id, other.weights, otherId);
+      }
+      double rate = missing > 0 ? decayRate(id) : 0;
+      double otherRate = otherMissing > 0 ? other.decayRate(otherId) : 0;
+      double[] x = weights.values(id);
+      int i = weights.offset(id);
+      double[] y = other.weights.values(otherId);
+      int j = other.weights.offset(otherId);
+      double sum = 0;
+      for (int k = 0; k < weights.columnSize(); k++) {
+        sum += prior.age(x[i + k], missing, rate) * other.prior.age(y[j + k], otherMissing, otherRate);
+      }
+      return sum;
+    }
+
+    /**
+     * Makes this model a deep copy of another.
+     */
+    void copyFrom(LogLinearModel other) {
+      weights = (FactorMatrix) other.weights.clone();
+      mu0 = other.mu0;
+      lazy = other.lazy;
+      lambda(other.getLambda());
+    }
+
+    /**
+     * Forgets a row so that it is initialized afresh the next time it is used.
+     */
+    void reset(int id) {
+      weights.setUpdateCount(id, -1);
+      weights.setLastStep(id, -1);
+    }
+
+    FactorMatrix getFactors() {
+      return weights;
+    }
+
+    boolean isLazy() {
+      return lazy;
+    }
+
+    // how many steps of decay a row has missed as of the given step
+    private long missing(int id, long step) {
+      long last = weights.lastStep(id);
+      return last >= 0 && last < step ? step - last : 0;
+    }
+
+    private double decayRate(int id) {
+      return getLambda() * mu0 / Math.sqrt(Math.max(1, weights.updateCount(id)));
+    }
+
+    /**
+     * Stores the difference of two of our rows into r without allocating.
+     */
+    public void difference(int id, int otherId, double[] r) {
+      double[] a = values(id);
+      int i = weights.offset(id);
+      double[] b = values(otherId);
+      int j = weights.offset(otherId);
+      for (int k = 0; k < r.length; k++) {
+        r[k] = a[i + k] - b[j + k];
+      }
+    }
+
+    private double[] values(int id) {
+      extend(id);
+      return weights.values(id);
+    }
+
+    @Override
+    protected boolean binaryFastPath() {
+      // the prior is applied to the whole row by regularize, not lazily per feature
+      return false;
+    }
+
     @Override
     public void regularize(Vector instance) {
       beta.assign(new UnaryFunction() {
@@ -241,27 +1009,6 @@ public class LatentLogLinear implements OnlineLearner {
       return weights.getRow(id);
     }
 
-    private void initializeWeights(int id) {
-      if (updates.get(id) < 0) {
-        weights.getRow(id).assign(new UnaryFunction() {
-          @Override
-          public double apply(double arg1) {
-            return rand.nextGaussian();
-          }
-        });
-        updates.set(id, 0);
-      }
-    }
-
-    private void extendUpdateCounts(int id) {
-      if (id >= updates.size()) {
-        while (id >= updates.size()) {
-          // this signals that the corresponding row hasn't been initialized
-          updates.add(-1);
-        }
-      }
-    }
-
     public void setBias(int id, double value) {
       extend(id);
       weights.setQuick(id, 0, value);
@@ -285,8 +1032,83 @@ public class LatentLogLinear implements OnlineLearner {
     }
 
     public void extend(int id) {
-      extendUpdateCounts(id);
-      initializeWeights(id);
+      if (!weights.isInitialized(id)) {
+        weights.initializeRow(id, gaussian());
+      }
+    }
+
+    private synchronized UnaryFunction gaussian() {
+      if (gaussian == null) {
+        final Random rand = RandomUtils.getRandom();
+        gaussian = new UnaryFunction() {
+          @Override
+          public double apply(double arg1) {
+            return rand.nextGaussian();
+          }
+        };
+      }
+      return gaussian;
+    }
+
+    /**
+     * Writes the hyper-parameters, then the update counts of all rows, then the last steps of all
+     * rows, then the values of all rows.  Rows that have never been initialized have a count of -1
+     * and zero values.
+     */
+    private void writeBinary(DataOutput out) throws IOException {
+      out.writeDouble(mu0);
+      out.writeDouble(getLambda());
+
+      int rows = weights.rowSize();
+      int columns = weights.columnSize();
+      out.writeInt(rows);
+      for (int row = 0; row < rows; row++) {
+        out.writeInt(weights.isInitialized(row) ? weights.updateCount(row) : -1);
+      }
+      for (int row = 0; row < rows; row++) {
+        out.writeLong(weights.lastStep(row));
+      }
+      for (int row = 0; row < rows; row++) {
+        if (weights.isInitialized(row)) {
+          double[] values = weights.values(row);
+          int base = weights.offset(row);
+          for (int k = 0; k < columns; k++) {
+            out.writeDouble(values[base + k]);
+          }
+        } else {
+          for (int k = 0; k < columns; k++) {
+            out.writeDouble(0);
+          }
+        }
+      }
+    }
+
+    private void readBinary(DataInput in, int version) throws IOException {
+      learningRate(in.readDouble());
+      lambda(in.readDouble());
+
+      int rows = in.readInt();
+      int columns = weights.columnSize();
+      int[] counts = new int[rows];
+      for (int row = 0; row < rows; row++) {
+        counts[row] = in.readInt();
+      }
+      long[] steps = new long[rows];
+      Arrays.fill(steps, -1);
+      if (version >= 2) {
+        for (int row = 0; row < rows; row++) {
+          steps[row] = in.readLong();
+        }
+      }
+      for (int row = 0; row < rows; row++) {
+        double[] values = weights.values(row);
+        int base = weights.offset(row);
+        for (int k = 0; k < columns; k++) {
+          values[base + k] = in.readDouble();
+        }
+        weights.setUpdateCount(row, counts[row]);
+        weights.setLastStep(row, steps[row]);
+      }
     }
   }
 }
@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.classifier.AbstractVectorClassifier;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.function.Functions;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+
+/**
+ * Immutable copy of an {@link AbstractOnlineLogisticRegression} for scoring.  Nothing is changed by
+ * classification so any number of threads can score with a snapshot while the model it came from
+ * keeps training.  Use {@link AbstractOnlineLogisticRegression#snapshot()} on the training thread to
+ * make one and {@link AbstractOnlineLogisticRegression#getSnapshot()} on any other thread to get
+ * the latest.
+ * <p/>
+ * The prior that the model still owes its coefficients is applied as they are read, with the
+ * learning rates the model had when the snapshot was made, so a snapshot of a model with two
+ * categories gives the same scores as the model did at that point.
+ * <p/>
+ * Coefficients are kept in blocks of {@link #BLOCK_SIZE} features.  A new snapshot shares the
+ * blocks of the previous one and only copies the blocks that the model changed since then.  Blocks
+ * without any non-zero coefficient aren't stored and mostly empty blocks only store their non-zero
+ * features.
+ */
+public final class LogisticRegressionSnapshot extends AbstractVectorClassifier {
+  static final int BLOCK_SHIFT = 10;
+  static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+  private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+  private final int numCategories;
+  private final int numFeatures;
+  private final int step;
+  private final boolean sealed;
+  private final PriorFunction prior;
+  // lambda times the overall learning rate at the time of the snapshot
+  private final double rate;
+  private final Block[] blocks;
+
+  private LogisticRegressionSnapshot(AbstractOnlineLogisticRegression model, Block[] blocks) {
+    this.numCategories = model.numCategories();
+    this.numFeatures = model.numFeatures();
+    this.step = model.getStep();
+    this.sealed = model.isSealed() || model.updateSteps == null;
+    this.prior = model.getPrior();
+    this.rate = model.getLambda() * model.currentLearningRate();
+    this.blocks = blocks;
+  }
+
+  /**
+   * Makes a snapshot of a model.  Only the blocks marked as changed are copied from the model, the
+   * rest are taken from the previous snapshot.
+   *
+   * @param model     The model to copy.
+   * @param previous  An earlier snapshot of the same model or null to copy everything.
+   * @param changed   The blocks that changed since the previous snapshot.
+   */
+  static LogisticRegressionSnapshot of(AbstractOnlineLogisticRegression model,
+                                       LogisticRegressionSnapshot previous, BitSet changed) {
+    int numBlocks = (model.numFeatures() + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+    Block[] blocks;
+    if (previous == null) {
+      blocks = new Block[numBlocks];
+      for (int b = 0; b < numBlocks; b++) {
+        blocks[b] = Block.copy(model, b);
+      }
+    } else {
+      Preconditions.checkArgument(previous.numFeatures == model.numFeatures(), "Snapshot is of a different model");
+      blocks = previous.blocks.clone();
+      for (int b = changed.nextSetBit(0); b >= 0; b = changed.nextSetBit(b + 1)) {
+        blocks[b] = Block.copy(model, b);
+      }
+    }
+    return new LogisticRegressionSnapshot(model, blocks);
+  }
+
+  @Override
+  public int numCategories() {
+    return numCategories;
+  }
+
+  public int numFeatures() {
+    return numFeatures;
+  }
+
+  /**
+   * Returns the training step of the model when the snapshot was made.
+   */
+  public int getStep() {
+    return step;
+  }
+
+  @Override
+  public Vector classifyNoLink(Vector instance) {
+    Vector r = new DenseVector(numCategories - 1);
+    Iterator<Vector.Element> nonZeros = instance.iterateNonZero();
+    while (nonZeros.hasNext()) {
+      Vector.Element element = nonZeros.next();
+      int j = element.index();
+      Block block = blocks[j >>> BLOCK_SHIFT];
+      int offset = block == null ? -1 : block.offset(j);
+      if (offset >= 0) {
+        for (int i = 0; i < numCategories - 1; i++) {
+          r.setQuick(i, r.getQuick(i) + coefficient(block, i, offset) * element.get());
+        }
+      }
+    }
+    return r;
+  }
+
+  /**
+   * Returns n-1 probabilities, one for each category but the 0-th, just as the model does.
+   */
+  @Override
+  public Vector classify(Vector instance) {
+    Vector v = classifyNoLink(instance);
+    double max = v.maxValue();
+    if (max >= 40) {
+      // if max > 40, we subtract the large offset first
+      v.assign(Functions.minus(max)).assign(Functions.EXP);
+      return v.divide(v.norm(1));
+    } else {
+      v.assign(Functions.EXP);
+      return v.divide(1 + v.norm(1));
+    }
+  }
+
+  /**
+   * Returns the probability of the first of two categories without allocating anything but an
+   * iterator.
+   *
+   * @throws IllegalArgumentException If the classifier doesn't have two categories.
+   */
+  @Override
+  public double classifyScalar(Vector instance) {
+    Preconditions.checkArgument(numCategories == 2, "Can only call classifyScalar with two categories");
+    double r = 0;
+    Iterator<Vector.Element> nonZeros = instance.iterateNonZero();
+    while (nonZeros.hasNext()) {
+      Vector.Element element = nonZeros.next();
+      int j = element.index();
+      Block block = blocks[j >>> BLOCK_SHIFT];
+      int offset = block == null ? -1 : block.offset(j);
+      if (offset >= 0) {
+        r += coefficient(block, 0, offset) * element.get();
+      }
+    }
+    if (r < 0) {
+      double s = Math.exp(r);
+      return s / (1 + s);
+    } else {
+      double s = Math.exp(-r);
+      return 1 / (1 + s);
+    }
+  }
+
+  /**
+   * Returns a coefficient with the prior the model owes it applied.
+   */
+  private double coefficient(Block block, int i, int offset) {
+    double value = block.beta[i][offset];
+    if (!sealed) {
+      double missingUpdates = step - block.updateSteps[offset];
+      if (missingUpdates > 0) {
+        value = prior.age(value, missingUpdates, rate * block.perTermRates[offset]);
+      }
+    }
+    return value;
+  }
+
+  /**
+   * The features of one block that have a non-zero coefficient.  If most of them do, the arrays
+   * cover the whole block and features are found by offset, otherwise only the non-zero features
+   * are kept in order and found by binary search.
+   */
+  private static final class Block {
+    // offsets within the block of the kept features, or null if every feature is kept
+    private final int[] offsets;
+    private final double[][] beta;
+    private final double[] updateSteps;
+    private final double[] perTermRates;
+
+    private Block(int[] offsets, int n, int rows) {
+      this.offsets = offsets;
+      beta = new double[rows][n];
+      updateSteps = new double[n];
+      perTermRates = new double[n];
+    }
+
+    /**
+     * Copies a block out of a model, or returns null if all of its coefficients are zero.
+     */
+    static Block copy(AbstractOnlineLogisticRegression model, int b) {
+      Matrix beta = model.beta;
+      int rows = beta.numRows();
+      int start = b << BLOCK_SHIFT;
+      int end = Math.min(start + BLOCK_SIZE, model.numFeatures());
+
+      int[] offsets = new int[end - start];
+      int n = 0;
+      for (int j = start; j < end; j++) {
+        for (int i = 0; i < rows; i++) {
+          if (beta.getQuick(i, j) != 0) {
+            offsets[n++] = j - start;
+            break;
+          }
+        }
+      }
+      if (n == 0) {
+        return null;
+      }
+
+      // a dense block needs no offsets and is faster to read, so only go sparse when it saves a lot
+      Block r;
+      if (2 * n < end - start) {
+        r = new Block(Arrays.copyOf(offsets, n), n, rows);
+      } else {
+        r = new Block(null, end - start, rows);
+      }
+      for (int k = 0; k < n; k++) {
+        int j = start + offsets[k];
+        int index = r.offsets == null ? offsets[k] : k;
+        for (int i = 0; i < rows; i++) {
+          r.beta[i][index] = beta.getQuick(i, j);
+        }
+        if (model.updateSteps != null) {
+          r.updateSteps[index] = model.updateSteps.getQuick(j);
+          r.perTermRates[index] = model.perTermLearningRate(j);
+        }
+      }
+      return r;
+    }
+
+    /**
+     * Returns where a feature is kept in this block or a negative number if it isn't.
+     */
+    int offset(int j) {
+      int offset = j & BLOCK_MASK;
+      return offsets == null ? offset : Arrays.binarySearch(offsets, offset);
+    }
+  }
+}
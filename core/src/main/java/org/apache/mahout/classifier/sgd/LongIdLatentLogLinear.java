@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import org.apache.mahout.math.function.IntProcedure;
+
+/**
+ * Lets a {@link LatentLogLinear} model work with sparse 64 bit ids.
+ * <p/>
+ * The underlying model uses ids directly as row numbers so a single large id would make it allocate
+ * rows for every smaller id as well.  Here each side has an {@link IdSlotMap} that gives every id
+ * it sees the next free row instead, so the model only grows with the number of distinct ids.  If
+ * the maps evict, the model stays bounded as well: the row of an evicted id is forgotten and is
+ * initialized afresh when a new id takes it over.
+ * <p/>
+ * The maps are not thread safe and so neither is this class.  To save a model, save the underlying
+ * model along with the ids held in each row, which can be had from {@link #leftIds()} and
+ * {@link #rightIds()}.
+ */
+public class LongIdLatentLogLinear {
+  private final LatentLogLinear model;
+  private final IdSlotMap leftIds;
+  private final IdSlotMap rightIds;
+
+  /**
+   * Makes a model whose id maps never evict.
+   */
+  public LongIdLatentLogLinear(int factors) {
+    this(new LatentLogLinear(factors), new IdSlotMap(), new IdSlotMap());
+  }
+
+  /**
+   * Makes a model that holds at most the given number of ids on each side.
+   *
+   * @param factors   How many latent factors each item has.
+   * @param eviction  How to choose ids to evict.
+   * @param capacity  How many ids each side may hold.
+   */
+  public LongIdLatentLogLinear(int factors, IdSlotMap.Eviction eviction, int capacity) {
+    this(new LatentLogLinear(factors), new IdSlotMap(eviction, capacity), new IdSlotMap(eviction, capacity));
+  }
+
+  /**
+   * Wraps a model.  The maps should be empty unless they already describe the rows of the model.
+   */
+  public LongIdLatentLogLinear(LatentLogLinear model, IdSlotMap leftIds, IdSlotMap rightIds) {
+    this.model = model;
+    this.leftIds = leftIds;
+    this.rightIds = rightIds;
+    final LatentLogLinear.LogLinearModel left = model.leftModel();
+    final LatentLogLinear.LogLinearModel right = model.rightModel();
+    leftIds.setEvictionListener(new IntProcedure() {
+      @Override
+      public boolean apply(int slot) {
+        left.reset(slot);
+        return true;
+      }
+    });
+    rightIds.setEvictionListener(new IntProcedure() {
+      @Override
+      public boolean apply(int slot) {
+        right.reset(slot);
+        return true;
+      }
+    });
+  }
+
+  /**
+   * Updates the model with a single dyad.
+   *
+   * @param leftId   The id of the left item.
+   * @param rightId  The id of the right item.
+   * @param actual   The target value, either 0 or 1.
+   */
+  public void train(long leftId, long rightId, int actual) {
+    model.train(leftIds.slot(leftId), rightIds.slot(rightId), actual);
+  }
+
+  /**
+   * Returns the probability that a dyad is positive, or NaN if either item is not in the model.
+   * This doesn't count as a use of either id.
+   */
+  public double classifyScalar(long leftId, long rightId) {
+    int left = leftIds.find(leftId);
+    int right = rightIds.find(rightId);
+    if (left < 0 || right < 0) {
+      return Double.NaN;
+    }
+    return model.classifyScalar(left, right);
+  }
+
+  /**
+   * Removes an item from the left side of the model.
+   *
+   * @return True if the item was in the model.
+   */
+  public boolean forgetLeft(long id) {
+    int slot = leftIds.remove(id);
+    if (slot >= 0) {
+      model.leftModel().reset(slot);
+    }
+    return slot >= 0;
+  }
+
+  /**
+   * Removes an item from the right side of the model.
+   *
+   * @return True if the item was in the model.
+   */
+  public boolean forgetRight(long id) {
+    int slot = rightIds.remove(id);
+    if (slot >= 0) {
+      model.rightModel().reset(slot);
+    }
+    return slot >= 0;
+  }
+
+  public void close() {
+    model.close();
+  }
+
+  public LatentLogLinear getModel() {
+    return model;
+  }
+
+  public IdSlotMap leftIds() {
+    return leftIds;
+  }
+
+  public IdSlotMap rightIds() {
+    return rightIds;
+  }
+}
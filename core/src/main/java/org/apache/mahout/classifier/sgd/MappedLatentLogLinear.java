@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only scorer for a {@link LatentLogLinear} model stored in the binary format written by
+ * {@link ModelSerializer#writeBinary(String, LatentLogLinear)}.
+ * <p/>
+ * Nothing is read when the model is opened other than a few header fields.  The factors are
+ * memory mapped so they are paged in as they are used and the pages are shared by all processes
+ * that map the same file.  Scoring can be done from many threads at once.
+ * <p/>
+ * Rows that were regularized lazily when the model was saved get the decay they missed applied as
+ * they are scored, so scores match those of the saved model.
+ */
+public class MappedLatentLogLinear {
+  // each mapped buffer holds at most this many bytes of factors
+  private static final int MAX_BUFFER_BYTES = 1 << 30;
+
+  // LatentLogLinear always uses an L1 prior
+  private static final PriorFunction PRIOR = new L1();
+
+  private final int factors;
+  private final Side left;
+  private final Side right;
+
+  private MappedLatentLogLinear(int factors, Side left, Side right) {
+    this.factors = factors;
+    this.left = left;
+    this.right = right;
+  }
+
+  /**
+   * Maps a binary model file.
+   */
+  public static MappedLatentLogLinear open(File file) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      int version = LatentLogLinear.readBinaryVersion(in);
+      int factors = in.readInt();
+      // skip the rank mixing rate which only matters for training
+      in.readDouble();
+      long step = version >= 2 ? in.readLong() : 0;
+      // rows of a model that isn't lazy owe no decay
+      boolean lazy = version < 3 || in.readBoolean();
+      FileChannel channel = in.getChannel();
+      Side left = new Side(in, channel, factors, version, lazy ? step : 0);
+      Side right = new Side(in, channel, factors, version, lazy ? step : 0);
+      return new MappedLatentLogLinear(factors, left, right);
+    } finally {
+      // mappings stay valid after the file is closed
+      in.close();
+    }
+  }
+
+  public int getFactors() {
+    return factors;
+  }
+
+  public int getLeftRows() {
+    return left.rows;
+  }
+
+  public int getRightRows() {
+    return right.rows;
+  }
+
+  /**
+   * Returns the probability of a dyad, or NaN if either item was never trained.
+   */
+  public double classifyScalar(int leftId, int rightId) {
+    if (!left.isInitialized(leftId) || !right.isInitialized(rightId)) {
+      return Double.NaN;
+    }
+    DoubleBuffer x = left.buffer(leftId);
+    int i = left.offset(leftId);
+    DoubleBuffer y = right.buffer(rightId);
+    int j = right.offset(rightId);
+    long leftMissing = left.missing(leftId);
+    long rightMissing = right.missing(rightId);
+    double sum = 0;
+    if (leftMissing == 0 && rightMissing == 0) {
+      for (int k = 0; k < factors; k++) {
+        sum += x.get(i + k) * y.get(j + k);
+      }
+    } else {
+      double leftRate = left.decayRate(leftId);
+      double rightRate = right.decayRate(rightId);
+      for (int k = 0; k < factors; k++) {
+        sum += PRIOR.age(x.get(i + k), leftMissing, leftRate) * PRIOR.age(y.get(j + k), rightMissing, rightRate);
+      }
+    }
+    return 1 / (1 + Math.exp(-sum));
+  }
+
+  /**
+   * Scores many dyads at once.
+   *
+   * @see LatentLogLinear#classifyScalar(int[], int[], double[])
+   */
+  public void classifyScalar(int[] leftIds, int[] rightIds, double[] out) {
+    if (rightIds.length != leftIds.length || out.length < leftIds.length) {
+      throw new IllegalArgumentException("Ids and output must have matching lengths");
+    }
+    for (int i = 0; i < leftIds.length; i++) {
+      out[i] = classifyScalar(leftIds[i], rightIds[i]);
+    }
+  }
+
+  /**
+   * The mapped counts, steps and factors for one side of the model.
+   */
+  private static final class Side {
+    private final int rows;
+    private final IntBuffer counts;
+
+    // null for files written before rows recorded their last step
+    private final LongBuffer steps;
+    private final long step;
+    private final double learningRate;
+    private final double lambda;
+
+    // factors are split over several buffers since one buffer can't hold more than 2GB
+    private final DoubleBuffer[] values;
+    private final int shift;
+    private final int mask;
+    private final int factors;
+
+    private Side(RandomAccessFile in, FileChannel channel, int factors, int version, long step) throws IOException {
+      this.factors = factors;
+      this.step = step;
+      learningRate = in.readDouble();
+      lambda = in.readDouble();
+      rows = in.readInt();
+
+      long start = in.getFilePointer();
+      if (8L * rows > Integer.MAX_VALUE) {
+        throw new IOException("Too many rows to map " + rows);
+      }
+      counts = channel.map(FileChannel.MapMode.READ_ONLY, start, 4L * rows).asIntBuffer();
+      start += 4L * rows;
+      if (version >= 2) {
+        steps = channel.map(FileChannel.MapMode.READ_ONLY, start, 8L * rows).asLongBuffer();
+        start += 8L * rows;
+      } else {
+        steps = null;
+      }
+
+      int rowsPerBuffer = Integer.highestOneBit(Math.max(1, MAX_BUFFER_BYTES / (8 * Math.max(1, factors))));
+      shift = Integer.numberOfTrailingZeros(rowsPerBuffer);
+      mask = rowsPerBuffer - 1;
+      values = new DoubleBuffer[(rows + rowsPerBuffer - 1) / rowsPerBuffer];
+      for (int i = 0; i < values.length; i++) {
+        long length = 8L * factors * Math.min(rowsPerBuffer, rows - (long) i * rowsPerBuffer);
+        values[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length).asDoubleBuffer();
+        start += length;
+      }
+      in.seek(start);
+    }
+
+    private boolean isInitialized(int row) {
+      return row >= 0 && row < rows && counts.get(row) >= 0;
+    }
+
+    // how many steps of decay a row missed before the model was saved
+    private long missing(int row) {
+      if (steps == null) {
+        return 0;
+      }
+      long last = steps.get(row);
+      return last >= 0 && last < step ? step - last : 0;
+    }
+
+    private double decayRate(int row) {
+      return lambda * learningRate / Math.sqrt(Math.max(1, counts.get(row)));
+    }
+
+    private DoubleBuffer buffer(int row) {
+      return values[row >>> shift];
+    }
+
+    private int offset(int row) {
+      return (row & mask) * factors;
+    }
+  }
+}
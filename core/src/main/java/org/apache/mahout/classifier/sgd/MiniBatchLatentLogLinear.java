@@ -0,0 +1,256 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import org.apache.mahout.classifier.OnlineLearner;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.map.OpenIntIntHashMap;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Trains a {@link LatentLogLinear} model with mini-batches instead of one update per example.
+ * <p/>
+ * Gradients for a batch are all computed against the factors as they were at the start of the
+ * batch and summed for each row that the batch touches.  Each touched row is then updated once,
+ * with a learning rate based on its update count after the batch and with the L1 shrinkage for
+ * all of its examples in the batch applied in a single step.  A popular item that appears many
+ * times in a batch costs one write to its factors rather than one per example.
+ * <p/>
+ * If the model regularizes lazily, the shrinkage is instead applied to touched rows in closed form
+ * for all of the steps they missed, counting each example in a batch as one step.
+ * <p/>
+ * Examples are only applied to the model when a batch fills up or on {@link #close()}.
+ */
+public class MiniBatchLatentLogLinear implements OnlineLearner, DyadicLearner {
+  private final LatentLogLinear model;
+  private final int batchSize;
+  private final Random rand = RandomUtils.getRandom();
+
+  // pending examples as (leftId, rightId, actual) triples
+  private final int[] batch;
+  private int size;
+
+  private final Accumulator left;
+  private final Accumulator right;
+  private final double[] scratch;
+
+  // this contains [leftId, rightId] for actual = 0 and actual = 1 to allow
+  // for rank based learning.
+  private final int[] oldData = new int[6];
+
+  public MiniBatchLatentLogLinear(LatentLogLinear model, int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be positive");
+    }
+    this.model = model;
+    this.batchSize = batchSize;
+    batch = new int[3 * batchSize];
+
+    int factors = model.leftFactors().columnSize();
+    left = new Accumulator(model.leftModel(), batchSize);
+    right = new Accumulator(model.rightModel(), batchSize);
+    scratch = new double[factors];
+  }
+
+  @Override
+  public void train(int leftId, int rightId, int actual) {
+    model.initialize(leftId, rightId);
+    batch[3 * size] = leftId;
+    batch[3 * size + 1] = rightId;
+    batch[3 * size + 2] = actual;
+    size++;
+    if (size == batchSize) {
+      flush();
+    }
+  }
+
+  @Override
+  public void train(int actual, Vector instance) {
+    train(LatentLogLinear.rowId(instance), LatentLogLinear.columnId(instance), actual);
+  }
+
+  @Override
+  public void train(long trackingKey, String groupKey, int actual, Vector instance) {
+    train(actual, instance);
+  }
+
+  @Override
+  public void train(long trackingKey, int actual, Vector instance) {
+    train(actual, instance);
+  }
+
+  /**
+   * Applies any pending examples and closes the model.
+   */
+  @Override
+  public void close() {
+    flush();
+    model.close();
+  }
+
+  public LatentLogLinear getModel() {
+    return model;
+  }
+
+  /**
+   * Applies all pending examples to the model.
+   */
+  public void flush() {
+    FactorMatrix lw = model.leftFactors();
+    FactorMatrix rw = model.rightFactors();
+    int factors = lw.columnSize();
+    LatentLogLinear.LogLinearModel leftModel = model.leftModel();
+    LatentLogLinear.LogLinearModel rightModel = model.rightModel();
+
+    // gradients are computed as of the start of the batch
+    long start = model.getStep();
+    long end = start + size;
+
+    for (int i = 0; i < size; i++) {
+      int leftId = batch[3 * i];
+      int rightId = batch[3 * i + 1];
+      int actual = batch[3 * i + 2];
+
+      if (rand.nextDouble() > model.rankMixRate) {
+        leftModel.catchUp(leftId, start);
+        rightModel.catchUp(rightId, start);
+        double gradient = actual - LatentLogLinear.logistic(lw.dot(leftId, rw, rightId));
+        left.add(leftId, gradient, rw.values(rightId), rw.offset(rightId));
+        right.add(rightId, gradient, lw.values(leftId), lw.offset(leftId));
+      } else {
+        int oldLeft = oldData[(1 - actual) * 3];
+        int oldRight = oldData[(1 - actual) * 3 + 1];
+        model.initialize(oldLeft, oldRight);
+        leftModel.catchUp(leftId, start);
+        leftModel.catchUp(oldLeft, start);
+        rightModel.catchUp(rightId, start);
+        rightModel.catchUp(oldRight, start);
+
+        // train on new - old latent factors
+        difference(rw, rightId, oldRight, scratch);
+        left.add(leftId, actual - LatentLogLinear.logistic(dot(lw, leftId, scratch)), scratch, 0);
+        difference(lw, leftId, oldLeft, scratch);
+        right.add(rightId, actual - LatentLogLinear.logistic(dot(rw, rightId, scratch)), scratch, 0);
+      }
+
+      oldData[actual * 3] = leftId;
+      oldData[actual * 3 + 1] = rightId;
+    }
+    size = 0;
+    model.setStep(end);
+
+    double mu0 = model.getLearningRate();
+    double lambda = model.getLambda();
+    left.apply(mu0, lambda, factors, end);
+    right.apply(mu0, lambda, factors, end);
+  }
+
+  private static void difference(FactorMatrix m, int id, int otherId, double[] r) {
+    double[] a = m.values(id);
+    int i = m.offset(id);
+    double[] b = m.values(otherId);
+    int j = m.offset(otherId);
+    for (int k = 0; k < r.length; k++) {
+      r[k] = a[i + k] - b[j + k];
+    }
+  }
+
+  private static double dot(FactorMatrix m, int id, double[] x) {
+    double[] w = m.values(id);
+    int base = m.offset(id);
+    double sum = 0;
+    for (int k = 0; k < x.length; k++) {
+      sum += w[base + k] * x[k];
+    }
+    return sum;
+  }
+
+  /**
+   * Sums gradients for the rows of one side of the model that a batch touches.
+   */
+  private static final class Accumulator {
+    private final LatentLogLinear.LogLinearModel side;
+    private final FactorMatrix weights;
+    private final int factors;
+
+    // row to slot + 1 in sums so that a row that hasn't been touched in this batch reads as -1.
+    // Rows are removed after each batch and the map never shrinks, so it stays the size of a batch.
+    private final OpenIntIntHashMap slots;
+
+    // rows in the order they were first touched
+    private final int[] rows;
+    private final int[] counts;
+    private final double[] sums;
+    private int touched;
+
+    private Accumulator(LatentLogLinear.LogLinearModel side, int batchSize) {
+      this.side = side;
+      this.weights = side.getFactors();
+      factors = weights.columnSize();
+      rows = new int[batchSize];
+      counts = new int[batchSize];
+      sums = new double[batchSize * factors];
+      slots = new OpenIntIntHashMap(2 * batchSize, 0.0, 0.5);
+    }
+
+    private void add(int row, double gradient, double[] x, int xOffset) {
+      int slot = slots.get(row) - 1;
+      if (slot < 0) {
+        slot = touched++;
+        slots.put(row, slot + 1);
+        rows[slot] = row;
+        counts[slot] = 0;
+        Arrays.fill(sums, slot * factors, (slot + 1) * factors, 0);
+      }
+      counts[slot]++;
+      int base = slot * factors;
+      for (int k = 0; k < factors; k++) {
+        sums[base + k] += gradient * x[xOffset + k];
+      }
+    }
+
+    private void apply(double mu0, double lambda, int columns, long step) {
+      boolean lazy = side.isLazy();
+      for (int slot = 0; slot < touched; slot++) {
+        int row = rows[slot];
+        int count = weights.addToUpdateCount(row, counts[slot]);
+        double learningRate = mu0 / Math.sqrt(count);
+        double shrink = counts[slot] * lambda * learningRate;
+        if (lazy) {
+          side.catchUp(row, step);
+          shrink = 0;
+        }
+
+        double[] w = weights.values(row);
+        int base = weights.offset(row);
+        for (int k = 0; k < columns; k++) {
+          double newValue = LatentLogLinear.l1(w[base + k], shrink) + learningRate * sums[slot * factors + k];
+          if (Double.isNaN(newValue) || Double.isInfinite(newValue)) {
+            throw new ArithmeticException(String.format("Updating from %.3f to nastiness\n", w[base + k]));
+          }
+          w[base + k] = newValue;
+        }
+        slots.removeKey(row);
+      }
+      touched = 0;
+    }
+  }
+}
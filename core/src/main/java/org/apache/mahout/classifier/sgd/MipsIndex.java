@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.function.IntProcedure;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Approximate maximum inner product search over the rows of a {@link FactorMatrix}.
+ * <p/>
+ * Inner products are turned into distances using the transformation from Speeding Up the Xbox
+ * Recommender System Using a Euclidean Transformation for Inner-Product Spaces by Bachrach et al.
+ * Each row y gets an extra coordinate sqrt(M^2 - |y|^2) where M is the largest row norm so that all
+ * rows have the same length.  The transformed rows are clustered with a few rounds of k-means and
+ * each cluster keeps an inverted list holding copies of its rows.  A query scores the centroids,
+ * then scans the rows in the best few lists exactly.  Scanning more lists gives better recall at
+ * the cost of speed.
+ * <p/>
+ * The index is a snapshot.  Rows that change or are added after the index is built will not be
+ * seen until the index is rebuilt.  Searching is read-only and can be done from many threads.
+ */
+public class MipsIndex {
+  private final int columns;
+
+  // centroids of the transformed rows, columns + 1 values each
+  private final double[] centroids;
+  private final double[] centroidNorms;
+  private final int lists;
+
+  // for each list, the ids of its rows and a copy of their values
+  private final int[][] listIds;
+  private final double[][] listValues;
+
+  // the largest norm of any row
+  private final double maxNorm;
+
+  /**
+   * Builds an index over all initialized rows of a matrix.
+   *
+   * @param items       The rows to index.
+   * @param lists       How many inverted lists to use.  The square root of the number of rows is
+   *                    a good start.
+   * @param iterations  How many rounds of k-means to use when picking the lists.
+   */
+  public MipsIndex(FactorMatrix items, int lists, int iterations) {
+    columns = items.columnSize();
+    int width = columns + 1;
+
+    // gather the rows that exist
+    int rows = items.rowSize();
+    int n = 0;
+    for (int row = 0; row < rows; row++) {
+      if (items.isInitialized(row)) {
+        n++;
+      }
+    }
+    int[] ids = new int[n];
+    double[] transformed = new double[n * width];
+    double max = 0;
+    for (int row = 0, i = 0; row < rows; row++) {
+      if (items.isInitialized(row)) {
+        ids[i] = row;
+        double[] values = items.values(row);
+        int offset = items.offset(row);
+        System.arraycopy(values, offset, transformed, i * width, columns);
+        max = Math.max(max, norm2(transformed, i * width, columns));
+        i++;
+      }
+    }
+    maxNorm = Math.sqrt(max);
+    for (int i = 0; i < n; i++) {
+      transformed[i * width + columns] = Math.sqrt(Math.max(0, max - norm2(transformed, i * width, columns)));
+    }
+
+    this.lists = Math.max(1, Math.min(lists, n));
+    centroids = new double[this.lists * width];
+    centroidNorms = new double[this.lists];
+
+    // start from distinct random rows and refine on a sample
+    Random gen = RandomUtils.getRandom();
+    int[] order = new int[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    int sampleSize = Math.min(n, 64 * this.lists);
+    for (int i = 0; i < sampleSize; i++) {
+      int j = i + gen.nextInt(n - i);
+      int tmp = order[i];
+      order[i] = order[j];
+      order[j] = tmp;
+    }
+    for (int c = 0; c < this.lists && c < n; c++) {
+      System.arraycopy(transformed, order[c] * width, centroids, c * width, width);
+    }
+    updateNorms();
+
+    double[] sums = new double[this.lists * width];
+    int[] counts = new int[this.lists];
+    for (int iteration = 0; iteration < iterations; iteration++) {
+      Arrays.fill(sums, 0);
+      Arrays.fill(counts, 0);
+      for (int s = 0; s < sampleSize; s++) {
+        int i = order[s];
+        int c = nearest(transformed, i * width);
+        counts[c]++;
+        for (int k = 0; k < width; k++) {
+          sums[c * width + k] += transformed[i * width + k];
+        }
+      }
+      for (int c = 0; c < this.lists; c++) {
+        // empty clusters keep their old centroid
+        if (counts[c] > 0) {
+          for (int k = 0; k < width; k++) {
+            centroids[c * width + k] = sums[c * width + k] / counts[c];
+          }
+        }
+      }
+      updateNorms();
+    }
+
+    // final assignment of every row
+    int[] assignment = new int[n];
+    Arrays.fill(counts, 0);
+    for (int i = 0; i < n; i++) {
+      assignment[i] = nearest(transformed, i * width);
+      counts[assignment[i]]++;
+    }
+    listIds = new int[this.lists][];
+    listValues = new double[this.lists][];
+    for (int c = 0; c < this.lists; c++) {
+      listIds[c] = new int[counts[c]];
+      listValues[c] = new double[counts[c] * columns];
+      counts[c] = 0;
+    }
+    for (int i = 0; i < n; i++) {
+      int c = assignment[i];
+      int j = counts[c]++;
+      listIds[c][j] = ids[i];
+      System.arraycopy(transformed, i * width, listValues[c], j * columns, columns);
+    }
+  }
+
+  public int getLists() {
+    return lists;
+  }
+
+  /**
+   * Finds the rows with the largest inner product with a query.
+   *
+   * @param query   Storage holding the query.
+   * @param offset  Where the query starts.
+   * @param k       How many results to find.
+   * @param filter  Returns false for ids that should not be returned, may be null.
+   * @param probes  How many inverted lists to scan.
+   * @param ids     Where to put the ids of the results, best first.
+   * @param scores  Where to put the inner products of the results.
+   * @return The number of results found, at most k.
+   */
+  public int search(double[] query, int offset, int k, IntProcedure filter, int probes, int[] ids, double[] scores) {
+    int width = columns + 1;
+
+    // rank lists by distance from centroid to the query scaled onto the sphere the rows lie on
+    double queryNorm = Math.sqrt(norm2(query, offset, columns));
+    double scale = queryNorm > 0 ? maxNorm / queryNorm : 0;
+    ScoreHeap best = new ScoreHeap(Math.min(probes, lists));
+    for (int c = 0; c < lists; c++) {
+      double dot = 0;
+      for (int j = 0; j < columns; j++) {
+        dot += query[offset + j] * centroids[c * width + j];
+      }
+      best.offer(c, 2 * scale * dot - centroidNorms[c]);
+    }
+    int[] probeLists = new int[best.size()];
+    best.drain(probeLists, new double[probeLists.length]);
+
+    ScoreHeap results = new ScoreHeap(k);
+    for (int c : probeLists) {
+      int[] candidates = listIds[c];
+      double[] values = listValues[c];
+      for (int i = 0; i < candidates.length; i++) {
+        double dot = 0;
+        int base = i * columns;
+        for (int j = 0; j < columns; j++) {
+          dot += query[offset + j] * values[base + j];
+        }
+        if (dot > results.threshold() && (filter == null || filter.apply(candidates[i]))) {
+          results.offer(candidates[i], dot);
+        }
+      }
+    }
+    return results.drain(ids, scores);
+  }
+
+  private int nearest(double[] data, int offset) {
+    int width = columns + 1;
+    int best = 0;
+    double bestScore = Double.NEGATIVE_INFINITY;
+    for (int c = 0; c < lists; c++) {
+      double dot = 0;
+      for (int j = 0; j < width; j++) {
+        dot += data[offset + j] * centroids[c * width + j];
+      }
+      // same ordering as smallest Euclidean distance
+      double score = 2 * dot - centroidNorms[c];
+      if (score > bestScore) {
+        bestScore = score;
+        best = c;
+      }
+    }
+    return best;
+  }
+
+  private void updateNorms() {
+    for (int c = 0; c < lists; c++) {
+      centroidNorms[c] = norm2(centroids, c * (columns + 1), columns + 1);
+    }
+  }
+
+  private static double norm2(double[] data, int offset, int length) {
+    double sum = 0;
+    for (int j = 0; j < length; j++) {
+      sum += data[offset + j] * data[offset + j];
+    }
+    return sum;
+  }
+}
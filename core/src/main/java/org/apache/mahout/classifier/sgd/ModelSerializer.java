@@ -37,18 +37,31 @@ import org.apache.mahout.ep.State;
 import org.apache.mahout.math.DenseMatrix;
 import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.SparseRowMatrix;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.stats.OnlineAuc;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.lang.reflect.Type;
+import java.util.Iterator;
 import java.util.List;
 
 /**
- * Provides the ability to store SGD model-related objects as JSON.
+ * Provides the ability to store SGD model-related objects as JSON.  {@link LatentLogLinear} models
+ * can also be stored in a much more compact binary format.
  */
 public final class ModelSerializer {
 
@@ -65,6 +78,7 @@ public final class ModelSerializer {
     gb.registerTypeAdapter(CrossFoldLearner.class, new CrossFoldLearnerTypeAdapter());
     gb.registerTypeAdapter(Vector.class, new VectorTypeAdapter());
     gb.registerTypeAdapter(Matrix.class, new MatrixTypeAdapter());
+    gb.registerTypeAdapter(FactorMatrix.class, new FactorMatrixTypeAdapter());
     gb.registerTypeAdapter(EvolutionaryProcess.class, new EvolutionaryProcessTypeAdapter());
     gb.registerTypeAdapter(State.class, new StateTypeAdapter());
     GSON = new ThreadLocal<Gson>() {
@@ -103,6 +117,57 @@ public final class ModelSerializer {
     return gson().fromJson(in, clazz);
   }
 
+  /**
+   * Writes a {@link LatentLogLinear} model in a compact binary format.  All numbers are big-endian.
+   * The file starts with the magic number 0x4C4C4C4D, the format version, the number of factors, the
+   * rank mixing rate, the training step as a long and a byte that is 1 if the prior is applied
+   * lazily and 0 if not.  This is followed by the left and then the right side of the model, each as
+   * the learning rate, lambda, the number of rows, the update count of each row, the step at which
+   * each row was last regularized as a long and finally the factors of each row.  A count of -1
+   * marks a row that was never trained.  Version 1 files have no steps.  Files before version 3
+   * have no lazy flag and are read as lazy, which is the default.
+   * <p/>
+   * Since the factors are stored contiguously, a serving process can use
+   * {@link #mapBinary(File)} to memory map the file rather than reading it.
+   */
+  public static void writeBinary(String path, LatentLogLinear model) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+    try {
+      writeBinary(out, model);
+    } finally {
+      out.close();
+    }
+  }
+
+  public static void writeBinary(DataOutput out, LatentLogLinear model) throws IOException {
+    model.writeBinary(out);
+  }
+
+  /**
+   * Reads a model written by {@link #writeBinary(String, LatentLogLinear)}.  The result can be
+   * trained further.
+   */
+  public static LatentLogLinear readBinary(String path) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+    try {
+      return readBinary(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  public static LatentLogLinear readBinary(DataInput in) throws IOException {
+    return LatentLogLinear.readBinary(in);
+  }
+
+  /**
+   * Memory maps a model written by {@link #writeBinary(String, LatentLogLinear)} for read-only
+   * scoring.
+   */
+  public static MappedLatentLogLinear mapBinary(File file) throws IOException {
+    return MappedLatentLogLinear.open(file);
+  }
+
   private static class PolymorphicTypeAdapter<T> implements JsonDeserializer<T>, JsonSerializer<T> {
     @Override
     public T deserialize(JsonElement jsonElement,
@@ -143,7 +208,7 @@ public final class ModelSerializer {
       JsonArray models = x.get("models").getAsJsonArray();
       for (JsonElement model : models) {
         r.addModel(
-            jsonDeserializationContext.<OnlineLogisticRegression>deserialize(model, AdjustableOnlineLearner.class));
+            jsonDeserializationContext.<AdjustableOnlineLearner>deserialize(model, AdjustableOnlineLearner.class));
       }
 
       r.setParameters(asArray(x, "parameters"));
@@ -207,8 +272,9 @@ public final class ModelSerializer {
   }
 
   /**
-   * Tells GSON how to (de)serialize a Mahout matrix.  We assume on deserialization that the matrix
-   * is dense.
+   * Tells GSON how to (de)serialize a Mahout matrix.  A {@link SparseRowMatrix} is written as the
+   * indexes and values of the non-zero elements of each row and is read back the same way.  Any
+   * other matrix is assumed to be dense.
    */
   private static class MatrixTypeAdapter
     implements JsonDeserializer<Matrix>, JsonSerializer<Matrix>, InstanceCreator<Matrix> {
@@ -217,6 +283,20 @@ public final class ModelSerializer {
       JsonObject r = new JsonObject();
       r.add("rows", new JsonPrimitive(m.numRows()));
       r.add("cols", new JsonPrimitive(m.numCols()));
+      if (m instanceof SparseRowMatrix) {
+        JsonArray indexes = new JsonArray();
+        JsonArray values = new JsonArray();
+        for (int row = 0; row < m.numRows(); row++) {
+          JsonArray rowIndexes = new JsonArray();
+          JsonArray rowValues = new JsonArray();
+          addNonZeros(m.getRow(row), rowIndexes, rowValues);
+          indexes.add(rowIndexes);
+          values.add(rowValues);
+        }
+        r.add("indexes", indexes);
+        r.add("values", values);
+        return r;
+      }
       JsonArray v = new JsonArray();
       for (int row = 0; row < m.numRows(); row++) {
         JsonArray rowData = new JsonArray();
@@ -232,7 +312,18 @@ public final class ModelSerializer {
     @Override
     public Matrix deserialize(JsonElement x, Type type, JsonDeserializationContext jsonDeserializationContext) {
       JsonObject data = x.getAsJsonObject();
-      Matrix r = new DenseMatrix(data.get("rows").getAsInt(), data.get("cols").getAsInt());
+      int rows = data.get("rows").getAsInt();
+      int cols = data.get("cols").getAsInt();
+      if (data.has("indexes")) {
+        Matrix r = new SparseRowMatrix(new int[]{rows, cols});
+        JsonArray indexes = data.get("indexes").getAsJsonArray();
+        JsonArray values = data.get("values").getAsJsonArray();
+        for (int row = 0; row < rows; row++) {
+          setNonZeros(r.getRow(row), indexes.get(row).getAsJsonArray(), values.get(row).getAsJsonArray());
+        }
+        return r;
+      }
+      Matrix r = new DenseMatrix(rows, cols);
       int i = 0;
       for (JsonElement row : data.get("data").getAsJsonArray()) {
         int j = 0;
@@ -251,16 +342,84 @@ public final class ModelSerializer {
     }
   }
 
+  /**
+   * Tells GSON how to (de)serialize the factors of a {@link LatentLogLinear} model including the
+   * update count for each row.
+   */
+  private static class FactorMatrixTypeAdapter
+    implements JsonDeserializer<FactorMatrix>, JsonSerializer<FactorMatrix> {
+    @Override
+    public JsonElement serialize(FactorMatrix m, Type type, JsonSerializationContext jsonSerializationContext) {
+      JsonObject r = new JsonObject();
+      r.add("rows", new JsonPrimitive(m.numRows()));
+      r.add("cols", new JsonPrimitive(m.numCols()));
+      JsonArray counts = new JsonArray();
+      JsonArray steps = new JsonArray();
+      JsonArray v = new JsonArray();
+      for (int row = 0; row < m.numRows(); row++) {
+        JsonArray rowData = new JsonArray();
+        steps.add(new JsonPrimitive(m.lastStep(row)));
+        if (m.isInitialized(row)) {
+          counts.add(new JsonPrimitive(m.updateCount(row)));
+          double[] values = m.values(row);
+          int base = m.offset(row);
+          for (int col = 0; col < m.numCols(); col++) {
+            rowData.add(new JsonPrimitive(values[base + col]));
+          }
+        } else {
+          counts.add(new JsonPrimitive(-1));
+        }
+        v.add(rowData);
+      }
+      r.add("counts", counts);
+      r.add("steps", steps);
+      r.add("data", v);
+      return r;
+    }
+
+    @Override
+    public FactorMatrix deserialize(JsonElement x, Type type, JsonDeserializationContext jsonDeserializationContext) {
+      JsonObject data = x.getAsJsonObject();
+      FactorMatrix r = new FactorMatrix(data.get("cols").getAsInt());
+      JsonArray counts = data.get("counts").getAsJsonArray();
+      // older models don't have steps
+      JsonArray steps = data.has("steps") ? data.get("steps").getAsJsonArray() : null;
+      int i = 0;
+      for (JsonElement row : data.get("data").getAsJsonArray()) {
+        double[] values = r.values(i);
+        int j = r.offset(i);
+        for (JsonElement element : row.getAsJsonArray()) {
+          values[j++] = element.getAsDouble();
+        }
+        r.setUpdateCount(i, counts.get(i).getAsInt());
+        if (steps != null) {
+          r.setLastStep(i, steps.get(i).getAsLong());
+        }
+        i++;
+      }
+      return r;
+    }
+  }
 
   /**
-   * Tells GSON how to (de)serialize a Mahout matrix.  We assume on deserialization that the
-   * matrix is dense.
+   * Tells GSON how to (de)serialize a Mahout vector.  Sparse vectors are written as the indexes and
+   * values of their non-zero elements and are read back as a {@link RandomAccessSparseVector}.  Any
+   * other vector is assumed to be dense.
    */
   private static class VectorTypeAdapter
     implements JsonDeserializer<Vector>, JsonSerializer<Vector>, InstanceCreator<Vector> {
     @Override
     public JsonElement serialize(Vector m, Type type, JsonSerializationContext jsonSerializationContext) {
       JsonObject r = new JsonObject();
+      if (!m.isDense()) {
+        JsonArray indexes = new JsonArray();
+        JsonArray values = new JsonArray();
+        addNonZeros(m, indexes, values);
+        r.add("size", new JsonPrimitive(m.size()));
+        r.add("indexes", indexes);
+        r.add("values", values);
+        return r;
+      }
       JsonArray v = new JsonArray();
       for (int i = 0; i < m.size(); i++) {
         v.add(new JsonPrimitive(m.get(i)));
@@ -271,7 +430,13 @@ public final class ModelSerializer {
 
     @Override
     public Vector deserialize(JsonElement x, Type type, JsonDeserializationContext jsonDeserializationContext) {
-      JsonArray data = x.getAsJsonObject().get("data").getAsJsonArray();
+      JsonObject object = x.getAsJsonObject();
+      if (object.has("indexes")) {
+        Vector r = new RandomAccessSparseVector(object.get("size").getAsInt());
+        setNonZeros(r, object.get("indexes").getAsJsonArray(), object.get("values").getAsJsonArray());
+        return r;
+      }
+      JsonArray data = object.get("data").getAsJsonArray();
       Vector r = new DenseVector(data.size());
       int i = 0;
       for (JsonElement v : data) {
@@ -287,6 +452,21 @@ public final class ModelSerializer {
     }
   }
 
+  private static void addNonZeros(Vector v, JsonArray indexes, JsonArray values) {
+    Iterator<Vector.Element> i = v.iterateNonZero();
+    while (i.hasNext()) {
+      Vector.Element element = i.next();
+      indexes.add(new JsonPrimitive(element.index()));
+      values.add(new JsonPrimitive(element.get()));
+    }
+  }
+
+  private static void setNonZeros(Vector v, JsonArray indexes, JsonArray values) {
+    for (int i = 0; i < indexes.size(); i++) {
+      v.setQuick(indexes.get(i).getAsInt(), values.get(i).getAsDouble());
+    }
+  }
+
   private static class StateTypeAdapter implements JsonSerializer<State<AdaptiveLogisticRegression.Wrapper>>,
     JsonDeserializer<State<AdaptiveLogisticRegression.Wrapper>> {
     @Override
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+/**
+ * Latent factor model for dyads with several unordered outcomes.  Each item has a separate set of
+ * factors for every category but the first and the score of category c is the dot product of the
+ * left and right factors for c.  As with {@link OnlineLogisticRegression}, category 0 is the
+ * reference with a score of zero and the probabilities are the soft-max of the scores.
+ * <p/>
+ * All factor sets of an item are kept in one row so a dyad touches just two rows.
+ */
+public class MultinomialLatentLogLinear extends AbstractMultiClassLatentLogLinear {
+  // probabilities and a copy of the left row for training
+  private transient double[] probabilities;
+  private transient double[] oldLeft;
+
+  /**
+   * @param numCategories  How many outcomes there are.
+   * @param factors        How many latent factors each item has for each category.
+   */
+  public MultinomialLatentLogLinear(int numCategories, int factors) {
+    super(numCategories, factors, (numCategories - 1) * factors);
+  }
+
+  @Override
+  public void train(int leftId, int rightId, int actual) {
+    checkCategory(actual);
+    int width = left.columnSize();
+    if (probabilities == null) {
+      probabilities = new double[numCategories()];
+      oldLeft = new double[width];
+    }
+    extend(left, leftId);
+    extend(right, rightId);
+
+    double[] x = left.values(leftId);
+    int i = left.offset(leftId);
+    double[] y = right.values(rightId);
+    int j = right.offset(rightId);
+    probabilities(x, i, y, j, probabilities);
+    System.arraycopy(x, i, oldLeft, 0, width);
+
+    double leftRate = learningRate(left, leftId);
+    double rightRate = learningRate(right, rightId);
+    int factors = getFactors();
+    for (int c = 1; c < numCategories(); c++) {
+      double gradient = (actual == c ? 1 : 0) - probabilities[c];
+      int offset = (c - 1) * factors;
+      update(x, i + offset, y, j + offset, factors, leftRate * gradient, lambda * leftRate);
+      update(y, j + offset, oldLeft, offset, factors, rightRate * gradient, lambda * rightRate);
+    }
+  }
+
+  @Override
+  public void classifyFull(int leftId, int rightId, double[] r) {
+    if (!left.isInitialized(leftId) || !right.isInitialized(rightId)) {
+      for (int c = 0; c < numCategories(); c++) {
+        r[c] = Double.NaN;
+      }
+    } else {
+      probabilities(left.values(leftId), left.offset(leftId), right.values(rightId), right.offset(rightId), r);
+    }
+  }
+
+  private void probabilities(double[] x, int i, double[] y, int j, double[] r) {
+    int factors = getFactors();
+    int n = numCategories();
+    r[0] = 0;
+    double max = 0;
+    for (int c = 1; c < n; c++) {
+      int offset = (c - 1) * factors;
+      r[c] = dot(x, i + offset, y, j + offset, factors);
+      max = Math.max(max, r[c]);
+    }
+    // subtract the largest score to keep exp from overflowing
+    double sum = 0;
+    for (int c = 0; c < n; c++) {
+      r[c] = Math.exp(r[c] - max);
+      sum += r[c];
+    }
+    for (int c = 0; c < n; c++) {
+      r[c] /= sum;
+    }
+  }
+}
@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Picks the right items that a {@link LatentLogLinear} model ranks each training dyad against.
+ * <p/>
+ * For every left id this keeps the last few right ids seen with each label.  A dyad is paired with
+ * right ids that the same left id saw with the opposite label, so each pairwise update compares two
+ * items from the point of view of one user rather than two unrelated dyads.  Positive dyads can
+ * also be paired with right ids drawn in proportion to a power of their popularity among positives,
+ * which is the usual way to find negatives when only positives are observed.  Popular items are
+ * drawn using an alias table so each draw takes constant time.  The table is rebuilt from the
+ * popularity counts every so often, more often at first while the counts are changing quickly.
+ * <p/>
+ * Sampling never allocates.  Like the factor rows, the recent ids and the popularity counts are
+ * updated without locking so that several threads can train with one sampler.  A lost update just
+ * means a slightly different sample.
+ */
+public class NegativeSampler {
+  // left ids per chunk of recent ids
+  private static final int CHUNK_ROWS = 1024;
+  private static final int FIRST_REBUILD = 1000;
+
+  private final int recent;
+  private final int width;
+  private int pairs = 3;
+  private double popularityMix = 0.5;
+  private double popularityPower = 0.75;
+  private int rebuildInterval = 100000;
+
+  // for each left id, a count and a ring of recent right ids for label 0 and then the same for 1
+  private volatile int[][] chunks = new int[0][];
+
+  // how many times each right id has been seen with label 1
+  private volatile int[] popularity = new int[0];
+  private long positives;
+  private long nextRebuild = FIRST_REBUILD;
+  private volatile AliasTable table;
+
+  /**
+   * @param recent  How many recent right ids to remember for each left id and label.
+   */
+  public NegativeSampler(int recent) {
+    Preconditions.checkArgument(recent > 0, "Must remember at least one id");
+    this.recent = recent;
+    this.width = 2 * (recent + 1);
+  }
+
+  /**
+   * Sets how many pairwise updates are made for each dyad.
+   */
+  public NegativeSampler pairs(int pairs) {
+    Preconditions.checkArgument(pairs > 0, "Must make at least one pair");
+    this.pairs = pairs;
+    return this;
+  }
+
+  /**
+   * Sets the fraction of the partners of positive dyads that are drawn by popularity rather than
+   * from the left id's recent negatives.
+   */
+  public NegativeSampler popularityMix(double popularityMix) {
+    this.popularityMix = popularityMix;
+    return this;
+  }
+
+  /**
+   * Sets the power of the popularity counts that popular items are drawn in proportion to.  Values
+   * below 1 draw less popular items more often than their share.
+   */
+  public NegativeSampler popularityPower(double popularityPower) {
+    this.popularityPower = popularityPower;
+    return this;
+  }
+
+  /**
+   * Sets how many positives may be seen between rebuilds of the alias table once it is warmed up.
+   */
+  public NegativeSampler rebuildInterval(int rebuildInterval) {
+    Preconditions.checkArgument(rebuildInterval > 0, "Interval must be positive");
+    this.rebuildInterval = rebuildInterval;
+    return this;
+  }
+
+  public int getPairs() {
+    return pairs;
+  }
+
+  /**
+   * Picks a right id to rank a dyad against.  The result is a right id that was seen with the
+   * opposite label, or that is popular if the dyad is positive.
+   *
+   * @return The right id or -1 if there is nothing suitable yet.
+   */
+  public int sample(int leftId, int rightId, int actual, Random rand) {
+    AliasTable t = table;
+    if (actual == 1 && t != null && rand.nextDouble() < popularityMix) {
+      int r = t.sample(rand);
+      return r == rightId ? -1 : r;
+    }
+
+    int[][] c = chunks;
+    int chunk = leftId / CHUNK_ROWS;
+    if (chunk >= c.length || c[chunk] == null) {
+      return -1;
+    }
+    int[] data = c[chunk];
+    int base = (leftId % CHUNK_ROWS) * width + (1 - actual) * (recent + 1);
+    int n = Math.min(data[base], recent);
+    return n == 0 ? -1 : data[base + 1 + rand.nextInt(n)];
+  }
+
+  /**
+   * Remembers a dyad.  This should be called after the dyad has been trained so that it isn't
+   * paired with itself.
+   */
+  public void observe(int leftId, int rightId, int actual) {
+    int[] data = chunk(leftId);
+    int base = (leftId % CHUNK_ROWS) * width + actual * (recent + 1);
+    int count = data[base];
+    data[base + 1 + count % recent] = rightId;
+    // wrap before overflow while keeping the position in the ring
+    data[base] = count + 1 < Integer.MAX_VALUE ? count + 1 : recent + (count + 1) % recent;
+
+    if (actual == 1) {
+      int[] p = popularity;
+      if (rightId >= p.length) {
+        p = extendPopularity(rightId);
+      }
+      p[rightId]++;
+      if (++positives >= nextRebuild) {
+        rebuild();
+      }
+    }
+  }
+
+  private int[] chunk(int leftId) {
+    int chunk = leftId / CHUNK_ROWS;
+    int[][] c = chunks;
+    if (chunk >= c.length || c[chunk] == null) {
+      c = extendChunks(chunk);
+    }
+    return c[chunk];
+  }
+
+  private synchronized int[][] extendChunks(int chunk) {
+    int[][] c = chunks;
+    if (chunk >= c.length) {
+      c = Arrays.copyOf(c, Math.max(chunk + 1, 2 * c.length));
+    }
+    if (c[chunk] == null) {
+      c[chunk] = new int[CHUNK_ROWS * width];
+    }
+    chunks = c;
+    return c;
+  }
+
+  private synchronized int[] extendPopularity(int rightId) {
+    int[] p = popularity;
+    if (rightId >= p.length) {
+      p = Arrays.copyOf(p, Math.max(rightId + 1, 2 * p.length));
+      popularity = p;
+    }
+    return p;
+  }
+
+  private synchronized void rebuild() {
+    if (positives < nextRebuild) {
+      // somebody else just did it
+      return;
+    }
+    nextRebuild = positives + Math.min(Math.max(positives, FIRST_REBUILD), rebuildInterval);
+    int[] p = popularity;
+    double[] weights = new double[p.length];
+    for (int i = 0; i < p.length; i++) {
+      weights[i] = Math.pow(p[i], popularityPower);
+    }
+    table = new AliasTable(weights);
+  }
+
+  /**
+   * Draws integers in proportion to fixed weights in constant time using Vose's version of Walker's
+   * alias method.
+   */
+  static final class AliasTable {
+    private final double[] probability;
+    private final int[] alias;
+
+    AliasTable(double[] weights) {
+      int n = weights.length;
+      probability = new double[n];
+      alias = new int[n];
+
+      double total = 0;
+      for (double w : weights) {
+        total += w;
+      }
+      Preconditions.checkArgument(total > 0, "Need at least one positive weight");
+
+      // scaled weights average 1, those below go on the small stack and the rest on the large one
+      double[] scaled = new double[n];
+      int[] small = new int[n];
+      int[] large = new int[n];
+      int smallCount = 0;
+      int largeCount = 0;
+      for (int i = 0; i < n; i++) {
+        scaled[i] = weights[i] * n / total;
+        if (scaled[i] < 1) {
+          small[smallCount++] = i;
+        } else {
+          large[largeCount++] = i;
+        }
+      }
+      while (smallCount > 0 && largeCount > 0) {
+        int s = small[--smallCount];
+        int l = large[--largeCount];
+        probability[s] = scaled[s];
+        alias[s] = l;
+        scaled[l] += scaled[s] - 1;
+        if (scaled[l] < 1) {
+          small[smallCount++] = l;
+        } else {
+          large[largeCount++] = l;
+        }
+      }
+      // anything left over is full up to rounding error
+      while (largeCount > 0) {
+        probability[large[--largeCount]] = 1;
+      }
+      while (smallCount > 0) {
+        probability[small[--smallCount]] = 1;
+      }
+    }
+
+    int sample(Random rand) {
+      int i = rand.nextInt(probability.length);
+      return rand.nextDouble() < probability[i] ? i : alias[i];
+    }
+
+    int size() {
+      return probability.length;
+    }
+  }
+}
@@ -18,8 +18,6 @@
 package org.apache.mahout.classifier.sgd;
 
 import com.google.common.base.Preconditions;
-import org.apache.mahout.math.DenseMatrix;
-import org.apache.mahout.math.DenseVector;
 
 /**
  * Extends the basic on-line logistic regression learner with a specific set of learning
@@ -39,17 +37,17 @@ public class OnlineLogisticRegression extends AbstractOnlineLogisticRegression i
   // controls how per term annealing works
   private int perTermAnnealingOffset = 20;
 
-  private OnlineLogisticRegression() {
-    // private constructor available for Gson, but not normal use
+  protected OnlineLogisticRegression() {
+    // constructor available for Gson and subclasses, but not normal use
   }
 
   public OnlineLogisticRegression(int numCategories, int numFeatures, PriorFunction prior) {
     this.numCategories = numCategories;
     this.prior = prior;
 
-    updateSteps = new DenseVector(numFeatures);
-    updateCounts = new DenseVector(numFeatures).assign(perTermAnnealingOffset);
-    beta = new DenseMatrix(numCategories - 1, numFeatures);
+    updateSteps = new CopyOnWriteVector(numFeatures);
+    updateCounts = new CopyOnWriteVector(numFeatures).assign(perTermAnnealingOffset);
+    beta = new CopyOnWriteMatrix(numCategories - 1, numFeatures);
   }
 
   /**
@@ -101,6 +99,10 @@ public class OnlineLogisticRegression extends AbstractOnlineLogisticRegression i
     return Math.sqrt(perTermAnnealingOffset / updateCounts.get(j));
   }
 
+  int getPerTermAnnealingOffset() {
+    return perTermAnnealingOffset;
+  }
+
   @Override
   public double currentLearningRate() {
     return mu0 * Math.pow(decayFactor, getStep()) * Math.pow(getStep() + stepOffset, forgettingExponent);
@@ -109,6 +111,10 @@ public class OnlineLogisticRegression extends AbstractOnlineLogisticRegression i
   public void copyFrom(AdjustableOnlineLearner otherLearner) {
     Preconditions.checkArgument(otherLearner instanceof OnlineLogisticRegression);
     OnlineLogisticRegression other = (OnlineLogisticRegression) otherLearner;
+    // sparse models don't include the annealing offset in their update counts
+    Preconditions.checkArgument(
+        other instanceof SparseOnlineLogisticRegression == this instanceof SparseOnlineLogisticRegression,
+        "Can't copy between sparse and dense models");
 
     super.copyFrom(other);
     mu0 = other.mu0;
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+/**
+ * Latent factor model for dyads with ordered outcomes such as star ratings.  Each item has a single
+ * set of factors and the dot product s of the left and right factors places the dyad on a line.  The
+ * line is cut into categories by learned cut points t_1 <= ... <= t_(K-1) using the ordinal logit
+ * model P(y <= c) = logistic(t_(c+1) - s).
+ * <p/>
+ * Compared to {@link MultinomialLatentLogLinear}, this needs one set of factors instead of K - 1
+ * and uses the ordering of the categories, but it can't express dyads that are likely to be at both
+ * ends of the scale.
+ */
+public class OrdinalLatentLogLinear extends AbstractMultiClassLatentLogLinear {
+  // the difference of two adjacent cumulative probabilities is kept at least this large
+  private static final double MIN_PROBABILITY = 1.0e-10;
+
+  // cut point c separates category c from category c + 1
+  private final double[] cuts;
+  private final int[] cutCounts;
+
+  // copy of the left row for training
+  private transient double[] oldLeft;
+
+  /**
+   * @param numCategories  How many outcomes there are.
+   * @param factors        How many latent factors each item has.
+   */
+  public OrdinalLatentLogLinear(int numCategories, int factors) {
+    super(numCategories, factors, factors);
+    cuts = new double[numCategories - 1];
+    cutCounts = new int[numCategories - 1];
+    // start with evenly spaced cut points centered on zero
+    for (int c = 0; c < cuts.length; c++) {
+      cuts[c] = c - (cuts.length - 1) / 2.0;
+    }
+  }
+
+  /**
+   * Returns a copy of the cut points.
+   */
+  public double[] getCuts() {
+    return cuts.clone();
+  }
+
+  @Override
+  public void train(int leftId, int rightId, int actual) {
+    checkCategory(actual);
+    int factors = getFactors();
+    if (oldLeft == null) {
+      oldLeft = new double[factors];
+    }
+    extend(left, leftId);
+    extend(right, rightId);
+
+    double[] x = left.values(leftId);
+    int i = left.offset(leftId);
+    double[] y = right.values(rightId);
+    int j = right.offset(rightId);
+    double s = dot(x, i, y, j, factors);
+
+    // P(y = actual) = upper - lower
+    double upper = actual < cuts.length ? LatentLogLinear.logistic(cuts[actual] - s) : 1;
+    double lower = actual > 0 ? LatentLogLinear.logistic(cuts[actual - 1] - s) : 0;
+    double p = Math.max(upper - lower, MIN_PROBABILITY);
+
+    // derivatives of log P(y = actual) with respect to the score and the two cut points
+    double gradient = upper + lower - 1;
+    if (actual < cuts.length) {
+      updateCut(actual, upper * (1 - upper) / p);
+    }
+    if (actual > 0) {
+      updateCut(actual - 1, -lower * (1 - lower) / p);
+    }
+
+    System.arraycopy(x, i, oldLeft, 0, factors);
+    double leftRate = learningRate(left, leftId);
+    double rightRate = learningRate(right, rightId);
+    update(x, i, y, j, factors, leftRate * gradient, lambda * leftRate);
+    update(y, j, oldLeft, 0, factors, rightRate * gradient, lambda * rightRate);
+  }
+
+  private void updateCut(int c, double gradient) {
+    cuts[c] += mu0 / Math.sqrt(++cutCounts[c]) * gradient;
+    // keep the cut points in order
+    for (int k = c + 1; k < cuts.length && cuts[k] < cuts[k - 1]; k++) {
+      cuts[k] = cuts[k - 1];
+    }
+    for (int k = c - 1; k >= 0 && cuts[k] > cuts[k + 1]; k--) {
+      cuts[k] = cuts[k + 1];
+    }
+  }
+
+  @Override
+  public void classifyFull(int leftId, int rightId, double[] r) {
+    int n = numCategories();
+    if (!left.isInitialized(leftId) || !right.isInitialized(rightId)) {
+      for (int c = 0; c < n; c++) {
+        r[c] = Double.NaN;
+      }
+      return;
+    }
+    double s = dot(left.values(leftId), left.offset(leftId), right.values(rightId), right.offset(rightId), getFactors());
+    double lower = 0;
+    for (int c = 0; c < n - 1; c++) {
+      double upper = LatentLogLinear.logistic(cuts[c] - s);
+      r[c] = upper - lower;
+      lower = upper;
+    }
+    r[n - 1] = 1 - lower;
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+/**
+ * Keeps the k highest scoring ids seen so far using a min-heap on primitive arrays.  The lowest
+ * score kept is at the root so most candidates are rejected with a single comparison.
+ */
+final class ScoreHeap {
+  private final int[] ids;
+  private final double[] scores;
+  private int size;
+
+  ScoreHeap(int k) {
+    ids = new int[k];
+    scores = new double[k];
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns the score that a candidate has to beat to get into a full heap.
+   */
+  double threshold() {
+    return size < scores.length ? Double.NEGATIVE_INFINITY : scores[0];
+  }
+
+  void offer(int id, double score) {
+    if (size < scores.length) {
+      // sift up
+      int i = size++;
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (scores[parent] <= score) {
+          break;
+        }
+        ids[i] = ids[parent];
+        scores[i] = scores[parent];
+        i = parent;
+      }
+      ids[i] = id;
+      scores[i] = score;
+    } else if (size > 0 && score > scores[0]) {
+      siftDown(id, score);
+    }
+  }
+
+  private void siftDown(int id, double score) {
+    int i = 0;
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && scores[child + 1] < scores[child]) {
+        child++;
+      }
+      if (score <= scores[child]) {
+        break;
+      }
+      ids[i] = ids[child];
+      scores[i] = scores[child];
+      i = child;
+    }
+    ids[i] = id;
+    scores[i] = score;
+  }
+
+  /**
+   * Empties the heap into the given arrays with the best score first.
+   *
+   * @return The number of ids copied.
+   */
+  int drain(int[] resultIds, double[] resultScores) {
+    int n = size;
+    for (int i = n - 1; i >= 0; i--) {
+      resultIds[i] = ids[0];
+      resultScores[i] = scores[0];
+      size--;
+      if (size > 0) {
+        siftDown(ids[size], scores[size]);
+      }
+    }
+    return n;
+  }
+}
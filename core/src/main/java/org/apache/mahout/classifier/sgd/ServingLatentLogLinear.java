@@ -0,0 +1,366 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+
+/**
+ * Read-only copy of a {@link LatentLogLinear} model that stores factors with less precision.
+ * Scoring is limited by memory bandwidth so smaller factors score faster as well as taking less
+ * memory.
+ * <p/>
+ * Two forms are available.  {@link #floats(LatentLogLinear)} keeps 32 bit floats.
+ * {@link #bytes(LatentLogLinear)} keeps one signed byte per factor plus a scale for each row.
+ * Either can be made from a model that is still being trained since rows are copied one at a time
+ * without locking.  Any regularization the rows are owed is applied to the copies.  Use
+ * {@link #drift} to see how much accuracy the reduced precision costs.
+ */
+public abstract class ServingLatentLogLinear {
+  // some virtual machines can't allocate arrays quite as long as Integer.MAX_VALUE
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+  private final int factors;
+  private final BitSet leftRows;
+  private final BitSet rightRows;
+
+  ServingLatentLogLinear(int factors, BitSet leftRows, BitSet rightRows) {
+    this.factors = factors;
+    this.leftRows = leftRows;
+    this.rightRows = rightRows;
+  }
+
+  /**
+   * Makes a snapshot that keeps factors as floats.
+   */
+  public static ServingLatentLogLinear floats(LatentLogLinear model) {
+    LatentLogLinear.LogLinearModel left = model.leftModel();
+    LatentLogLinear.LogLinearModel right = model.rightModel();
+    // training may still be adding rows, so the number of rows is read once for each side
+    return new FloatFactors(left, left.getFactors().rowSize(), right, right.getFactors().rowSize(), model.getStep());
+  }
+
+  /**
+   * Makes a snapshot that keeps each factor as a byte scaled by the largest magnitude in its row.
+   */
+  public static ServingLatentLogLinear bytes(LatentLogLinear model) {
+    LatentLogLinear.LogLinearModel left = model.leftModel();
+    LatentLogLinear.LogLinearModel right = model.rightModel();
+    return new ByteFactors(left, left.getFactors().rowSize(), right, right.getFactors().rowSize(), model.getStep());
+  }
+
+  public int getFactors() {
+    return factors;
+  }
+
+  /**
+   * Returns the probability of a dyad, or NaN if either item was not trained when the snapshot was
+   * made.
+   */
+  public double classifyScalar(int leftId, int rightId) {
+    if (leftId < 0 || rightId < 0 || !leftRows.get(leftId) || !rightRows.get(rightId)) {
+      return Double.NaN;
+    }
+    return 1 / (1 + Math.exp(-dot(leftId, rightId)));
+  }
+
+  /**
+   * Scores many dyads at once.
+   *
+   * @see LatentLogLinear#classifyScalar(int[], int[], double[])
+   */
+  public void classifyScalar(int[] leftIds, int[] rightIds, double[] out) {
+    if (rightIds.length != leftIds.length || out.length < leftIds.length) {
+      throw new IllegalArgumentException("Ids and output must have matching lengths");
+    }
+    for (int i = 0; i < leftIds.length; i++) {
+      out[i] = classifyScalar(leftIds[i], rightIds[i]);
+    }
+  }
+
+  /**
+   * Compares this snapshot to a full precision model on some labeled dyads.  Dyads that either
+   * model can't score are skipped.
+   *
+   * @param model     The full precision model, usually the one the snapshot was made from.
+   * @param leftIds   Left ids of the dyads.
+   * @param rightIds  Right ids of the dyads.
+   * @param actual    The labels, 0 or 1.
+   */
+  public Drift drift(LatentLogLinear model, int[] leftIds, int[] rightIds, int[] actual) {
+    int n = leftIds.length;
+    double[] reference = new double[n];
+    model.classifyScalar(leftIds, rightIds, reference);
+    double[] approximate = new double[n];
+    classifyScalar(leftIds, rightIds, approximate);
+
+    // keep only dyads both can score
+    int m = 0;
+    int[] labels = new int[n];
+    double maxDifference = 0;
+    for (int i = 0; i < n; i++) {
+      if (!Double.isNaN(reference[i]) && !Double.isNaN(approximate[i])) {
+        reference[m] = reference[i];
+        approximate[m] = approximate[i];
+        labels[m] = actual[i];
+        maxDifference = Math.max(maxDifference, Math.abs(reference[i] - approximate[i]));
+        m++;
+      }
+    }
+    return new Drift(m, auc(reference, labels, m), auc(approximate, labels, m),
+        logLikelihood(reference, labels, m), logLikelihood(approximate, labels, m), maxDifference);
+  }
+
+  /**
+   * Computes the exact AUC of some scores using the rank-sum statistic.  Ties get average ranks.
+   */
+  static double auc(double[] scores, int[] labels, int n) {
+    Integer[] index = new Integer[n];
+    for (int i = 0; i < n; i++) {
+      index[i] = i;
+    }
+    final double[] s = scores;
+    Arrays.sort(index, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Double.compare(s[a], s[b]);
+      }
+    });
+
+    double rankSum = 0;
+    long positives = 0;
+    int i = 0;
+    while (i < n) {
+      int j = i;
+      while (j + 1 < n && scores[index[j + 1]] == scores[index[i]]) {
+        j++;
+      }
+      double rank = (i + j) / 2.0 + 1;
+      for (int k = i; k <= j; k++) {
+        if (labels[index[k]] == 1) {
+          rankSum += rank;
+          positives++;
+        }
+      }
+      i = j + 1;
+    }
+    long negatives = n - positives;
+    if (positives == 0 || negatives == 0) {
+      return Double.NaN;
+    }
+    return (rankSum - positives * (positives + 1) / 2.0) / (positives * negatives);
+  }
+
+  private static double logLikelihood(double[] p, int[] labels, int n) {
+    double sum = 0;
+    for (int i = 0; i < n; i++) {
+      sum += labels[i] == 1 ? Math.log(p[i]) : Math.log(1 - p[i]);
+    }
+    return n > 0 ? sum / n : Double.NaN;
+  }
+
+  abstract double dot(int leftId, int rightId);
+
+  /**
+   * Returns the length of an array that holds the given number of rows of factors.
+   *
+   * @throws IllegalArgumentException If that is more than an array can hold.
+   */
+  static int arraySize(int rows, int columns) {
+    long size = (long) rows * columns;
+    if (size > MAX_ARRAY_SIZE) {
+      throw new IllegalArgumentException(
+          String.format("Can't copy %d rows of %d factors into one array", rows, columns));
+    }
+    return (int) size;
+  }
+
+  /**
+   * Returns where a row starts in an array made with {@link #arraySize(int, int)}.  This can't
+   * overflow for rows that were copied since the array size was checked.
+   */
+  static int offset(int row, int columns) {
+    return (int) ((long) row * columns);
+  }
+
+  private static BitSet rows(FactorMatrix m, int rows) {
+    BitSet r = new BitSet();
+    for (int row = 0; row < rows; row++) {
+      if (m.isInitialized(row)) {
+        r.set(row);
+      }
+    }
+    return r;
+  }
+
+  /**
+   * How a reduced precision snapshot compares with the full model.
+   */
+  public static final class Drift {
+    private final int count;
+    private final double referenceAuc;
+    private final double auc;
+    private final double referenceLogLikelihood;
+    private final double logLikelihood;
+    private final double maxDifference;
+
+    private Drift(int count, double referenceAuc, double auc, double referenceLogLikelihood, double logLikelihood,
+                  double maxDifference) {
+      this.count = count;
+      this.referenceAuc = referenceAuc;
+      this.auc = auc;
+      this.referenceLogLikelihood = referenceLogLikelihood;
+      this.logLikelihood = logLikelihood;
+      this.maxDifference = maxDifference;
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    public double getReferenceAuc() {
+      return referenceAuc;
+    }
+
+    public double getAuc() {
+      return auc;
+    }
+
+    public double getReferenceLogLikelihood() {
+      return referenceLogLikelihood;
+    }
+
+    /**
+     * Returns the mean log-likelihood of the labels using the snapshot.
+     */
+    public double getLogLikelihood() {
+      return logLikelihood;
+    }
+
+    /**
+     * Returns the largest difference in probability between the snapshot and the full model.
+     */
+    public double getMaxDifference() {
+      return maxDifference;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("n = %d, AUC %.4f -> %.4f, log-likelihood %.4f -> %.4f, max difference %.2g",
+          count, referenceAuc, auc, referenceLogLikelihood, logLikelihood, maxDifference);
+    }
+  }
+
+  private static final class FloatFactors extends ServingLatentLogLinear {
+    private final float[] left;
+    private final float[] right;
+
+    private FloatFactors(LatentLogLinear.LogLinearModel left, int leftRows,
+                         LatentLogLinear.LogLinearModel right, int rightRows, long step) {
+      super(left.getFactors().columnSize(), rows(left.getFactors(), leftRows), rows(right.getFactors(), rightRows));
+      this.left = copy(left, leftRows, step);
+      this.right = copy(right, rightRows, step);
+    }
+
+    private static float[] copy(LatentLogLinear.LogLinearModel side, int rows, long step) {
+      FactorMatrix m = side.getFactors();
+      int columns = m.columnSize();
+      double[] values = new double[columns];
+      float[] r = new float[arraySize(rows, columns)];
+      for (int row = 0; row < rows; row++) {
+        if (m.isInitialized(row)) {
+          side.copy(row, step, values, 0);
+          int base = offset(row, columns);
+          for (int k = 0; k < columns; k++) {
+            r[base + k] = (float) values[k];
+          }
+        }
+      }
+      return r;
+    }
+
+    @Override
+    double dot(int leftId, int rightId) {
+      int factors = getFactors();
+      int i = offset(leftId, factors);
+      int j = offset(rightId, factors);
+      // only the factors are rounded, long rows shouldn't add rounding of their own
+      double sum = 0;
+      for (int k = 0; k < factors; k++) {
+        sum += (double) left[i + k] * right[j + k];
+      }
+      return sum;
+    }
+  }
+
+  private static final class ByteFactors extends ServingLatentLogLinear {
+    private final byte[] left;
+    private final byte[] right;
+
+    // each row is stored as round(x / scale) where scale = max |x| / 127
+    private final float[] leftScale;
+    private final float[] rightScale;
+
+    private ByteFactors(LatentLogLinear.LogLinearModel left, int leftRows,
+                        LatentLogLinear.LogLinearModel right, int rightRows, long step) {
+      super(left.getFactors().columnSize(), rows(left.getFactors(), leftRows), rows(right.getFactors(), rightRows));
+      int columns = getFactors();
+      this.left = new byte[arraySize(leftRows, columns)];
+      this.leftScale = new float[leftRows];
+      copy(left, step, this.left, leftScale);
+      this.right = new byte[arraySize(rightRows, columns)];
+      this.rightScale = new float[rightRows];
+      copy(right, step, this.right, rightScale);
+    }
+
+    private static void copy(LatentLogLinear.LogLinearModel side, long step, byte[] r, float[] scales) {
+      FactorMatrix m = side.getFactors();
+      int columns = m.columnSize();
+      double[] row = new double[columns];
+      for (int i = 0; i < scales.length; i++) {
+        if (m.isInitialized(i)) {
+          // copy first since training may change the row while we look at it
+          side.copy(i, step, row, 0);
+          double max = 0;
+          for (double v : row) {
+            max = Math.max(max, Math.abs(v));
+          }
+          double scale = max / 127;
+          scales[i] = (float) scale;
+          int base = offset(i, columns);
+          for (int k = 0; k < columns; k++) {
+            r[base + k] = scale > 0 ? (byte) Math.round(row[k] / scale) : 0;
+          }
+        }
+      }
+    }
+
+    @Override
+    double dot(int leftId, int rightId) {
+      int factors = getFactors();
+      int i = offset(leftId, factors);
+      int j = offset(rightId, factors);
+      int sum = 0;
+      for (int k = 0; k < factors; k++) {
+        sum += left[i + k] * right[j + k];
+      }
+      return sum * (double) leftScale[leftId] * rightScale[rightId];
+    }
+  }
+}
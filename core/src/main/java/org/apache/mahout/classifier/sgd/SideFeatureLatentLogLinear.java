@@ -0,0 +1,279 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.function.Functions;
+import org.apache.mahout.math.function.UnaryFunction;
+
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Latent factor log-linear model for dyads that also learns from side information about the left
+ * item, the right item and the dyad itself, as in the full model of Dyadic Prediction Using a Latent
+ * Feature Log-Linear Model by Menon and Elkan.
+ * <p/>
+ * Side information is given as sparse feature vectors, normally filled in by the encoders in
+ * {@link org.apache.mahout.vectorizer.encoders}.  Each hashed left feature j has a row of latent
+ * factors a_j and each hashed right feature has a row b_j.  The effective factors of a left item with
+ * id l and features x are u_l + sum_j x_j a_j and those of a right item are built the same way.  The
+ * score of a dyad is the dot product of the effective factors plus a linear term w . z in the dyad
+ * features z.  All of these are learned together by SGD.
+ * <p/>
+ * Only the rows of ids and features that are present in an example are read or updated so the cost
+ * of an example grows with the number of non-zero features rather than with the size of the hashed
+ * feature space.  Each row has its own learning rate that decays with its update count and L1
+ * shrinkage is applied to rows as they are updated.
+ * <p/>
+ * Ids that were never trained, or are negative, contribute nothing to a score.  An item that has never
+ * been seen is therefore scored by its features alone, which is how cold starts are handled.  Use a
+ * {@link org.apache.mahout.vectorizer.encoders.ConstantValueEncoder} in the dyad features if a bias
+ * term is wanted.
+ * <p/>
+ * Training is single threaded.  Scoring does not change the model.
+ */
+public class SideFeatureLatentLogLinear {
+  // feature rows start small so that features which don't help add little noise
+  private static final double FEATURE_SCALE = 0.1;
+
+  private final int factors;
+
+  // latent factors for ids and for hashed features
+  private final FactorMatrix leftIds;
+  private final FactorMatrix rightIds;
+  private final FactorMatrix leftFeatures;
+  private final FactorMatrix rightFeatures;
+
+  // weights of the hashed dyad features, one column
+  private final FactorMatrix dyadFeatures;
+
+  private double mu0 = 1;
+  private double lambda = 1.0e-5;
+
+  // initializes new rows, these are recreated after deserialization
+  private transient UnaryFunction gaussian;
+  private transient UnaryFunction smallGaussian;
+
+  // effective factors of the current example
+  private transient double[] leftFactors;
+  private transient double[] rightFactors;
+
+  public SideFeatureLatentLogLinear(int factors) {
+    this.factors = factors;
+    leftIds = new FactorMatrix(factors);
+    rightIds = new FactorMatrix(factors);
+    leftFeatures = new FactorMatrix(factors);
+    rightFeatures = new FactorMatrix(factors);
+    dyadFeatures = new FactorMatrix(1);
+  }
+
+  public SideFeatureLatentLogLinear learningRate(double mu0) {
+    this.mu0 = mu0;
+    return this;
+  }
+
+  public SideFeatureLatentLogLinear lambda(double lambda) {
+    this.lambda = lambda;
+    return this;
+  }
+
+  public double getLearningRate() {
+    return mu0;
+  }
+
+  public double getLambda() {
+    return lambda;
+  }
+
+  public int getFactors() {
+    return factors;
+  }
+
+  /**
+   * Updates the model with a single dyad.
+   *
+   * @param leftId    The id of the left item or -1 if there is none.
+   * @param rightId   The id of the right item or -1 if there is none.
+   * @param left      Hashed features of the left item, may be null.
+   * @param right     Hashed features of the right item, may be null.
+   * @param dyad      Hashed features of the dyad, may be null.
+   * @param actual    The target value, either 0 or 1.
+   */
+  public void train(int leftId, int rightId, Vector left, Vector right, Vector dyad, int actual) {
+    if (leftFactors == null) {
+      leftFactors = new double[factors];
+      rightFactors = new double[factors];
+      createInitializers();
+    }
+    if (leftId >= 0 && !leftIds.isInitialized(leftId)) {
+      leftIds.initializeRow(leftId, gaussian);
+    }
+    if (rightId >= 0 && !rightIds.isInitialized(rightId)) {
+      rightIds.initializeRow(rightId, gaussian);
+    }
+
+    effectiveFactors(leftIds, leftId, leftFeatures, left, leftFactors);
+    effectiveFactors(rightIds, rightId, rightFeatures, right, rightFactors);
+    double gradient = actual - LatentLogLinear.logistic(score(leftFactors, rightFactors, dyad));
+
+    // each side's rows move along the other side's effective factors
+    if (leftId >= 0) {
+      update(leftIds, leftId, gradient, rightFactors);
+    }
+    if (left != null) {
+      updateFeatures(leftFeatures, left, gradient, rightFactors);
+    }
+    if (rightId >= 0) {
+      update(rightIds, rightId, gradient, leftFactors);
+    }
+    if (right != null) {
+      updateFeatures(rightFeatures, right, gradient, leftFactors);
+    }
+    if (dyad != null) {
+      Iterator<Vector.Element> i = dyad.iterateNonZero();
+      while (i.hasNext()) {
+        Vector.Element element = i.next();
+        int row = element.index();
+        if (!dyadFeatures.isInitialized(row)) {
+          // new rows are already zero
+          dyadFeatures.initializeRow(row, Functions.IDENTITY);
+        }
+        int count = dyadFeatures.incrementUpdateCount(row);
+        double learningRate = mu0 / Math.sqrt(count);
+        double[] w = dyadFeatures.values(row);
+        int base = dyadFeatures.offset(row);
+        w[base] = check(LatentLogLinear.l1(w[base], lambda * learningRate)
+            + learningRate * gradient * element.get(), w[base]);
+      }
+    }
+  }
+
+  /**
+   * Returns the probability of a dyad.  Ids that were never trained are ignored.
+   *
+   * @param leftId    The id of the left item or -1 if there is none.
+   * @param rightId   The id of the right item or -1 if there is none.
+   * @param left      Hashed features of the left item, may be null.
+   * @param right     Hashed features of the right item, may be null.
+   * @param dyad      Hashed features of the dyad, may be null.
+   */
+  public double classifyScalar(int leftId, int rightId, Vector left, Vector right, Vector dyad) {
+    double[] x = new double[factors];
+    double[] y = new double[factors];
+    effectiveFactors(leftIds, leftId, leftFeatures, left, x);
+    effectiveFactors(rightIds, rightId, rightFeatures, right, y);
+    return 1 / (1 + Math.exp(-score(x, y, dyad)));
+  }
+
+  private double score(double[] x, double[] y, Vector dyad) {
+    double sum = 0;
+    for (int k = 0; k < factors; k++) {
+      sum += x[k] * y[k];
+    }
+    if (dyad != null) {
+      Iterator<Vector.Element> i = dyad.iterateNonZero();
+      while (i.hasNext()) {
+        Vector.Element element = i.next();
+        int row = element.index();
+        if (dyadFeatures.isInitialized(row)) {
+          sum += dyadFeatures.values(row)[dyadFeatures.offset(row)] * element.get();
+        }
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Sums the factors of an id and of its features into r.  Rows that don't exist add nothing.
+   */
+  private static void effectiveFactors(FactorMatrix ids, int id, FactorMatrix features, Vector x, double[] r) {
+    int n = r.length;
+    if (ids.isInitialized(id)) {
+      System.arraycopy(ids.values(id), ids.offset(id), r, 0, n);
+    } else {
+      for (int k = 0; k < n; k++) {
+        r[k] = 0;
+      }
+    }
+    if (x != null) {
+      Iterator<Vector.Element> i = x.iterateNonZero();
+      while (i.hasNext()) {
+        Vector.Element element = i.next();
+        int row = element.index();
+        if (features.isInitialized(row)) {
+          double[] a = features.values(row);
+          int base = features.offset(row);
+          double xj = element.get();
+          for (int k = 0; k < n; k++) {
+            r[k] += xj * a[base + k];
+          }
+        }
+      }
+    }
+  }
+
+  private void updateFeatures(FactorMatrix features, Vector x, double gradient, double[] other) {
+    Iterator<Vector.Element> i = x.iterateNonZero();
+    while (i.hasNext()) {
+      Vector.Element element = i.next();
+      if (!features.isInitialized(element.index())) {
+        features.initializeRow(element.index(), smallGaussian);
+      }
+      update(features, element.index(), gradient * element.get(), other);
+    }
+  }
+
+  /**
+   * Moves a row along x by gradient times the row's learning rate after shrinking it towards zero.
+   */
+  private void update(FactorMatrix m, int row, double gradient, double[] x) {
+    int count = m.incrementUpdateCount(row);
+    double learningRate = mu0 / Math.sqrt(count);
+    double shrink = lambda * learningRate;
+    double[] w = m.values(row);
+    int base = m.offset(row);
+    for (int k = 0; k < x.length; k++) {
+      w[base + k] = check(LatentLogLinear.l1(w[base + k], shrink) + learningRate * gradient * x[k], w[base + k]);
+    }
+  }
+
+  private static double check(double newValue, double oldValue) {
+    if (Double.isNaN(newValue) || Double.isInfinite(newValue)) {
+      throw new ArithmeticException(String.format("Updating from %.3f to nastiness\n", oldValue));
+    }
+    return newValue;
+  }
+
+  private void createInitializers() {
+    final Random rand = RandomUtils.getRandom();
+    gaussian = new UnaryFunction() {
+      @Override
+      public double apply(double arg1) {
+        return rand.nextGaussian();
+      }
+    };
+    smallGaussian = new UnaryFunction() {
+      @Override
+      public double apply(double arg1) {
+        return FEATURE_SCALE * rand.nextGaussian();
+      }
+    };
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.SparseRowMatrix;
+import org.apache.mahout.math.Vector;
+
+/**
+ * An on-line logistic regression learner that only stores the coefficients of features it has
+ * actually seen.  This is meant for hashed feature spaces that are much larger than the number of
+ * distinct features in the data, where the dense learner would spend most of its memory on zeros.
+ * Each feature that has been seen takes four to five times the memory of a dense coefficient and
+ * training is about twice as slow, so this only pays off when well under a fifth of the features
+ * are ever used.
+ * <p/>
+ * The coefficients, the update steps and the update counts are kept in hash maps of primitives
+ * rather than in arrays.  Apart from that, this learns exactly like {@link OnlineLogisticRegression},
+ * including the lazy application of the prior.  A coefficient that the prior drives to zero is
+ * dropped from the map.
+ * <p/>
+ * The update counts don't include the per term annealing offset so that features that were never
+ * seen don't need an entry.  For that reason a sparse model can only be copied from another sparse
+ * model.
+ */
+public class SparseOnlineLogisticRegression extends OnlineLogisticRegression {
+  private SparseOnlineLogisticRegression() {
+    // private constructor available for Gson, but not normal use
+  }
+
+  public SparseOnlineLogisticRegression(int numCategories, int numFeatures, PriorFunction prior) {
+    super(numCategories, numFeatures, prior);
+
+    updateSteps = new RandomAccessSparseVector(numFeatures);
+    updateCounts = new RandomAccessSparseVector(numFeatures);
+    beta = new SparseRowMatrix(new int[]{numCategories - 1, numFeatures});
+  }
+
+  @Override
+  public double perTermLearningRate(int j) {
+    int offset = getPerTermAnnealingOffset();
+    return Math.sqrt(offset / (offset + updateCounts.get(j)));
+  }
+
+  /**
+   * Iterates over the instance rather than over the coefficients, which are usually much less
+   * sparse.
+   */
+  @Override
+  public double classifyScalarNoLink(Vector instance) {
+    return instance.dot(beta.getRow(0));
+  }
+
+  @Override
+  public SparseOnlineLogisticRegression copy() {
+    close();
+    SparseOnlineLogisticRegression r = new SparseOnlineLogisticRegression(numCategories(), numFeatures(), prior);
+    r.copyFrom(this);
+    return r;
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.classifier.OnlineLearner;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.list.IntArrayList;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Trains a {@link LatentLogLinear} model in parallel using stratified SGD as described in
+ * Large-Scale Matrix Factorization with Distributed Stochastic Gradient Descent by Gemulla, Nijkamp,
+ * Haas and Sismanis.
+ * <p/>
+ * Left and right ids are each split into a number of blocks.  The dyads with left ids in block i
+ * and right ids in block j make up the stratum (i, j).  Strata that share no left or right block
+ * can be trained at the same time without any two threads touching the same factor row, so each
+ * sub-epoch trains one such set of strata in parallel and then the assignment is rotated.  After as
+ * many sub-epochs as there are blocks, every stratum has been trained once.
+ * <p/>
+ * Training examples are buffered and the strata are trained when the buffer fills up or when
+ * {@link #close()} is called.  Within a stratum examples are trained in the order they arrived and
+ * new rows are initialized as examples arrive.  Training steps used for lazy regularization are
+ * assigned as if the strata of a sub-epoch were interleaved one example at a time.  This means that
+ * the resulting model does not depend on the number of threads or on thread scheduling.
+ * <p/>
+ * Rank based training pairs each dyad with the last one of the opposite label in its stratum.  The
+ * model's {@link NegativeSampler} is not used since it could pick rows from other strata.
+ */
+public class StratifiedLatentLogLinear implements OnlineLearner, DyadicLearner {
+  private static final int DEFAULT_BUFFER_SIZE = 100000;
+
+  private final LatentLogLinear model;
+  private final int blocks;
+  private final int threadCount;
+  private final int bufferSize;
+  private int passes = 1;
+
+  // examples as (leftId, rightId, actual) triples indexed by leftBlock * blocks + rightBlock
+  private final IntArrayList[] strata;
+
+  // each stratum keeps its own state so rank based training stays inside the stratum
+  private final LatentLogLinear.TrainingState[] states;
+
+  private int buffered;
+  private ExecutorService pool;
+
+  public StratifiedLatentLogLinear(LatentLogLinear model, int blocks) {
+    this(model, blocks, blocks, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param model       The model to train.
+   * @param blocks      How many blocks to split the left and right ids into.
+   * @param threadCount How many threads to use.  More than the number of blocks won't help.
+   * @param bufferSize  How many examples to collect before training them.
+   */
+  public StratifiedLatentLogLinear(LatentLogLinear model, int blocks, int threadCount, int bufferSize) {
+    if (blocks < 1 || threadCount < 1 || bufferSize < 1) {
+      throw new IllegalArgumentException("Blocks, threads and buffer size must all be positive");
+    }
+    this.model = model;
+    this.blocks = blocks;
+    this.threadCount = threadCount;
+    this.bufferSize = bufferSize;
+
+    strata = new IntArrayList[blocks * blocks];
+    for (int i = 0; i < strata.length; i++) {
+      strata[i] = new IntArrayList();
+    }
+    states = new LatentLogLinear.TrainingState[blocks * blocks];
+  }
+
+  /**
+   * Sets how many times each buffer of examples is trained.
+   */
+  public StratifiedLatentLogLinear passes(int passes) {
+    this.passes = passes;
+    return this;
+  }
+
+  /**
+   * Adds a dyad to the training buffer, training all buffered dyads if the buffer is full.
+   *
+   * @param leftId   The id of the left item.
+   * @param rightId  The id of the right item.
+   * @param actual   The target value, either 0 or 1.
+   */
+  @Override
+  public void train(int leftId, int rightId, int actual) {
+    if (leftId < 0 || rightId < 0) {
+      throw new IllegalArgumentException("Ids must be non-negative");
+    }
+    model.initialize(leftId, rightId);
+
+    int stratum = (leftId % blocks) * blocks + rightId % blocks;
+    if (states[stratum] == null) {
+      states[stratum] = model.newTrainingState(leftId, rightId);
+    }
+    IntArrayList data = strata[stratum];
+    data.add(leftId);
+    data.add(rightId);
+    data.add(actual);
+
+    buffered++;
+    if (buffered == bufferSize) {
+      flush();
+    }
+  }
+
+  @Override
+  public void train(int actual, Vector instance) {
+    train(LatentLogLinear.rowId(instance), LatentLogLinear.columnId(instance), actual);
+  }
+
+  @Override
+  public void train(long trackingKey, String groupKey, int actual, Vector instance) {
+    train(actual, instance);
+  }
+
+  @Override
+  public void train(long trackingKey, int actual, Vector instance) {
+    train(actual, instance);
+  }
+
+  /**
+   * Trains any buffered examples, stops the worker threads and closes the underlying model.
+   * Training can continue after close.
+   */
+  @Override
+  public void close() {
+    try {
+      flush();
+    } finally {
+      if (pool != null) {
+        pool.shutdownNow();
+        pool = null;
+      }
+    }
+    model.close();
+  }
+
+  public LatentLogLinear getModel() {
+    return model;
+  }
+
+  /**
+   * Trains all buffered examples.  Each pass runs one sub-epoch per block and in sub-epoch s left
+   * block i is paired with right block (i + s) mod blocks.
+   */
+  public void flush() {
+    if (buffered > 0) {
+      for (int pass = 0; pass < passes; pass++) {
+        for (int shift = 0; shift < blocks; shift++) {
+          List<Integer> active = Lists.newArrayList();
+          int longest = 0;
+          for (int leftBlock = 0; leftBlock < blocks; leftBlock++) {
+            int stratum = leftBlock * blocks + (leftBlock + shift) % blocks;
+            if (strata[stratum].size() > 0) {
+              active.add(stratum);
+              longest = Math.max(longest, strata[stratum].size() / 3);
+            }
+          }
+
+          long base = model.getStep();
+          List<Callable<Object>> tasks = Lists.newArrayList();
+          for (int i = 0; i < active.size(); i++) {
+            tasks.add(new StratumTrainer(active.get(i), base + i + 1, active.size()));
+          }
+          run(tasks);
+          model.setStep(base + (long) longest * active.size());
+        }
+      }
+
+      for (IntArrayList data : strata) {
+        data.clear();
+      }
+      buffered = 0;
+    }
+  }
+
+  private void run(List<Callable<Object>> tasks) {
+    try {
+      if (threadCount == 1) {
+        for (Callable<Object> task : tasks) {
+          task.call();
+        }
+      } else {
+        if (pool == null) {
+          pool = Executors.newFixedThreadPool(threadCount);
+        }
+        for (Future<Object> result : pool.invokeAll(tasks)) {
+          result.get();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while training strata", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Training thread failed", e.getCause());
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private class StratumTrainer implements Callable<Object> {
+    private final int stratum;
+
+    // the training step of the first example and the increment for each one after that
+    private final long firstStep;
+    private final int stride;
+
+    private StratumTrainer(int stratum, long firstStep, int stride) {
+      this.stratum = stratum;
+      this.firstStep = firstStep;
+      this.stride = stride;
+    }
+
+    @Override
+    public Object call() {
+      IntArrayList data = strata[stratum];
+      LatentLogLinear.TrainingState state = states[stratum];
+      int n = data.size();
+      long step = firstStep;
+      for (int i = 0; i < n; i += 3) {
+        model.train(data.getQuick(i), data.getQuick(i + 1), data.getQuick(i + 2), state, step);
+        step += stride;
+      }
+      return null;
+    }
+  }
+}
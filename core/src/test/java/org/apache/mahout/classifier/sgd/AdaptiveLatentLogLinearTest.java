@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.common.MahoutTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.ep.State;
+import org.apache.mahout.math.stats.GlobalOnlineAuc;
+import org.apache.mahout.math.stats.OnlineAuc;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+public final class AdaptiveLatentLogLinearTest extends MahoutTestCase {
+  private static final int ITEMS = 50;
+
+  @Test
+  public void testLearns() {
+    AdaptiveLatentLogLinear learner = new AdaptiveLatentLogLinear(2, 10);
+    learner.setThreadCount(2);
+    learner.setPoolSize(6);
+    learner.setInterval(2000);
+
+    // label is 1 when left and right ids have the same parity
+    Random gen = RandomUtils.getRandom();
+    for (int i = 0; i < 100000; i++) {
+      int left = gen.nextInt(ITEMS);
+      int right = gen.nextInt(ITEMS);
+      learner.train(left, right, (left + right) % 2 == 0 ? 1 : 0);
+    }
+    learner.close();
+
+    assertTrue("AUC too low: " + learner.auc(), learner.auc() > 0.9);
+
+    int errors = 0;
+    for (int left = 0; left < ITEMS; left++) {
+      for (int right = 0; right < ITEMS; right++) {
+        double p = learner.classifyScalar(left, right);
+        if ((p > 0.5 ? 1 : 0) != ((left + right) % 2 == 0 ? 1 : 0)) {
+          errors++;
+        }
+      }
+    }
+    assertTrue("Too many errors: " + errors, errors < ITEMS * ITEMS / 10);
+
+    // the population should have explored its settings
+    double minRate = Double.POSITIVE_INFINITY;
+    double maxRate = 0;
+    for (State<AdaptiveLatentLogLinear.Wrapper> state : learner.getEp().getPopulation()) {
+      double rate = state.getPayload().getModel().getLearningRate();
+      minRate = Math.min(minRate, rate);
+      maxRate = Math.max(maxRate, rate);
+    }
+    assertTrue(maxRate > minRate);
+  }
+
+  @Test
+  public void testAucEvaluator() {
+    AdaptiveLatentLogLinear learner = new AdaptiveLatentLogLinear(2, 10);
+    learner.setThreadCount(2);
+    learner.setPoolSize(4);
+    learner.setAucEvaluator(new CountingAuc());
+    learner.setInterval(1000);
+
+    Random gen = RandomUtils.getRandom();
+    for (int i = 0; i < 10000; i++) {
+      int left = gen.nextInt(ITEMS);
+      int right = gen.nextInt(ITEMS);
+      learner.train(left, right, (left + right) % 2 == 0 ? 1 : 0);
+    }
+    learner.close();
+
+    // every member, including those made by evolution, scores with its own evaluator
+    List<OnlineAuc> seen = Lists.newArrayList();
+    for (State<AdaptiveLatentLogLinear.Wrapper> state : learner.getEp().getPopulation()) {
+      OnlineAuc auc = state.getPayload().getAucEvaluator();
+      assertTrue(auc instanceof CountingAuc);
+      for (OnlineAuc other : seen) {
+        assertNotSame(other, auc);
+      }
+      seen.add(auc);
+    }
+    assertTrue(((CountingAuc) learner.getBest().getPayload().getAucEvaluator()).samples > 0);
+  }
+
+  public static final class CountingAuc extends GlobalOnlineAuc {
+    private int samples;
+
+    @Override
+    public double addSample(int category, double score) {
+      samples++;
+      return super.addSample(category, score);
+    }
+  }
+
+  @Test
+  public void testCopyIsIndependent() {
+    LatentLogLinear model = new LatentLogLinear(3).learningRate(0.3).lambda(1.0e-4).rankMixRate(0.2);
+    for (int i = 0; i < 1000; i++) {
+      model.train(i % 7, i % 11, i % 2);
+    }
+    LatentLogLinear copy = model.copy();
+    assertEquals(model.getStep(), copy.getStep());
+    assertEquals(0.3, copy.getLearningRate(), 0);
+    assertEquals(1.0e-4, copy.getLambda(), 0);
+    assertEquals(0.2, copy.getRankMixRate(), 0);
+    assertEquals(model.classifyScalar(3, 5), copy.classifyScalar(3, 5), 0);
+
+    for (int i = 0; i < 1000; i++) {
+      copy.train(3, 5, 1);
+    }
+    assertTrue(copy.classifyScalar(3, 5) > model.classifyScalar(3, 5));
+  }
+}
@@ -72,6 +72,40 @@ public final class AdaptiveLogisticRegressionTest extends MahoutTestCase {
     assertEquals(1, x.auc(), 0.1);
   }
 
+  @Test
+  public void pipelinedMatchesSerial() {
+    Random gen = RandomUtils.getRandom();
+    Vector beta = new DenseVector(200);
+    for (Vector.Element element : beta) {
+      element.set(gen.nextGaussian());
+    }
+
+    AdaptiveLogisticRegression serial = new AdaptiveLogisticRegression(2, 200, new L1());
+    serial.setInterval(1000);
+    serial.setPoolSize(5);
+    AdaptiveLogisticRegression pipelined = new AdaptiveLogisticRegression(2, 200, new L1());
+    pipelined.setInterval(1000);
+    pipelined.setPoolSize(5);
+    pipelined.setPipelined(true);
+
+    // both optimizers need to make the same random choices
+    RandomUtils.useTestSeed();
+    for (int i = 0; i < 10000; i++) {
+      AdaptiveLogisticRegression.TrainingExample r = getExample(i, gen, beta);
+      serial.train(r.getKey(), r.getActual(), r.getInstance());
+      pipelined.train(r.getKey(), r.getActual(), r.getInstance());
+      if (i % 2000 == 1999) {
+        assertEquals(serial.auc(), pipelined.auc(), 0);
+      }
+    }
+    serial.close();
+    pipelined.close();
+
+    assertEquals(serial.auc(), pipelined.auc(), 0);
+    assertArrayEquals(serial.getBest().getParams(), pipelined.getBest().getParams(), 0);
+    assertEquals(1, pipelined.auc(), 0.1);
+  }
+
   private static AdaptiveLogisticRegression.TrainingExample getExample(int i, Random gen, Vector beta) {
     Vector data = new DenseVector(200);
 
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.MatrixTest;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.function.Functions;
+import org.junit.Test;
+
+import java.util.Iterator;
+
+public final class CopyOnWriteMatrixTest extends MatrixTest {
+  @Override
+  public Matrix matrixFactory(double[][] values) {
+    // the matrix under test shares its storage with the one it was copied from
+    CopyOnWriteMatrix original = CopyOnWriteMatrix.copyOf(new DenseMatrix(values));
+    return original.clone();
+  }
+
+  @Test
+  public void testClonesAreIndependent() {
+    CopyOnWriteMatrix original = CopyOnWriteMatrix.copyOf(new DenseMatrix(new double[][] {{1, 2, 3}, {4, 5, 6}}));
+    CopyOnWriteMatrix copy = original.clone();
+    copy.set(0, 1, 20);
+    original.set(1, 2, 60);
+    CopyOnWriteMatrix copyOfCopy = copy.clone();
+    copyOfCopy.set(0, 0, 10);
+
+    assertEquals(2, original.get(0, 1), 0);
+    assertEquals(60, original.get(1, 2), 0);
+    assertEquals(20, copy.get(0, 1), 0);
+    assertEquals(6, copy.get(1, 2), 0);
+    assertEquals(1, copy.get(0, 0), 0);
+    assertEquals(10, copyOfCopy.get(0, 0), 0);
+    assertEquals(20, copyOfCopy.get(0, 1), 0);
+  }
+
+  @Test
+  public void testDeltaIsFolded() {
+    CopyOnWriteVector original = new CopyOnWriteVector(10000);
+    original.assign(1);
+    original.setQuick(3, 2);
+    assertFalse(original.isShared());
+
+    CopyOnWriteVector copy = original.clone();
+    assertTrue(copy.isShared());
+    assertTrue(original.isShared());
+
+    // writing a value that is already there isn't a change
+    copy.setQuick(3, 2);
+    assertEquals(0, copy.getDeltaSize());
+
+    int limit = Math.max(64, 10000 / 32);
+    for (int i = 0; i < limit; i++) {
+      copy.setQuick(i * 2, -i);
+    }
+    assertTrue(copy.isShared());
+    assertEquals(limit, copy.getDeltaSize());
+
+    copy.setQuick(1, 7);
+    assertFalse(copy.isShared());
+    assertEquals(0, copy.getDeltaSize());
+    for (int i = 0; i < limit; i++) {
+      assertEquals(-i, copy.getQuick(i * 2), 0);
+      assertEquals(i == 1 ? 2 : 1, original.getQuick(i * 2 + 1), 0);
+    }
+    assertEquals(7, copy.getQuick(1), 0);
+    assertEquals(1, copy.getQuick(9999), 0);
+    assertEquals(1, original.getQuick(0), 0);
+  }
+
+  @Test
+  public void testIterateNonZero() {
+    CopyOnWriteVector original = new CopyOnWriteVector(100);
+    assertFalse(original.iterateNonZero().hasNext());
+    original.setQuick(10, 1);
+    original.setQuick(20, 2);
+    original.setQuick(30, 3);
+
+    CopyOnWriteVector copy = original.clone();
+    copy.setQuick(20, 0);
+    copy.setQuick(25, 5);
+    copy.setQuick(99, 9);
+
+    Iterator<Vector.Element> i = copy.iterateNonZero();
+    int[] indexes = {10, 25, 30, 99};
+    for (int index : indexes) {
+      assertTrue(i.hasNext());
+      Vector.Element element = i.next();
+      assertEquals(index, element.index());
+      assertEquals(copy.getQuick(index), element.get(), 0);
+    }
+    assertFalse(i.hasNext());
+
+    assertEquals(18, copy.aggregate(Functions.PLUS, Functions.IDENTITY), 0);
+    assertEquals(6, original.aggregate(Functions.PLUS, Functions.IDENTITY), 0);
+    assertEquals(4, copy.aggregate(Functions.PLUS, Functions.SIGN), 0);
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import org.apache.mahout.common.MahoutTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.function.Functions;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+public final class CsvTrainerTest extends MahoutTestCase {
+  private static final int FEATURES = 1000;
+  private static final int LINES = 5000;
+
+  @Test
+  public void testMatchesSerialTraining() throws IOException {
+    File file = writeData();
+
+    // one thread, one line at a time
+    CsvRecordFactory serialCsv = factory();
+    OnlineLogisticRegression serial = model();
+    String[] lines = Files.toString(file, Charsets.UTF_8).split("\n");
+    serialCsv.firstLine(lines[0]);
+    for (int pass = 0; pass < 3; pass++) {
+      for (int i = 1; i < lines.length; i++) {
+        Vector v = new RandomAccessSparseVector(FEATURES);
+        serial.train(i - 1, serialCsv.processLine(lines[i], v), v);
+      }
+    }
+
+    CsvRecordFactory cachedCsv = factory();
+    OnlineLogisticRegression cached = model();
+    long calls = new CsvTrainer(cachedCsv, FEATURES).threads(4).chunkSize(37).passes(3).train(file, cached);
+    assertEquals(3 * LINES, calls);
+
+    CsvRecordFactory uncachedCsv = factory();
+    OnlineLogisticRegression uncached = model();
+    new CsvTrainer(uncachedCsv, FEATURES).threads(3).chunkSize(100).passes(3).cache(false).train(file, uncached);
+
+    assertEquals(serial.getStep(), cached.getStep());
+    assertEquals(0, serial.getBeta().minus(cached.getBeta()).aggregate(Functions.PLUS, Functions.ABS), 1.0e-6);
+    assertEquals(0, serial.getBeta().minus(uncached.getBeta()).aggregate(Functions.PLUS, Functions.ABS), 1.0e-6);
+
+    // targets are numbered in the order they appear and the traces of all threads are kept
+    assertEquals(serialCsv.getTargetCategories(), cachedCsv.getTargetCategories());
+    assertEquals(serialCsv.getTraceDictionary().keySet(), cachedCsv.getTraceDictionary().keySet());
+  }
+
+  @Test
+  public void testFreshVectors() throws IOException {
+    File file = writeData();
+    CrossFoldLearner reused = new CrossFoldLearner(5, 2, FEATURES, new L1());
+    CrossFoldLearner fresh = new CrossFoldLearner(5, 2, FEATURES, new L1());
+    new CsvTrainer(factory(), FEATURES).threads(2).passes(2).train(file, reused);
+    new CsvTrainer(factory(), FEATURES).threads(2).passes(2).reuseVectors(false).train(file, fresh);
+    assertEquals(reused.auc(), fresh.auc(), 1.0e-10);
+    assertTrue(fresh.auc() > 0.8);
+  }
+
+  private static CsvRecordFactory factory() {
+    CsvRecordFactory csv = new CsvRecordFactory("y", ImmutableMap.of("x", "n", "color", "w", "words", "t"));
+    csv.maxTargetValue(2);
+    return csv;
+  }
+
+  private static OnlineLogisticRegression model() {
+    return new OnlineLogisticRegression(2, FEATURES, new L1()).lambda(1.0e-4).learningRate(1);
+  }
+
+  private File writeData() throws IOException {
+    Random gen = RandomUtils.getRandom();
+    String[] colors = {"red", "green", "blue", "yellow"};
+    String[] words = {"alpha", "beta", "gamma", "delta", "epsilon"};
+    StringBuilder out = new StringBuilder("x,color,words,y\n");
+    for (int i = 0; i < LINES; i++) {
+      double x = gen.nextGaussian();
+      int color = gen.nextInt(colors.length);
+      String text = words[gen.nextInt(words.length)] + ' ' + words[gen.nextInt(words.length)];
+      boolean positive = x + (color < 2 ? 1 : -1) + 0.3 * gen.nextGaussian() > 0;
+      out.append(x).append(',').append(colors[color]).append(',').append(text).append(',').append(positive ? "yes" : "no").append('\n');
+    }
+    File file = getTestTempFile("train.csv");
+    Files.write(out.toString(), file, Charsets.UTF_8);
+    return file;
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.apache.mahout.common.MahoutTestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public final class DyadEventFileTest extends MahoutTestCase {
+  @Test
+  public void testReadWrite() throws IOException {
+    File file = getTestTempFile("events.bin");
+    DyadEventWriter out = new DyadEventWriter(file, true);
+    for (int i = 0; i < 1000; i++) {
+      out.write(i, 2 * i, i % 2, i / 100.0f);
+    }
+    out.close();
+
+    DyadEventFile events = DyadEventFile.open(file);
+    assertEquals(1000, events.size());
+    assertTrue(events.isWeighted());
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i, events.leftId(i));
+      assertEquals(2 * i, events.rightId(i));
+      assertEquals(i % 2, events.actual(i));
+      assertEquals(i / 100.0f, events.weight(i), 0);
+    }
+  }
+
+  @Test
+  public void testShuffledEpochs() throws IOException {
+    File file = getTestTempFile("events.bin");
+    DyadEventWriter out = new DyadEventWriter(file, false);
+    int n = 1003;
+    for (int i = 0; i < n; i++) {
+      out.write(i, i, 1);
+    }
+    out.close();
+
+    final int[] seen = new int[n];
+    final int[] inOrder = new int[1];
+    DyadicLearner counter = new DyadicLearner() {
+      private int last = -1;
+
+      @Override
+      public void train(int leftId, int rightId, int actual) {
+        seen[leftId]++;
+        if (leftId == last + 1) {
+          inOrder[0]++;
+        }
+        last = leftId;
+      }
+    };
+    long calls = new DyadEventTrainer(DyadEventFile.open(file)).epochs(3).blockSize(10).train(counter);
+    assertEquals(3 * n, calls);
+    // every event is seen once per epoch, but not in file order
+    for (int count : seen) {
+      assertEquals(3, count);
+    }
+    assertTrue(inOrder[0] < 3 * n - 3 * n / 10);
+  }
+
+  @Test
+  public void testWeights() throws IOException {
+    File file = getTestTempFile("events.bin");
+    DyadEventWriter out = new DyadEventWriter(file, true);
+    out.write(0, 0, 1, 2.5f);
+    out.write(1, 1, 0, 0);
+    out.close();
+
+    final int[] seen = new int[2];
+    DyadicLearner counter = new DyadicLearner() {
+      @Override
+      public void train(int leftId, int rightId, int actual) {
+        seen[leftId]++;
+      }
+    };
+    long calls = new DyadEventTrainer(DyadEventFile.open(file)).epochs(1000).train(counter);
+    assertEquals(calls, seen[0]);
+    assertEquals(0, seen[1]);
+    assertEquals(2.5, seen[0] / 1000.0, 0.1);
+  }
+
+  @Test
+  public void testConvert() throws IOException {
+    File text = getTestTempFile("prefs.csv");
+    Files.write("# a comment\n1,10,4.5\n\n2,20,1.0\n3,30,3.0\n", text, Charsets.UTF_8);
+    File file = getTestTempFile("prefs.bin");
+    assertEquals(3, DyadEventWriter.convert(text, file, 3));
+
+    DyadEventFile events = DyadEventFile.open(file);
+    assertEquals(3, events.size());
+    assertFalse(events.isWeighted());
+    assertEquals(2, events.leftId(1));
+    assertEquals(20, events.rightId(1));
+    assertEquals(1, events.actual(0));
+    assertEquals(0, events.actual(1));
+    assertEquals(1, events.actual(2));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConvertRejectsRemoval() throws IOException {
+    File text = getTestTempFile("removal.csv");
+    // FileDataModel reads an empty preference as removing the earlier one
+    Files.write("1,10,4.5\n1,10,\n", text, Charsets.UTF_8);
+    DyadEventWriter.convert(text, getTestTempFile("removal.bin"), 3);
+  }
+
+  @Test
+  public void testTrainModel() throws IOException {
+    File file = getTestTempFile("events.bin");
+    DyadEventWriter out = new DyadEventWriter(file, false);
+    for (int left = 0; left < 20; left++) {
+      for (int right = 0; right < 20; right++) {
+        out.write(left, right, (left + right) % 2);
+      }
+    }
+    out.close();
+
+    LatentLogLinear model = new LatentLogLinear(2).learningRate(0.1).lambda(1.0e-6);
+    new DyadEventTrainer(DyadEventFile.open(file)).epochs(100).blockSize(16).train(model);
+    int errors = 0;
+    for (int left = 0; left < 20; left++) {
+      for (int right = 0; right < 20; right++) {
+        if ((model.classifyScalar(left, right) > 0.5 ? 1 : 0) != (left + right) % 2) {
+          errors++;
+        }
+      }
+    }
+    assertTrue("Too many errors: " + errors, errors < 40);
+  }
+}
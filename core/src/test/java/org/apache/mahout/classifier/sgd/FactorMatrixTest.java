@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.MatrixTest;
+import org.junit.Test;
+
+public class FactorMatrixTest extends MatrixTest {
+  @Override
+  public Matrix matrixFactory(double[][] values) {
+    FactorMatrix r = new FactorMatrix(values[0].length);
+    int row = 0;
+    for (double[] rowValues : values) {
+      r.getRow(row).assign(rowValues);
+      row++;
+    }
+    return r;
+  }
+
+  @Test
+  public void testGetRowIndexOver() {
+    // this doesn't fail with FactorMatrix.s because they extend automagically
+    assertEquals(0, test.getRow(5).zSum(), 0);
+  }
+
+
+  @Test
+  public void testAssignColumnCardinalityLong() {
+    double[] data = {2.1, 3.2, 1, 2, 3, 4, 5};
+    test.assignColumn(1, new DenseVector(data));
+    assertEquals(7, test.rowSize());
+  }
+
+  @Test
+  public void testChunks() {
+    FactorMatrix m = new FactorMatrix(3);
+    // far enough out to need several chunks
+    for (int row = 0; row < 100000; row += 997) {
+      m.setQuick(row, 1, row);
+    }
+    assertEquals(997 * 100 + 1, m.rowSize());
+    for (int row = 0; row < 100000; row++) {
+      assertEquals(row % 997 == 0 ? row : 0, m.getQuick(row, 1), 0);
+      assertEquals(0, m.getQuick(row, 0), 0);
+    }
+
+    // the raw storage and the row views see the same data
+    double[] values = m.values(997 * 5);
+    assertEquals(997 * 5, values[m.offset(997 * 5) + 1], 0);
+    m.getRow(997 * 5).set(2, 7);
+    assertEquals(7, values[m.offset(997 * 5) + 2], 0);
+    assertEquals(997 * 5 * 997 * 5 + 7 * 7, m.dot(997 * 5, m, 997 * 5), 0);
+    assertEquals(m.getRow(997 * 5).dot(m.getRow(997 * 5)), m.dot(997 * 5, m, 997 * 5), 0);
+  }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import org.apache.mahout.common.MahoutTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.junit.Test;
+
+import java.util.Random;
+
+public final class FtrlLogisticRegressionTest extends MahoutTestCase {
+  private static final int FEATURES = 100000;
+  // only these features matter, the others are noise
+  private static final int SIGNAL = 20;
+
+  @Test
+  public void testLearnsSparseModel() {
+    Random gen = RandomUtils.getRandom();
+    FtrlLogisticRegression loose = new FtrlLogisticRegression(2, FEATURES).lambda(0.01);
+    FtrlLogisticRegression tight = new FtrlLogisticRegression(2, FEATURES).lambda(5);
+    for (int i = 0; i < 20000; i++) {
+      Vector v = example(gen);
+      int actual = target(gen, v);
+      loose.train(actual, v);
+      tight.train(actual, v);
+    }
+
+    int right = 0;
+    for (int i = 0; i < 1000; i++) {
+      Vector v = example(gen);
+      right += (tight.classifyScalar(v) > 0.5 ? 1 : 0) == target(gen, v) ? 1 : 0;
+    }
+    assertTrue(right > 800);
+
+    // the L1 penalty zeros out most of the noise and zeros aren't stored
+    int looseCount = loose.getBeta().getRow(0).getNumNondefaultElements();
+    int tightCount = tight.getBeta().getRow(0).getNumNondefaultElements();
+    assertTrue(tightCount < looseCount / 4);
+    assertTrue(tightCount >= SIGNAL / 2);
+    assertTrue(tight.validModel());
+  }
+
+  @Test
+  public void testCopy() {
+    Random gen = RandomUtils.getRandom();
+    FtrlLogisticRegression model = new FtrlLogisticRegression(3, FEATURES).lambda(0.1).learningRate(0.2);
+    for (int i = 0; i < 1000; i++) {
+      Vector v = example(gen);
+      model.train(gen.nextInt(3), v);
+    }
+    FtrlLogisticRegression copy = model.copy();
+    Vector v = example(gen);
+    model.train(1, v);
+    copy.train(1, v);
+    assertEquals(0, model.classify(v).minus(copy.classify(v)).norm(1), 0);
+    assertEquals(1, model.classifyFull(v).zSum(), 1.0e-10);
+  }
+
+  @Test
+  public void testCrossFoldAndAdaptive() {
+    Random gen = RandomUtils.getRandom();
+    CrossFoldLearner cv = new CrossFoldLearner(5, new FtrlLogisticRegression(2, FEATURES).lambda(1));
+    AdaptiveLogisticRegression adaptive = new AdaptiveLogisticRegression(new FtrlLogisticRegression(2, FEATURES));
+    adaptive.setPoolSize(5);
+    adaptive.setInterval(1000);
+    for (int i = 0; i < 20000; i++) {
+      Vector v = example(gen);
+      int actual = target(gen, v);
+      cv.train(i, actual, v);
+      adaptive.train(i, actual, v);
+    }
+    adaptive.close();
+    assertTrue(cv.getModels().get(0) instanceof FtrlLogisticRegression);
+    assertTrue(cv.copy().getModels().get(0) instanceof FtrlLogisticRegression);
+    assertTrue(adaptive.getBest().getPayload().getLearner().getModels().get(0) instanceof FtrlLogisticRegression);
+    assertEquals(1, cv.auc(), 0.15);
+    assertEquals(1, adaptive.auc(), 0.15);
+  }
+
+  private static Vector example(Random gen) {
+    Vector v = new RandomAccessSparseVector(FEATURES);
+    for (int k = 0; k < 5; k++) {
+      v.set(gen.nextInt(SIGNAL), 1);
+    }
+    for (int k = 0; k < 20; k++) {
+      v.set(SIGNAL + gen.nextInt(FEATURES - SIGNAL), 1);
+    }
+    return v;
+  }
+
+  // the even signal features count for and the odd ones against
+  private static int target(Random gen, Vector v) {
+    double r = 0;
+    for (int j = 0; j < SIGNAL; j++) {
+      r += v.get(j) * (j % 2 == 0 ? 1 : -1);
+    }
+    return gen.nextDouble() < 1 / (1 + Math.exp(-4 * r)) ? 1 : 0;
+  }
+}
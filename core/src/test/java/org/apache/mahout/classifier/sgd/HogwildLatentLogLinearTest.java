@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import org.apache.mahout.common.MahoutTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class HogwildLatentLogLinearTest extends MahoutTestCase {
+  private static final int FACTORS = 2;
+  private static final int ITEMS = 50;
+
+  @Test
+  public void testOneThreadMatchesSerial() {
+    RandomUtils.useTestSeed();
+    int[][] data = syntheticData(RandomUtils.getRandom(), 20000);
+
+    RandomUtils.useTestSeed();
+    LatentLogLinear serial = new LatentLogLinear(FACTORS).learningRate(.1).lambda(1e-4);
+    HogwildLatentLogLinear hogwild = new HogwildLatentLogLinear(
+        new LatentLogLinear(FACTORS).learningRate(.1).lambda(1e-4), 1, 64);
+    for (int[] row : data) {
+      serial.train(row[0], row[1], row[2]);
+      hogwild.train(row[0], row[1], row[2]);
+    }
+    serial.close();
+    hogwild.close();
+
+    for (int left = 0; left < ITEMS; left++) {
+      for (int right = 0; right < ITEMS; right++) {
+        assertEquals(serial.classifyScalar(left, right), hogwild.getModel().classifyScalar(left, right), 0);
+      }
+    }
+  }
+
+  @Test
+  public void testManyThreadsLearn() {
+    RandomUtils.useTestSeed();
+    Random gen = RandomUtils.getRandom();
+    int[][] data = syntheticData(gen, 100000);
+
+    HogwildLatentLogLinear hogwild = new HogwildLatentLogLinear(
+        new LatentLogLinear(FACTORS).learningRate(.1).lambda(1e-6), 4, 100);
+    for (int pass = 0; pass < 5; pass++) {
+      for (int[] row : data) {
+        hogwild.train(row[0], row[1], row[2]);
+      }
+      // closing and training some more should restart the workers
+      hogwild.close();
+    }
+
+    // labels are a simple function of the ids so a trained model should get nearly all right
+    int errors = 0;
+    for (int[] row : data) {
+      double p = hogwild.getModel().classifyScalar(row[0], row[1]);
+      if ((p > 0.5 ? 1 : 0) != row[2]) {
+        errors++;
+      }
+    }
+    assertTrue("Too many errors: " + errors, errors < data.length / 10);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testWorkerFailure() {
+    HogwildLatentLogLinear hogwild = new HogwildLatentLogLinear(new LatentLogLinear(FACTORS), 2, 10);
+    for (int i = 0; i < 1000; i++) {
+      hogwild.train(-1, i % 10, 1);
+    }
+    hogwild.close();
+  }
+
+  /**
+   * Dyads where the label is 1 when left and right ids have the same parity.
+   */
+  private static int[][] syntheticData(Random gen, int n) {
+    int[][] r = new int[n][];
+    for (int i = 0; i < n; i++) {
+      int left = gen.nextInt(ITEMS);
+      int right = gen.nextInt(ITEMS);
+      r[i] = new int[]{left, right, (left + right) % 2 == 0 ? 1 : 0};
+    }
+    return r;
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import org.apache.mahout.common.MahoutTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.function.IntProcedure;
+import org.junit.Test;
+
+import java.util.Random;
+
+public final class IdSlotMapTest extends MahoutTestCase {
+  @Test
+  public void testSparseIds() {
+    IdSlotMap map = new IdSlotMap();
+    long[] ids = {Long.MAX_VALUE, -7, 2000000000L, 1L << 40, 0};
+    for (int i = 0; i < ids.length; i++) {
+      assertEquals(i, map.slot(ids[i]));
+    }
+    for (int i = 0; i < ids.length; i++) {
+      assertEquals(i, map.slot(ids[i]));
+      assertEquals(i, map.find(ids[i]));
+      assertEquals(ids[i], map.id(i));
+    }
+    assertEquals(-1, map.find(12));
+    assertEquals(ids.length, map.size());
+
+    // freed slots are reused before new ones are made
+    assertEquals(2, map.remove(2000000000L));
+    assertEquals(-1, map.find(2000000000L));
+    assertEquals(2, map.slot(12));
+    assertEquals(ids.length, map.slotCount());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testFull() {
+    IdSlotMap map = new IdSlotMap(IdSlotMap.Eviction.NONE, 3);
+    for (int i = 0; i < 4; i++) {
+      map.slot(i);
+    }
+  }
+
+  @Test
+  public void testLeastRecentKeepsHotIds() {
+    // a hot id is used every 50 steps on average while a one-off id lasts about 110 steps, so
+    // even exact LRU would lose a hot id about one time in ten
+    checkHotIdsSurvive(IdSlotMap.Eviction.LEAST_RECENT, 0.12);
+  }
+
+  @Test
+  public void testLeastFrequentKeepsHotIds() {
+    checkHotIdsSurvive(IdSlotMap.Eviction.LEAST_FREQUENT, 0.01);
+  }
+
+  private static void checkHotIdsSurvive(IdSlotMap.Eviction eviction, double maxMissRate) {
+    IdSlotMap map = new IdSlotMap(eviction, 100);
+    final int[] evicted = new int[1];
+    map.setEvictionListener(new IntProcedure() {
+      @Override
+      public boolean apply(int slot) {
+        evicted[0]++;
+        return true;
+      }
+    });
+
+    // ten hot ids are used all the time among a stream of ids that are each seen once
+    Random rand = RandomUtils.getRandom();
+    int hotUses = 0;
+    int hotMisses = 0;
+    for (long i = 0; i < 100000; i++) {
+      if (i % 5 == 0) {
+        int id = rand.nextInt(10);
+        hotUses++;
+        if (map.find(id) < 0) {
+          hotMisses++;
+        }
+        map.slot(id);
+      } else {
+        map.slot(1000 + i * 1000003);
+      }
+      assertTrue(map.size() <= 100);
+    }
+    assertTrue(hotMisses < maxMissRate * hotUses);
+    assertEquals(100, map.slotCount());
+    assertEquals(map.getEvictions(), evicted[0]);
+    assertTrue(map.getEvictions() > 70000);
+  }
+
+  @Test
+  public void testLongIdModel() {
+    // bounded model where the ids are large and a stream of one-off ids tries to crowd out the
+    // ones that matter
+    LongIdLatentLogLinear model = new LongIdLatentLogLinear(5, IdSlotMap.Eviction.LEAST_RECENT, 200);
+    model.getModel().learningRate(0.5).lambda(0);
+    Random rand = RandomUtils.getRandom();
+    long base = 1L << 50;
+    for (int i = 0; i < 200000; i++) {
+      int u = rand.nextInt(20);
+      int v = rand.nextInt(20);
+      model.train(base + u * 7919L, base + v * 104729L, (u + v) % 2);
+      model.train(base - i - 1, -i - 1, rand.nextInt(2));
+    }
+    model.close();
+
+    assertTrue(model.getModel().leftFactors().rowSize() <= 256);
+    assertTrue(model.getModel().rightFactors().rowSize() <= 256);
+    assertTrue(Double.isNaN(model.classifyScalar(base + 3, base)));
+
+    int correct = 0;
+    for (int u = 0; u < 20; u++) {
+      for (int v = 0; v < 20; v++) {
+        double p = model.classifyScalar(base + u * 7919L, base + v * 104729L);
+        if (p > 0.5 == ((u + v) % 2 == 1)) {
+          correct++;
+        }
+      }
+    }
+    assertTrue(correct > 360);
+
+    assertTrue(model.forgetLeft(base));
+    assertFalse(model.forgetLeft(base));
+    assertTrue(Double.isNaN(model.classifyScalar(base, base)));
+  }
+}
@@ -21,22 +21,27 @@ import com.google.common.base.Predicates;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import org.apache.mahout.common.MahoutTestCase;
 import org.apache.mahout.common.RandomUtils;
 import org.apache.mahout.math.DenseMatrix;
 import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.function.IntProcedure;
 import org.apache.mahout.math.function.UnaryFunction;
 import org.apache.mahout.math.stats.OnlineSummarizer;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Created by IntelliJ IDEA. User: tdunning Date: Oct 4, 2010 Time: 6:10:31 PM To change this
  * template use File | Settings | File Templates.
  */
-public class LatentLogLinearTest {
+public class LatentLogLinearTest extends MahoutTestCase {
   private static final double[] RETENTION = {0.8, 0.5, 0.25};
   private static final int ITERATIONS = 50;
   public static final int FACTORS = 2;
@@ -52,22 +57,7 @@ public class LatentLogLinearTest {
 
   @Test
   public void testTrain() {
-    int n = 1000;
-    Matrix alpha = new DenseMatrix(n, FACTORS);
-    Matrix beta = new DenseMatrix(n, FACTORS);
-
-    alpha.assign(generator);
-    beta.assign(generator);
-    beta.getColumn(0).assign(1);
-
-    List<TestEvent> allData = Lists.newArrayList();
-    for (int left = 0; left < n; left++) {
-      for (int right = 0; right < n; right++) {
-        double p = logit(alpha.getRow(left).dot(beta.getRow(right)));
-        int y = rand.nextDouble() < p ? 1 : 0;
-        allData.add(new TestEvent(left, right, y, p));
-      }
-    }
+    List<TestEvent> allData = syntheticData(1000);
     Collections.shuffle(allData);
 
     for (double retention : RETENTION) {
@@ -104,6 +94,209 @@ public class LatentLogLinearTest {
     }
   }
 
+  @Test
+  public void testKernelMatchesGenericPath() {
+    RandomUtils.useTestSeed();
+    List<TestEvent> data = syntheticData(100);
+    Collections.shuffle(data, rand);
+
+    RandomUtils.useTestSeed();
+    // the generic path regularizes eagerly
+    LatentLogLinear fast = new LatentLogLinear(FACTORS).learningRate(.1).lambda(1e-3).lazyRegularization(false);
+    LatentLogLinear generic = new LatentLogLinear(FACTORS).learningRate(.1).lambda(1e-3).lazyRegularization(false);
+    for (int i = 0; i < 3; i++) {
+      for (TestEvent event : data) {
+        fast.train(event.left, event.right, event.y);
+        generic.trainGeneric(event.left, event.right, event.y);
+      }
+    }
+
+    for (TestEvent event : data) {
+      assertEquals(generic.classifyScalar(event.left, event.right), fast.classifyScalar(event.left, event.right), 0);
+    }
+  }
+
+  @Test
+  public void testLazyRegularization() {
+    RandomUtils.useTestSeed();
+    LatentLogLinear model = new LatentLogLinear(FACTORS).learningRate(.1).lambda(1e-3);
+    model.rankMixRate = 0;
+
+    // train a dyad once, then leave it alone for a while
+    model.train(0, 0, 1);
+    FactorMatrix lw = model.leftFactors();
+    FactorMatrix rw = model.rightFactors();
+    double[] leftRow = Arrays.copyOfRange(lw.values(0), lw.offset(0), lw.offset(0) + FACTORS);
+    double[] rightRow = Arrays.copyOfRange(rw.values(0), rw.offset(0), rw.offset(0) + FACTORS);
+    for (int i = 0; i < 99; i++) {
+      model.train(1, 1, 0);
+    }
+    assertEquals(100, model.getStep());
+
+    // each side of the dyad missed 99 steps of decay at its learning rate after one update
+    PriorFunction prior = new L1();
+    double rate = 1e-3 * 0.1;
+    double dot = 0;
+    for (int k = 0; k < FACTORS; k++) {
+      leftRow[k] = prior.age(leftRow[k], 99, rate);
+      rightRow[k] = prior.age(rightRow[k], 99, rate);
+      dot += leftRow[k] * rightRow[k];
+    }
+    assertEquals(1 / (1 + Math.exp(-dot)), model.classifyScalar(0, 0), 1.0e-12);
+    double[] scores = new double[1];
+    model.classifyScalar(new int[]{0}, new int[]{0}, scores);
+    assertEquals(model.classifyScalar(0, 0), scores[0], 0);
+
+    // scoring doesn't change the rows but closing catches them up
+    assertTrue(leftRow[0] != lw.getQuick(0, 0));
+    model.close();
+    for (int k = 0; k < FACTORS; k++) {
+      assertEquals(leftRow[k], lw.getQuick(0, k), 1.0e-12);
+      assertEquals(rightRow[k], rw.getQuick(0, k), 1.0e-12);
+    }
+  }
+
+  @Test
+  public void testBatchScoring() throws Exception {
+    RandomUtils.useTestSeed();
+    List<TestEvent> data = syntheticData(150);
+    LatentLogLinear model = new LatentLogLinear(FACTORS).learningRate(.1).lambda(1e-3);
+    for (TestEvent event : data) {
+      model.train(event.left, event.right, event.y);
+    }
+
+    int n = data.size() + 2;
+    int[] left = new int[n];
+    int[] right = new int[n];
+    for (int i = 0; i < data.size(); i++) {
+      left[i] = data.get(i).left;
+      right[i] = data.get(i).right;
+    }
+    // one never seen left id and one never seen right id
+    left[n - 2] = 1000;
+    right[n - 1] = 2000;
+
+    double[] serial = new double[n];
+    model.classifyScalar(left, right, serial);
+    double[] parallel = new double[n];
+    ExecutorService pool = Executors.newFixedThreadPool(3);
+    try {
+      model.classifyScalar(left, right, parallel, pool);
+    } finally {
+      pool.shutdownNow();
+    }
+
+    for (int i = 0; i < data.size(); i++) {
+      assertEquals(model.classifyScalar(left[i], right[i]), serial[i], 0);
+      assertEquals(serial[i], parallel[i], 0);
+    }
+    assertTrue(Double.isNaN(serial[n - 2]));
+    assertTrue(Double.isNaN(parallel[n - 1]));
+
+    // scoring a pair one at a time creates the missing row which batch scoring then sees
+    assertFalse(Double.isNaN(model.classifyScalar(left[n - 2], right[n - 2])));
+    model.classifyScalar(left, right, serial);
+    assertFalse(Double.isNaN(serial[n - 2]));
+  }
+
+  @Test
+  public void testTopK() {
+    RandomUtils.useTestSeed();
+    List<TestEvent> data = syntheticData(60);
+    LatentLogLinear model = new LatentLogLinear(FACTORS).learningRate(.1).lambda(1e-3);
+    for (TestEvent event : data) {
+      model.train(event.left, event.right, event.y);
+    }
+
+    // odd right ids are filtered out
+    IntProcedure even = new IntProcedure() {
+      @Override
+      public boolean apply(int element) {
+        return element % 2 == 0;
+      }
+    };
+
+    int[] ids = new int[10];
+    double[] scores = new double[10];
+    MipsIndex index = model.rightIndex(8, 5);
+    for (int left = 0; left < 60; left++) {
+      int n = model.topK(left, 10, even, ids, scores);
+      assertEquals(10, n);
+
+      // the best score with brute force
+      double[] all = new double[30];
+      for (int right = 0; right < 60; right += 2) {
+        all[right / 2] = model.classifyScalar(left, right);
+      }
+      Arrays.sort(all);
+      for (int i = 0; i < n; i++) {
+        assertEquals(0, ids[i] % 2);
+        assertEquals(model.classifyScalar(left, ids[i]), scores[i], 0);
+        assertEquals(all[all.length - 1 - i], scores[i], 0);
+      }
+
+      // scanning every list of the index gives the exact answer
+      double[] approximate = new double[10];
+      assertEquals(10, model.topK(left, 10, even, index, index.getLists(), new int[10], approximate));
+      assertArrayEquals(scores, approximate, 0);
+    }
+
+    assertEquals(0, model.topK(1000, 10, null, ids, scores));
+  }
+
+  @Test
+  public void testMiniBatch() {
+    List<TestEvent> allData = syntheticData(200);
+    Collections.shuffle(allData, rand);
+    int cut = allData.size() * 4 / 5;
+    List<TestEvent> trainingData = allData.subList(0, cut);
+    List<TestEvent> testData = allData.subList(cut, allData.size());
+
+    LatentLogLinear online = new LatentLogLinear(FACTORS).learningRate(.1).lambda(1e-8);
+    MiniBatchLatentLogLinear batched =
+        new MiniBatchLatentLogLinear(new LatentLogLinear(FACTORS).learningRate(.1).lambda(1e-8), 100);
+    // timings are in LatentLogLinearBenchmarks, this only checks that batching learns as well
+    for (int i = 0; i < 10; i++) {
+      for (TestEvent event : trainingData) {
+        online.train(event.left, event.right, event.y);
+      }
+      for (TestEvent event : trainingData) {
+        batched.train(event.left, event.right, event.y);
+      }
+      batched.flush();
+    }
+
+    assertEquals(logLikelihood(online, testData), logLikelihood(batched.getModel(), testData), 0.1);
+  }
+
+  private double logLikelihood(LatentLogLinear model, List<TestEvent> data) {
+    OnlineSummarizer ll = new OnlineSummarizer();
+    for (TestEvent event : data) {
+      double phat = model.classifyScalar(event.left, event.right);
+      ll.add(event.y * Math.log(phat) + (1 - event.y) * Math.log(1 - phat));
+    }
+    return ll.getMean();
+  }
+
+  private List<TestEvent> syntheticData(int n) {
+    Matrix alpha = new DenseMatrix(n, FACTORS);
+    Matrix beta = new DenseMatrix(n, FACTORS);
+
+    alpha.assign(generator);
+    beta.assign(generator);
+    beta.getColumn(0).assign(1);
+
+    List<TestEvent> allData = Lists.newArrayList();
+    for (int left = 0; left < n; left++) {
+      for (int right = 0; right < n; right++) {
+        double p = logit(alpha.getRow(left).dot(beta.getRow(right)));
+        int y = rand.nextDouble() < p ? 1 : 0;
+        allData.add(new TestEvent(left, right, y, p));
+      }
+    }
+    return allData;
+  }
+
   private static class TestEvent {
     int left, right, y;
     double p;
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import org.apache.mahout.common.MahoutTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+public final class LogisticRegressionSnapshotTest extends MahoutTestCase {
+  private static final int FEATURES = 50000;
+
+  @Test
+  public void testDenseSnapshots() {
+    checkSnapshots(new OnlineLogisticRegression(2, FEATURES, new L1()).lambda(1.0e-3).learningRate(5));
+  }
+
+  @Test
+  public void testSparseSnapshots() {
+    checkSnapshots(new SparseOnlineLogisticRegression(2, FEATURES, new L2(1)).lambda(1.0e-3).learningRate(5));
+  }
+
+  private static void checkSnapshots(OnlineLogisticRegression model) {
+    Random gen = RandomUtils.getRandom();
+    Vector[] test = new Vector[100];
+    for (int i = 0; i < test.length; i++) {
+      test[i] = example(gen);
+    }
+
+    LogisticRegressionSnapshot previous = null;
+    double[] previousScores = new double[test.length];
+    for (int round = 0; round < 5; round++) {
+      for (int i = 0; i < 1000; i++) {
+        Vector v = example(gen);
+        model.train(target(v), v);
+      }
+
+      LogisticRegressionSnapshot snapshot = model.snapshot();
+      assertSame(snapshot, model.getSnapshot());
+      assertEquals(model.getStep(), snapshot.getStep());
+
+      // copying every block gives the same snapshot as copying the changed ones
+      LogisticRegressionSnapshot full = LogisticRegressionSnapshot.of(model, null, new BitSet());
+
+      for (int i = 0; i < test.length; i++) {
+        double p = snapshot.classifyScalar(test[i]);
+        assertEquals(p, full.classifyScalar(test[i]), 0);
+        assertEquals(p, snapshot.classify(test[i]).get(0), 1.0e-12);
+        if (previous != null) {
+          // older snapshots don't change as the model trains
+          assertEquals(previousScores[i], previous.classifyScalar(test[i]), 0);
+        }
+        previousScores[i] = p;
+      }
+
+      // the live model catches up on the prior as it scores, just as the snapshot does
+      for (Vector v : test) {
+        assertEquals(model.classifyScalar(v), snapshot.classifyScalar(v), 1.0e-10);
+      }
+      previous = snapshot;
+    }
+  }
+
+  @Test
+  public void testScoringWhileTraining() throws InterruptedException {
+    final OnlineLogisticRegression model = new OnlineLogisticRegression(2, FEATURES, new L1()).lambda(1.0e-4);
+    model.snapshot();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread trainer = new Thread() {
+      @Override
+      public void run() {
+        Random gen = RandomUtils.getRandom();
+        for (int i = 0; i < 50000; i++) {
+          Vector v = example(gen);
+          model.train(target(v), v);
+          if (i % 1000 == 0) {
+            model.snapshot();
+          }
+        }
+      }
+    };
+    Thread[] scorers = new Thread[3];
+    for (int t = 0; t < scorers.length; t++) {
+      scorers[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            Random gen = new Random();
+            for (int i = 0; i < 50000; i++) {
+              double p = model.getSnapshot().classifyScalar(example(gen));
+              if (!(p >= 0 && p <= 1)) {
+                throw new IllegalStateException("Bad probability " + p);
+              }
+            }
+          } catch (Throwable e) {
+            failure.set(e);
+          }
+        }
+      };
+    }
+    trainer.start();
+    for (Thread scorer : scorers) {
+      scorer.start();
+    }
+    trainer.join();
+    for (Thread scorer : scorers) {
+      scorer.join();
+    }
+    assertNull(failure.get());
+  }
+
+  private static Vector example(Random gen) {
+    Vector v = new RandomAccessSparseVector(FEATURES);
+    // cover a few blocks densely and the rest sparsely
+    for (int k = 0; k < 10; k++) {
+      v.set(gen.nextBoolean() ? gen.nextInt(2000) : gen.nextInt(FEATURES), gen.nextGaussian());
+    }
+    return v;
+  }
+
+  private static int target(Vector v) {
+    return v.get(0) + v.get(1) + v.get(2) > 0 ? 1 : 0;
+  }
+}
@@ -32,6 +32,10 @@ import org.apache.mahout.math.stats.GlobalOnlineAuc;
 import org.apache.mahout.math.stats.OnlineAuc;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.StringReader;
 import java.lang.reflect.Type;
 import java.util.Iterator;
@@ -121,6 +125,40 @@ public final class ModelSerializerTest extends MahoutTestCase {
     assertEquals(0, olr.getBeta().minus(olr2.getBeta()).aggregate(Functions.MAX, Functions.IDENTITY), 1.0e-6);
   }
 
+  @Test
+  public void sparseOnlineLogisticRegressionRoundTrip() {
+    OnlineLogisticRegression olr = new SparseOnlineLogisticRegression(2, 5, new L1());
+    train(olr, 100);
+    Gson gson = ModelSerializer.gson();
+    String s = gson.toJson(olr);
+    OnlineLogisticRegression olr2 = gson.fromJson(new StringReader(s), SparseOnlineLogisticRegression.class);
+    assertEquals(0, olr.getBeta().minus(olr2.getBeta()).aggregate(Functions.MAX, Functions.ABS), 1.0e-6);
+
+    train(olr, 100);
+    train(olr2, 100);
+
+    assertEquals(0, olr.getBeta().minus(olr2.getBeta()).aggregate(Functions.MAX, Functions.ABS), 1.0e-6);
+  }
+
+  @Test
+  public void ftrlRoundTrip() {
+    CrossFoldLearner learner = new CrossFoldLearner(5, new FtrlLogisticRegression(2, 5).lambda(0.1));
+    train(learner, 100);
+    Gson gson = ModelSerializer.gson();
+    String s = gson.toJson(learner);
+    CrossFoldLearner learner2 = gson.fromJson(new StringReader(s), CrossFoldLearner.class);
+    assertEquals(learner.auc(), learner2.auc(), 1.0e-6);
+    for (int i = 0; i < 5; i++) {
+      FtrlLogisticRegression a = (FtrlLogisticRegression) learner.getModels().get(i);
+      FtrlLogisticRegression b = (FtrlLogisticRegression) learner2.getModels().get(i);
+      assertEquals(0, a.getBeta().minus(b.getBeta()).aggregate(Functions.MAX, Functions.ABS), 1.0e-6);
+    }
+
+    train(learner, 100);
+    train(learner2, 100);
+    assertEquals(learner.auc(), learner2.auc(), 0.02);
+  }
+
   @Test
   public void crossFoldLearnerRoundTrip() {
     CrossFoldLearner learner = new CrossFoldLearner(5, 2, 5, new L1());
@@ -187,6 +225,96 @@ public final class ModelSerializerTest extends MahoutTestCase {
     }
   }
 
+  @Test
+  public void latentLogLinearBinaryRoundTrip() throws IOException {
+    LatentLogLinear model = new LatentLogLinear(3).learningRate(0.2).lambda(1.0e-3);
+    trainDyads(model, 2000);
+    // leave a gap of rows that have never been touched
+    model.classifyScalar(50, 60);
+
+    File file = getTestTempFile("model.bin");
+    ModelSerializer.writeBinary(file.getPath(), model);
+    LatentLogLinear model2 = ModelSerializer.readBinary(file.getPath());
+    assertEquals(model.getLambda(), model2.getLambda(), 0);
+
+    MappedLatentLogLinear mapped = ModelSerializer.mapBinary(file);
+    assertEquals(3, mapped.getFactors());
+    assertEquals(51, mapped.getLeftRows());
+    assertTrue(Double.isNaN(mapped.classifyScalar(30, 0)));
+    assertTrue(Double.isNaN(mapped.classifyScalar(0, 30)));
+    assertTrue(Double.isNaN(mapped.classifyScalar(100, 0)));
+
+    for (int left = 0; left < 20; left++) {
+      for (int right = 0; right < 20; right++) {
+        assertEquals(model.classifyScalar(left, right), model2.classifyScalar(left, right), 0);
+        assertEquals(model.classifyScalar(left, right), mapped.classifyScalar(left, right), 0);
+      }
+    }
+
+    // update counts and learning rates were kept so further training goes the same way
+    model.rankMixRate = 0;
+    model2.rankMixRate = 0;
+    trainDyads(model, 1000);
+    trainDyads(model2, 1000);
+    for (int left = 0; left < 20; left++) {
+      for (int right = 0; right < 20; right++) {
+        assertEquals(model.classifyScalar(left, right), model2.classifyScalar(left, right), 0);
+      }
+    }
+  }
+
+  @Test
+  public void latentLogLinearBinaryKeepsEagerPrior() throws IOException {
+    LatentLogLinear model = new LatentLogLinear(3).learningRate(0.2).lambda(1.0e-3).lazyRegularization(false);
+    trainDyads(model, 2000);
+
+    File file = getTestTempFile("eager.bin");
+    ModelSerializer.writeBinary(file.getPath(), model);
+    LatentLogLinear model2 = ModelSerializer.readBinary(file.getPath());
+    assertFalse(model2.leftModel().isLazy());
+    assertFalse(model2.rightModel().isLazy());
+
+    // the prior is still only applied to rows as they are trained
+    model.rankMixRate = 0;
+    model2.rankMixRate = 0;
+    trainDyads(model, 1000);
+    trainDyads(model2, 1000);
+    MappedLatentLogLinear mapped = ModelSerializer.mapBinary(file);
+    for (int left = 0; left < 20; left++) {
+      for (int right = 0; right < 20; right++) {
+        assertEquals(model.classifyScalar(left, right), model2.classifyScalar(left, right), 0);
+      }
+    }
+    assertEquals(ModelSerializer.readBinary(file.getPath()).classifyScalar(3, 4), mapped.classifyScalar(3, 4), 0);
+  }
+
+  @Test
+  public void latentLogLinearJsonRoundTrip() {
+    LatentLogLinear model = new LatentLogLinear(3).learningRate(0.2).lambda(1.0e-3);
+    trainDyads(model, 2000);
+    Gson gson = ModelSerializer.gson();
+    LatentLogLinear model2 = gson.fromJson(new StringReader(gson.toJson(model)), LatentLogLinear.class);
+    for (int left = 0; left < 20; left++) {
+      for (int right = 0; right < 20; right++) {
+        assertEquals(model.classifyScalar(left, right), model2.classifyScalar(left, right), 0);
+      }
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void latentLogLinearBadMagic() throws IOException {
+    ModelSerializer.readBinary(new DataInputStream(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 0, 0, 0, 1})));
+  }
+
+  private static void trainDyads(LatentLogLinear model, int n) {
+    Random gen = RandomUtils.getRandom();
+    for (int i = 0; i < n; i++) {
+      int left = gen.nextInt(20);
+      int right = gen.nextInt(20);
+      model.train(left, right, (left + right) % 2);
+    }
+  }
+
   private static void train(OnlineLearner olr, int n) {
     Vector beta = new DenseVector(new double[]{1, -1, 0, 0.5, -0.5});
     Random gen = RandomUtils.getRandom();
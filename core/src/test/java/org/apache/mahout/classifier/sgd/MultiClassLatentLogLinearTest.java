@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import org.apache.mahout.common.MahoutTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+import java.util.Random;
+
+public final class MultiClassLatentLogLinearTest extends MahoutTestCase {
+  private static final int ITEMS = 30;
+
+  @Test
+  public void testMultinomial() {
+    // the category depends on the pair of ids in a way that has no order
+    Random gen = RandomUtils.getRandom();
+    MultinomialLatentLogLinear model = new MultinomialLatentLogLinear(3, 3);
+    model.learningRate(0.5);
+    for (int i = 0; i < 300000; i++) {
+      int left = gen.nextInt(ITEMS);
+      int right = gen.nextInt(ITEMS);
+      model.train(left, right, (left + right) % 3);
+    }
+
+    double[] p = new double[3];
+    int errors = 0;
+    for (int left = 0; left < ITEMS; left++) {
+      for (int right = 0; right < ITEMS; right++) {
+        int c = model.classify(left, right, p);
+        checkDistribution(p);
+        if (c != (left + right) % 3) {
+          errors++;
+        }
+      }
+    }
+    assertTrue("Too many errors: " + errors, errors < ITEMS * ITEMS / 10);
+  }
+
+  @Test
+  public void testOrdinal() {
+    // ratings from 0 to 4 that grow with the product of hidden item values
+    Random gen = RandomUtils.getRandom();
+    double[] a = new double[ITEMS];
+    double[] b = new double[ITEMS];
+    for (int i = 0; i < ITEMS; i++) {
+      a[i] = 4 * gen.nextDouble() - 2;
+      b[i] = 4 * gen.nextDouble() - 2;
+    }
+
+    OrdinalLatentLogLinear model = new OrdinalLatentLogLinear(5, 2);
+    model.learningRate(0.2);
+    for (int i = 0; i < 300000; i++) {
+      int left = gen.nextInt(ITEMS);
+      int right = gen.nextInt(ITEMS);
+      model.train(left, right, rating(a[left] * b[right] + 0.3 * gen.nextGaussian()));
+    }
+
+    double[] cuts = model.getCuts();
+    for (int c = 1; c < cuts.length; c++) {
+      assertTrue(cuts[c] >= cuts[c - 1]);
+    }
+
+    double[] p = new double[5];
+    double error = 0;
+    for (int left = 0; left < ITEMS; left++) {
+      for (int right = 0; right < ITEMS; right++) {
+        model.classifyFull(left, right, p);
+        checkDistribution(p);
+        double mean = 0;
+        for (int c = 0; c < 5; c++) {
+          mean += c * p[c];
+        }
+        error += Math.abs(mean - rating(a[left] * b[right]));
+      }
+    }
+    // always guessing the middle rating would be off by about one on average
+    assertTrue("Mean error too large: " + error, error / (ITEMS * ITEMS) < 0.4);
+  }
+
+  @Test
+  public void testUntrained() {
+    OrdinalLatentLogLinear model = new OrdinalLatentLogLinear(4, 2);
+    model.train(0, 0, 1);
+    double[] p = new double[4];
+    model.classifyFull(0, 1, p);
+    assertTrue(Double.isNaN(p[0]));
+    assertEquals(-1, model.classify(1, 0, p));
+
+    try {
+      model.train(0, 0, 4);
+      fail("Should have rejected category");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  private static int rating(double x) {
+    return (int) Math.max(0, Math.min(4, Math.round(x + 2)));
+  }
+
+  private static void checkDistribution(double[] p) {
+    double sum = 0;
+    for (double v : p) {
+      assertTrue(v >= 0 && v <= 1);
+      sum += v;
+    }
+    assertEquals(1, sum, 1.0e-9);
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import org.apache.mahout.common.MahoutTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+import java.util.Random;
+
+public final class NegativeSamplerTest extends MahoutTestCase {
+  @Test
+  public void testAliasTable() {
+    double[] weights = {1, 0, 3, 6, 0.5, 9.5};
+    NegativeSampler.AliasTable table = new NegativeSampler.AliasTable(weights);
+    Random rand = RandomUtils.getRandom();
+    int[] counts = new int[weights.length];
+    int n = 200000;
+    for (int i = 0; i < n; i++) {
+      counts[table.sample(rand)]++;
+    }
+    for (int i = 0; i < weights.length; i++) {
+      assertEquals(weights[i] / 20, (double) counts[i] / n, 0.005);
+    }
+  }
+
+  @Test
+  public void testRecentOppositeLabel() {
+    NegativeSampler sampler = new NegativeSampler(3).popularityMix(0);
+    Random rand = RandomUtils.getRandom();
+    assertEquals(-1, sampler.sample(5, 1, 1, rand));
+
+    // left 5 saw 10..19 as negatives and 20 as a positive, left 2000 saw 30 as a negative
+    for (int r = 10; r < 20; r++) {
+      sampler.observe(5, r, 0);
+    }
+    sampler.observe(5, 20, 1);
+    sampler.observe(2000, 30, 0);
+
+    for (int i = 0; i < 100; i++) {
+      // only the last three negatives are remembered
+      int r = sampler.sample(5, 20, 1, rand);
+      assertTrue(r >= 17 && r < 20);
+      assertEquals(20, sampler.sample(5, 12, 0, rand));
+      assertEquals(30, sampler.sample(2000, 1, 1, rand));
+    }
+    assertEquals(-1, sampler.sample(2000, 30, 0, rand));
+  }
+
+  @Test
+  public void testPopularNegatives() {
+    NegativeSampler sampler = new NegativeSampler(3).popularityMix(1).popularityPower(1);
+    // right 7 is four times as popular as right 8
+    for (int i = 0; i < 1000; i++) {
+      sampler.observe(i, 7, 1);
+      sampler.observe(i, 7, 1);
+      sampler.observe(i, 7, 1);
+      sampler.observe(i, 7, 1);
+      sampler.observe(i, 8, 1);
+    }
+    Random rand = RandomUtils.getRandom();
+    int sevens = 0;
+    int eights = 0;
+    for (int i = 0; i < 10000; i++) {
+      int r = sampler.sample(1, 3, 1, rand);
+      if (r == 7) {
+        sevens++;
+      } else if (r == 8) {
+        eights++;
+      }
+    }
+    assertEquals(10000, sevens + eights);
+    assertEquals(4.0, (double) sevens / eights, 0.3);
+
+    // never pairs a dyad with itself
+    for (int i = 0; i < 100; i++) {
+      assertTrue(sampler.sample(1, 7, 1, rand) != 7);
+    }
+  }
+
+  @Test
+  public void testRanksSortedInput() {
+    // each left id likes the right ids with the same parity, and sees all of its negatives before
+    // any of its positives
+    LatentLogLinear model = new LatentLogLinear(2).learningRate(0.1).lambda(1.0e-8).rankMixRate(0.5)
+        .negativeSampler(new NegativeSampler(10));
+    for (int epoch = 0; epoch < 20; epoch++) {
+      for (int left = 0; left < 40; left++) {
+        for (int label = 0; label < 2; label++) {
+          for (int right = 0; right < 40; right++) {
+            if ((left + right + 1) % 2 == label) {
+              model.train(left, right, label);
+            }
+          }
+        }
+      }
+    }
+
+    int correct = 0;
+    int pairs = 0;
+    for (int left = 0; left < 40; left++) {
+      for (int right = 0; right < 40; right += 2) {
+        double liked = model.classifyScalar(left, right + left % 2);
+        double disliked = model.classifyScalar(left, right + 1 - left % 2);
+        if (liked > disliked) {
+          correct++;
+        }
+        pairs++;
+      }
+    }
+    assertTrue("Only " + correct + " of " + pairs + " pairs ranked correctly", correct > 0.95 * pairs);
+  }
+}
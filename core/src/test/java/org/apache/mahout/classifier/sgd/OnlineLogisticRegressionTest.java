@@ -30,6 +30,7 @@ import org.apache.mahout.common.RandomUtils;
 import org.apache.mahout.math.DenseMatrix;
 import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.RandomAccessSparseVector;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.function.Functions;
 import org.junit.Test;
@@ -87,6 +88,163 @@ public final class OnlineLogisticRegressionTest extends MahoutTestCase {
     assertEquals(1, lr.auc(), 0.1);
   }
 
+  @Test
+  public void concurrentCrossValidation() throws IOException {
+    Matrix data = readCsv("cancer.csv");
+    CrossFoldLearner serial = new CrossFoldLearner(5, 2, 10, new L1())
+            .stepOffset(10)
+            .decayExponent(0.7)
+            .lambda(1 * 1.0e-3)
+            .learningRate(5);
+    CrossFoldLearner concurrent = new CrossFoldLearner(5, 2, 10, new L1())
+            .stepOffset(10)
+            .decayExponent(0.7)
+            .lambda(1 * 1.0e-3)
+            .learningRate(5)
+            .concurrent(true);
+
+    // both AUC estimators need to make the same random choices
+    RandomUtils.useTestSeed();
+    Random gen = RandomUtils.getRandom();
+    int[] ordering = permute(gen, data.numRows());
+    // the concurrent learner has to copy examples since this vector is reused
+    Vector instance = new DenseVector(10);
+    for (int epoch = 0; epoch < 20; epoch++) {
+      for (int row : ordering) {
+        instance.assign(data.viewRow(row));
+        serial.train(row, (int) data.get(row, 9), instance);
+        concurrent.train(row, (int) data.get(row, 9), instance);
+      }
+
+      // each fold sees the same records in the same order so the results should be identical
+      serial.close();
+      concurrent.close();
+      assertEquals(serial.auc(), concurrent.auc(), 0);
+      assertEquals(serial.logLikelihood(), concurrent.logLikelihood(), 0);
+      assertEquals(serial.percentCorrect(), concurrent.percentCorrect(), 0);
+      for (int i = 0; i < 5; i++) {
+        OnlineLogisticRegression a = (OnlineLogisticRegression) serial.getModels().get(i);
+        OnlineLogisticRegression b = (OnlineLogisticRegression) concurrent.getModels().get(i);
+        assertTrue(b.isSealed());
+        assertEquals(0, a.getBeta().minus(b.getBeta()).aggregate(Functions.PLUS, Functions.ABS), 0);
+      }
+    }
+    assertEquals(1, concurrent.auc(), 0.1);
+    assertTrue(concurrent.copy().isConcurrent());
+  }
+
+  @Test
+  public void sparseMatchesDense() {
+    RandomUtils.useTestSeed();
+    Random gen = RandomUtils.getRandom();
+
+    // a wide feature space of which only a few hundred features are ever used
+    OnlineLogisticRegression dense = new OnlineLogisticRegression(2, 100000, new L1()).lambda(1.0e-3).learningRate(5);
+    OnlineLogisticRegression sparse =
+        new SparseOnlineLogisticRegression(2, 100000, new L1()).lambda(1.0e-3).learningRate(5);
+    for (int i = 0; i < 2000; i++) {
+      Vector v = new RandomAccessSparseVector(100000);
+      double dot = 0;
+      for (int k = 0; k < 5; k++) {
+        int j = 1000 * gen.nextInt(100);
+        double x = gen.nextGaussian();
+        v.set(j, x);
+        dot += (j % 3 - 1) * x;
+      }
+      int actual = dot > 0 ? 1 : 0;
+      assertEquals(dense.classifyScalar(v), sparse.classifyScalar(v), 1.0e-12);
+      dense.train(actual, v);
+      sparse.train(actual, v);
+    }
+
+    dense.close();
+    sparse.close();
+    assertEquals(0, dense.getBeta().minus(sparse.getBeta()).aggregate(Functions.MAX, Functions.ABS), 1.0e-12);
+    assertTrue(sparse.getBeta().getRow(0).getNumNondefaultElements() <= 100);
+
+    // copies stay sparse and keep learning the same way, copies aren't sealed so both are trained
+    // and closed at the same step before comparing.  Like dense copies they don't keep lambda.
+    OnlineLogisticRegression copy = sparse.copy();
+    assertTrue(copy instanceof SparseOnlineLogisticRegression);
+    copy.lambda(1.0e-3);
+    assertEquals(sparse.getStep(), copy.getStep());
+    for (int i = 0; i < 100; i++) {
+      Vector v = new RandomAccessSparseVector(100000);
+      v.set(1000 * gen.nextInt(100), gen.nextGaussian());
+      int actual = gen.nextInt(2);
+      sparse.train(actual, v);
+      copy.train(actual, v);
+    }
+    sparse.close();
+    copy.close();
+    assertEquals(sparse.getStep(), copy.getStep());
+    assertEquals(0, copy.getBeta().minus(sparse.getBeta()).aggregate(Functions.MAX, Functions.ABS), 1.0e-12);
+  }
+
+  @Test
+  public void binaryFastPath() throws IOException {
+    Vector target = readStandardData();
+
+    OnlineLogisticRegression fast = new OnlineLogisticRegression(2, 8, new L1()).lambda(1.0e-3).learningRate(50);
+    OnlineLogisticRegression general = new OnlineLogisticRegression(2, 8, new L1()).lambda(1.0e-3).learningRate(50);
+    // any other gradient forces the general training code
+    general.setGradient(new Gradient() {
+      private final Gradient delegate = new DefaultGradient();
+
+      @Override
+      public Vector apply(String groupKey, int actual, Vector instance, AbstractVectorClassifier classifier) {
+        return delegate.apply(groupKey, actual, instance, classifier);
+      }
+    });
+
+    RandomUtils.useTestSeed();
+    Random gen = RandomUtils.getRandom();
+    for (int epoch = 0; epoch < 5; epoch++) {
+      for (int row : permute(gen, 60)) {
+        Vector instance = input.getRow(row);
+        assertEquals(general.classifyScalar(instance), fast.classifyScalar(instance), 1.0e-10);
+        fast.train((int) target.get(row), instance);
+        general.train((int) target.get(row), instance);
+        assertEquals(general.getStep(), fast.getStep());
+      }
+    }
+    fast.close();
+    general.close();
+    assertEquals(0, general.getBeta().minus(fast.getBeta()).aggregate(Functions.MAX, Functions.ABS), 1.0e-10);
+    test(input, target, fast);
+  }
+
+  @Test
+  public void classifyScalarWithoutFastPath() throws IOException {
+    Vector target = readStandardData();
+
+    // both models take the general path, the baseline is scored the way classifyScalar used to
+    OnlineLogisticRegression lr = withoutFastPath();
+    OnlineLogisticRegression baseline = withoutFastPath();
+
+    RandomUtils.useTestSeed();
+    Random gen = RandomUtils.getRandom();
+    for (int epoch = 0; epoch < 5; epoch++) {
+      for (int row : permute(gen, 60)) {
+        Vector instance = input.getRow(row);
+        baseline.regularize(instance);
+        assertEquals(baseline.link(baseline.classifyScalarNoLink(instance)), lr.classifyScalar(instance), 0);
+        assertEquals(0, baseline.getBeta().minus(lr.getBeta()).aggregate(Functions.MAX, Functions.ABS), 0);
+        lr.train((int) target.get(row), instance);
+        baseline.train((int) target.get(row), instance);
+      }
+    }
+  }
+
+  private static OnlineLogisticRegression withoutFastPath() {
+    return new OnlineLogisticRegression(2, 8, new L1()) {
+      @Override
+      protected boolean binaryFastPath() {
+        return false;
+      }
+    }.lambda(1.0e-3).learningRate(50);
+  }
+
   /**
    * Verifies that a classifier with known coefficients does the right thing.
    */
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import org.apache.mahout.common.MahoutTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+import java.util.Random;
+
+public final class ServingLatentLogLinearTest extends MahoutTestCase {
+  private static final int ITEMS = 40;
+
+  @Test
+  public void testSnapshots() {
+    LatentLogLinear model = new LatentLogLinear(5).learningRate(0.2).lambda(1.0e-4);
+    Random gen = RandomUtils.getRandom();
+    int n = 20000;
+    int[] left = new int[n];
+    int[] right = new int[n];
+    int[] actual = new int[n];
+    for (int i = 0; i < n; i++) {
+      left[i] = gen.nextInt(ITEMS);
+      right[i] = gen.nextInt(ITEMS);
+      actual[i] = (left[i] + right[i]) % 3 == 0 ? 1 : 0;
+      model.train(left[i], right[i], actual[i]);
+    }
+
+    ServingLatentLogLinear floats = ServingLatentLogLinear.floats(model);
+    ServingLatentLogLinear bytes = ServingLatentLogLinear.bytes(model);
+    for (int i = 0; i < ITEMS; i++) {
+      for (int j = 0; j < ITEMS; j++) {
+        double p = model.classifyScalar(i, j);
+        assertEquals(p, floats.classifyScalar(i, j), 1.0e-5);
+        assertEquals(p, bytes.classifyScalar(i, j), 0.05);
+      }
+    }
+    assertTrue(Double.isNaN(floats.classifyScalar(ITEMS, 0)));
+    assertTrue(Double.isNaN(bytes.classifyScalar(0, -1)));
+
+    ServingLatentLogLinear.Drift drift = floats.drift(model, left, right, actual);
+    assertEquals(n, drift.getCount());
+    assertTrue(drift.getReferenceAuc() > 0.9);
+    assertEquals(drift.getReferenceAuc(), drift.getAuc(), 1.0e-4);
+    assertEquals(drift.getReferenceLogLikelihood(), drift.getLogLikelihood(), 1.0e-4);
+
+    drift = bytes.drift(model, left, right, actual);
+    assertEquals(drift.getReferenceAuc(), drift.getAuc(), 0.01);
+    assertEquals(drift.getReferenceLogLikelihood(), drift.getLogLikelihood(), 0.02);
+    assertTrue(drift.getMaxDifference() > 0);
+  }
+
+  @Test
+  public void testAuc() {
+    assertEquals(1, ServingLatentLogLinear.auc(new double[]{0.1, 0.2, 0.8, 0.9}, new int[]{0, 0, 1, 1}, 4), 0);
+    assertEquals(0.75, ServingLatentLogLinear.auc(new double[]{0.1, 0.5, 0.6, 0.9}, new int[]{0, 1, 0, 1}, 4), 0);
+    // ties count half
+    assertEquals(0.5, ServingLatentLogLinear.auc(new double[]{0.5, 0.5}, new int[]{0, 1}, 2), 0);
+  }
+
+  @Test
+  public void testArraySize() {
+    assertEquals(6000, ServingLatentLogLinear.arraySize(1000, 6));
+    // 2^28 rows of 16 factors is more than one array can hold
+    try {
+      ServingLatentLogLinear.arraySize(1 << 28, 16);
+      fail("Expected the size to be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertEquals(((1 << 27) - 1) * 16, ServingLatentLogLinear.offset((1 << 27) - 1, 16));
+  }
+
+  @Test
+  public void testSnapshotWhileTraining() throws InterruptedException {
+    final LatentLogLinear model = new LatentLogLinear(5);
+    Thread trainer = new Thread() {
+      @Override
+      public void run() {
+        Random gen = RandomUtils.getRandom();
+        for (int i = 0; i < 200000; i++) {
+          int left = gen.nextInt(10 * ITEMS);
+          int right = gen.nextInt(10 * ITEMS);
+          model.train(left, right, (left + right) % 2);
+        }
+      }
+    };
+    trainer.start();
+    for (int i = 0; i < 20; i++) {
+      ServingLatentLogLinear snapshot = ServingLatentLogLinear.bytes(model);
+      double p = snapshot.classifyScalar(0, 0);
+      assertTrue(Double.isNaN(p) || (p >= 0 && p <= 1));
+    }
+    trainer.join();
+  }
+}
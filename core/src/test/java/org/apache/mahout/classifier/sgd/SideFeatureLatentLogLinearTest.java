@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import org.apache.mahout.common.MahoutTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.vectorizer.encoders.ConstantValueEncoder;
+import org.apache.mahout.vectorizer.encoders.FeatureVectorEncoder;
+import org.apache.mahout.vectorizer.encoders.StaticWordValueEncoder;
+import org.junit.Test;
+
+import java.util.Random;
+
+public final class SideFeatureLatentLogLinearTest extends MahoutTestCase {
+  private static final int ITEMS = 300;
+  private static final int TRAINED = 250;
+  private static final int CATEGORIES = 4;
+  private static final int FEATURES = 1000;
+
+  private final FeatureVectorEncoder category = new StaticWordValueEncoder("category");
+  private final FeatureVectorEncoder bias = new ConstantValueEncoder("bias");
+
+  @Test
+  public void testColdStart() {
+    Random gen = RandomUtils.getRandom();
+    int[] leftCategory = new int[ITEMS];
+    int[] rightCategory = new int[ITEMS];
+    Vector[] left = new Vector[ITEMS];
+    Vector[] right = new Vector[ITEMS];
+    for (int i = 0; i < ITEMS; i++) {
+      leftCategory[i] = gen.nextInt(CATEGORIES);
+      rightCategory[i] = gen.nextInt(CATEGORIES);
+      left[i] = features(leftCategory[i]);
+      right[i] = features(rightCategory[i]);
+    }
+    Vector dyad = new RandomAccessSparseVector(FEATURES);
+    bias.addToVector("", dyad);
+
+    // dyads are mostly positive when the categories match
+    SideFeatureLatentLogLinear model = new SideFeatureLatentLogLinear(3).learningRate(0.2).lambda(1.0e-6);
+    for (int n = 0; n < 200000; n++) {
+      int i = gen.nextInt(TRAINED);
+      int j = gen.nextInt(TRAINED);
+      int actual = (leftCategory[i] == rightCategory[j]) ^ (gen.nextDouble() < 0.1) ? 1 : 0;
+      model.train(i, j, left[i], right[j], dyad, actual);
+    }
+
+    // items that were never trained are scored by their features
+    int errors = 0;
+    int total = 0;
+    for (int i = TRAINED; i < ITEMS; i++) {
+      for (int j = TRAINED; j < ITEMS; j++) {
+        double p = model.classifyScalar(i, j, left[i], right[j], dyad);
+        assertFalse(Double.isNaN(p));
+        if ((p > 0.5) != (leftCategory[i] == rightCategory[j])) {
+          errors++;
+        }
+        total++;
+      }
+    }
+    assertTrue("Too many errors: " + errors, errors < total / 20);
+
+    // with neither ids nor features, only the bias is left
+    double p = model.classifyScalar(-1, -1, null, null, dyad);
+    assertEquals(p, model.classifyScalar(ITEMS, ITEMS, null, null, dyad), 0);
+    assertTrue(p < 0.5);
+  }
+
+  private Vector features(int value) {
+    Vector r = new RandomAccessSparseVector(FEATURES);
+    category.addToVector(String.valueOf(value), r);
+    return r;
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.classifier.sgd;
+
+import org.apache.mahout.common.MahoutTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class StratifiedLatentLogLinearTest extends MahoutTestCase {
+  private static final int FACTORS = 2;
+  private static final int ITEMS = 50;
+
+  @Test
+  public void testThreadCountDoesNotMatter() {
+    RandomUtils.useTestSeed();
+    int[][] data = syntheticData(RandomUtils.getRandom(), 50000);
+
+    RandomUtils.useTestSeed();
+    StratifiedLatentLogLinear serial = new StratifiedLatentLogLinear(
+        new LatentLogLinear(FACTORS).learningRate(.1).lambda(1e-6), 4, 1, 10000);
+    train(serial, data);
+
+    RandomUtils.useTestSeed();
+    StratifiedLatentLogLinear parallel = new StratifiedLatentLogLinear(
+        new LatentLogLinear(FACTORS).learningRate(.1).lambda(1e-6), 4, 4, 10000);
+    train(parallel, data);
+
+    for (int left = 0; left < ITEMS; left++) {
+      for (int right = 0; right < ITEMS; right++) {
+        assertEquals(serial.getModel().classifyScalar(left, right),
+            parallel.getModel().classifyScalar(left, right), 0);
+      }
+    }
+  }
+
+  @Test
+  public void testIgnoresSampler() {
+    RandomUtils.useTestSeed();
+    int[][] data = syntheticData(RandomUtils.getRandom(), 50000);
+
+    // sampled ids could come from other strata, so rank based training stays with the default
+    RandomUtils.useTestSeed();
+    StratifiedLatentLogLinear plain = new StratifiedLatentLogLinear(
+        new LatentLogLinear(FACTORS).learningRate(.1).lambda(1e-6).rankMixRate(0.5), 4, 4, 10000);
+    train(plain, data);
+
+    RandomUtils.useTestSeed();
+    StratifiedLatentLogLinear sampled = new StratifiedLatentLogLinear(
+        new LatentLogLinear(FACTORS).learningRate(.1).lambda(1e-6).rankMixRate(0.5)
+            .negativeSampler(new NegativeSampler(10)), 4, 4, 10000);
+    train(sampled, data);
+
+    for (int left = 0; left < ITEMS; left++) {
+      for (int right = 0; right < ITEMS; right++) {
+        assertEquals(plain.getModel().classifyScalar(left, right),
+            sampled.getModel().classifyScalar(left, right), 0);
+      }
+    }
+  }
+
+  @Test
+  public void testLearns() {
+    RandomUtils.useTestSeed();
+    int[][] data = syntheticData(RandomUtils.getRandom(), 100000);
+
+    StratifiedLatentLogLinear learner = new StratifiedLatentLogLinear(
+        new LatentLogLinear(FACTORS).learningRate(.1).lambda(1e-6), 3, 3, 20000).passes(3);
+    train(learner, data);
+
+    int errors = 0;
+    for (int[] row : data) {
+      double p = learner.getModel().classifyScalar(row[0], row[1]);
+      if ((p > 0.5 ? 1 : 0) != row[2]) {
+        errors++;
+      }
+    }
+    assertTrue("Too many errors: " + errors, errors < data.length / 10);
+  }
+
+  private static void train(StratifiedLatentLogLinear learner, int[][] data) {
+    for (int[] row : data) {
+      learner.train(row[0], row[1], row[2]);
+    }
+    learner.close();
+  }
+
+  /**
+   * Dyads where the label is 1 when left and right ids have the same parity.
+   */
+  private static int[][] syntheticData(Random gen, int n) {
+    int[][] r = new int[n][];
+    for (int i = 0; i < n; i++) {
+      int left = gen.nextInt(ITEMS);
+      int right = gen.nextInt(ITEMS);
+      r[i] = new int[]{left, right, (left + right) % 2 == 0 ? 1 : 0};
+    }
+    return r;
+  }
+}
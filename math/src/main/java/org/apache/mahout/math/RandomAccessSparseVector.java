@@ -94,6 +94,17 @@ public class RandomAccessSparseVector extends AbstractVector {
     return result.toString();
   }
 
+  @Override
+  public Vector assign(double value) {
+    if (value == 0.0) {
+      // no need to visit every index to clear the vector
+      lengthSquared = -1.0;
+      values.clear();
+      return this;
+    }
+    return super.assign(value);
+  }
+
   @Override
   public Vector assign(Vector other) {
     if (size() != other.size()) {
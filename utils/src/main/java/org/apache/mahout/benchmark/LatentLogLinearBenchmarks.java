@@ -0,0 +1,683 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.benchmark;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.mahout.classifier.sgd.AbstractMultiClassLatentLogLinear;
+import org.apache.mahout.classifier.sgd.BlockSparseMatrix;
+import org.apache.mahout.classifier.sgd.FactorMatrix;
+import org.apache.mahout.classifier.sgd.HogwildLatentLogLinear;
+import org.apache.mahout.classifier.sgd.LatentLogLinear;
+import org.apache.mahout.classifier.sgd.MiniBatchLatentLogLinear;
+import org.apache.mahout.classifier.sgd.MipsIndex;
+import org.apache.mahout.classifier.sgd.ModelSerializer;
+import org.apache.mahout.classifier.sgd.MultinomialLatentLogLinear;
+import org.apache.mahout.classifier.sgd.NegativeSampler;
+import org.apache.mahout.classifier.sgd.OrdinalLatentLogLinear;
+import org.apache.mahout.classifier.sgd.ServingLatentLogLinear;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.common.TimingStatistics;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.Vector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the storage and training paths used by {@link org.apache.mahout.classifier.sgd.LatentLogLinear}.
+ * <p/>
+ * Usage: LatentLogLinearBenchmarks [rows [factors [loop [opsPerUnit [maxThreads]]]]]
+ */
+public class LatentLogLinearBenchmarks {
+
+  private static final Logger log = LoggerFactory.getLogger(LatentLogLinearBenchmarks.class);
+
+  private final int rows;
+  private final int factors;
+  private final int loop;
+  private final int opsPerUnit;
+
+  // random row ids used for access patterns, shared by all implementations
+  private final int[] leftIds;
+  private final int[] rightIds;
+
+  public LatentLogLinearBenchmarks(int rows, int factors, int loop, int opsPerUnit) {
+    this.rows = rows;
+    this.factors = factors;
+    this.loop = loop;
+    this.opsPerUnit = opsPerUnit;
+
+    Random gen = RandomUtils.getRandom();
+    leftIds = new int[opsPerUnit];
+    rightIds = new int[opsPerUnit];
+    for (int i = 0; i < opsPerUnit; i++) {
+      leftIds[i] = gen.nextInt(rows);
+      rightIds[i] = gen.nextInt(rows);
+    }
+  }
+
+  private void printStats(TimingStatistics stats, String benchmarkName, String implName, String content) {
+    float opsPerSec = stats.getNCalls() * (float) opsPerUnit * 1000000000.0f / stats.getSumTime();
+    log.info("{} {} \n{} {} \nSpeed: {} ops/sec", new Object[] {benchmarkName, implName, content, stats, opsPerSec});
+  }
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private Matrix fill(Matrix m) {
+    Random gen = RandomUtils.getRandom();
+    for (int row = 0; row < rows; row++) {
+      for (int column = 0; column < factors; column++) {
+        m.setQuick(row, column, gen.nextGaussian());
+      }
+    }
+    return m;
+  }
+
+  /**
+   * Compares the heap needed to hold all rows of a factor matrix.
+   */
+  public void memoryBenchmark() {
+    long before = usedMemory();
+    Matrix m = fill(new BlockSparseMatrix(factors));
+    long after = usedMemory();
+    log.info("Memory BlockSparseMatrix {} rows x {} factors: {} bytes/row",
+        new Object[] {m.rowSize(), factors, (after - before) / rows});
+
+    m = null;
+    before = usedMemory();
+    m = fill(new FactorMatrix(factors));
+    after = usedMemory();
+    log.info("Memory FactorMatrix {} rows x {} factors: {} bytes/row",
+        new Object[] {m.rowSize(), factors, (after - before) / rows});
+  }
+
+  /**
+   * Compares row access in the style of LatentLogLinear.train, that is, fetch two rows, take their
+   * dot product and nudge one of them.
+   */
+  public void rowAccessBenchmark() {
+    Matrix bsm = fill(new BlockSparseMatrix(factors));
+    double sum = 0;
+    TimingStatistics stats = new TimingStatistics();
+    for (int l = 0; l < loop; l++) {
+      TimingStatistics.Call call = stats.newCall();
+      for (int i = 0; i < opsPerUnit; i++) {
+        Vector u = bsm.getRow(leftIds[i]);
+        Vector v = bsm.getRow(rightIds[i]);
+        double r = u.dot(v);
+        sum += r;
+        u.setQuick(0, u.getQuick(0) - 1.0e-9 * r);
+      }
+      call.end();
+    }
+    // print result to prevent hotspot from eliminating deadcode
+    printStats(stats, "RowAccess", "BlockSparseMatrix", "sum = " + sum + ' ');
+
+    FactorMatrix fm = (FactorMatrix) fill(new FactorMatrix(factors));
+    sum = 0;
+    stats = new TimingStatistics();
+    for (int l = 0; l < loop; l++) {
+      TimingStatistics.Call call = stats.newCall();
+      for (int i = 0; i < opsPerUnit; i++) {
+        Vector u = fm.getRow(leftIds[i]);
+        Vector v = fm.getRow(rightIds[i]);
+        double r = u.dot(v);
+        sum += r;
+        u.setQuick(0, u.getQuick(0) - 1.0e-9 * r);
+      }
+      call.end();
+    }
+    printStats(stats, "RowAccess", "FactorMatrix.getRow", "sum = " + sum + ' ');
+
+    sum = 0;
+    stats = new TimingStatistics();
+    for (int l = 0; l < loop; l++) {
+      TimingStatistics.Call call = stats.newCall();
+      for (int i = 0; i < opsPerUnit; i++) {
+        double r = fm.dot(leftIds[i], fm, rightIds[i]);
+        sum += r;
+        fm.values(leftIds[i])[fm.offset(leftIds[i])] -= 1.0e-9 * r;
+      }
+      call.end();
+    }
+    printStats(stats, "RowAccess", "FactorMatrix.values", "sum = " + sum + ' ');
+  }
+
+  /**
+   * Measures how training throughput scales with the number of Hogwild threads.  Each timed call
+   * trains and flushes opsPerUnit dyads so the time includes waiting for the workers.
+   */
+  public void hogwildBenchmark(int maxThreads) {
+    Random gen = RandomUtils.getRandom();
+    int[] actual = new int[opsPerUnit];
+    for (int i = 0; i < opsPerUnit; i++) {
+      actual[i] = gen.nextInt(2);
+    }
+
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      HogwildLatentLogLinear trainer =
+          new HogwildLatentLogLinear(new LatentLogLinear(factors).learningRate(0.1).lambda(1.0e-6), threads);
+      TimingStatistics stats = new TimingStatistics();
+      for (int l = 0; l < loop; l++) {
+        TimingStatistics.Call call = stats.newCall();
+        for (int i = 0; i < opsPerUnit; i++) {
+          trainer.train(leftIds[i], rightIds[i], actual[i]);
+        }
+        trainer.close();
+        call.end();
+      }
+      double p = trainer.getModel().classifyScalar(leftIds[0], rightIds[0]);
+      printStats(stats, "Hogwild", threads + " threads", "p = " + p + ' ');
+    }
+  }
+
+  /**
+   * Compares scoring one dyad at a time with batch scoring on one thread and on a pool.
+   */
+  public void scoringBenchmark(int threads) {
+    LatentLogLinear model = new LatentLogLinear(factors);
+    Random gen = RandomUtils.getRandom();
+    for (int i = 0; i < opsPerUnit; i++) {
+      model.train(leftIds[i], rightIds[i], gen.nextInt(2));
+    }
+
+    double sum = 0;
+    TimingStatistics stats = new TimingStatistics();
+    for (int l = 0; l < loop; l++) {
+      TimingStatistics.Call call = stats.newCall();
+      for (int i = 0; i < opsPerUnit; i++) {
+        sum += model.classifyScalar(leftIds[i], rightIds[i]);
+      }
+      call.end();
+    }
+    printStats(stats, "Scoring", "classifyScalar(int, int)", "sum = " + sum + ' ');
+
+    double[] out = new double[opsPerUnit];
+    sum = 0;
+    stats = new TimingStatistics();
+    for (int l = 0; l < loop; l++) {
+      TimingStatistics.Call call = stats.newCall();
+      model.classifyScalar(leftIds, rightIds, out);
+      call.end();
+      sum += out[l % opsPerUnit];
+    }
+    printStats(stats, "Scoring", "classifyScalar(int[], int[], double[])", "sum = " + sum + ' ');
+
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      sum = 0;
+      stats = new TimingStatistics();
+      for (int l = 0; l < loop; l++) {
+        TimingStatistics.Call call = stats.newCall();
+        model.classifyScalar(leftIds, rightIds, out, pool);
+        call.end();
+        sum += out[l % opsPerUnit];
+      }
+      printStats(stats, "Scoring", "classifyScalar with " + threads + " threads", "sum = " + sum + ' ');
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Measures exact and approximate top-k retrieval over a model with one right item per row.
+   * Recall is the fraction of the exact top k that the approximate search also returns.
+   */
+  public void topKBenchmark(int k, int queries) {
+    LatentLogLinear model = new LatentLogLinear(factors);
+    Random gen = RandomUtils.getRandom();
+    for (int right = 0; right < rows; right++) {
+      model.train(gen.nextInt(queries), right, gen.nextInt(2));
+    }
+
+    int[][] exact = new int[queries][k];
+    double[] scores = new double[k];
+    TimingStatistics stats = new TimingStatistics();
+    for (int left = 0; left < queries; left++) {
+      TimingStatistics.Call call = stats.newCall();
+      model.topK(left, k, null, exact[left], scores);
+      call.end();
+    }
+    log.info("TopK exact scan over {} items: {}", rows, stats);
+
+    long start = System.nanoTime();
+    int lists = (int) Math.sqrt(rows);
+    MipsIndex index = model.rightIndex(lists, 5);
+    log.info("TopK index with {} lists built in {} ms", lists, (System.nanoTime() - start) / 1000000);
+
+    int[] ids = new int[k];
+    for (int probes = 1; probes <= lists; probes *= 4) {
+      int hits = 0;
+      stats = new TimingStatistics();
+      for (int left = 0; left < queries; left++) {
+        TimingStatistics.Call call = stats.newCall();
+        int n = model.topK(left, k, null, index, probes, ids, scores);
+        call.end();
+        Arrays.sort(ids, 0, n);
+        for (int id : exact[left]) {
+          if (Arrays.binarySearch(ids, 0, n, id) >= 0) {
+            hits++;
+          }
+        }
+      }
+      log.info("TopK index with {} probes: recall = {} {}",
+          new Object[] {probes, (double) hits / (queries * k), stats});
+    }
+  }
+
+  /**
+   * Compares size and load time of the JSON and binary model formats.
+   */
+  public void serializationBenchmark() throws IOException {
+    LatentLogLinear model = new LatentLogLinear(factors);
+    Random gen = RandomUtils.getRandom();
+    for (int row = 0; row < rows; row++) {
+      model.train(row, row, gen.nextInt(2));
+    }
+
+    File json = File.createTempFile("model", ".json");
+    File binary = File.createTempFile("model", ".bin");
+    try {
+      long start = System.nanoTime();
+      Writer out = new BufferedWriter(new FileWriter(json));
+      try {
+        ModelSerializer.gson().toJson(model, out);
+      } finally {
+        out.close();
+      }
+      log.info("JSON: wrote {} bytes in {} ms", json.length(), (System.nanoTime() - start) / 1000000);
+
+      start = System.nanoTime();
+      ModelSerializer.writeBinary(binary.getPath(), model);
+      log.info("Binary: wrote {} bytes in {} ms", binary.length(), (System.nanoTime() - start) / 1000000);
+
+      double sum = 0;
+      for (int l = 0; l < loop; l++) {
+        start = System.nanoTime();
+        Reader in = new BufferedReader(new FileReader(json));
+        try {
+          sum += ModelSerializer.gson().fromJson(in, LatentLogLinear.class).classifyScalar(l, l);
+        } finally {
+          in.close();
+        }
+        long jsonTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        sum += ModelSerializer.readBinary(binary.getPath()).classifyScalar(l, l);
+        long binaryTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        sum += ModelSerializer.mapBinary(binary).classifyScalar(l, l);
+        long mappedTime = System.nanoTime() - start;
+
+        log.info("Load {} rows: JSON {} ms, binary {} ms, mapped {} ms",
+            new Object[] {rows, jsonTime / 1000000, binaryTime / 1000000, mappedTime / 1.0e6});
+      }
+      log.info("sum = {}", sum);
+    } finally {
+      json.delete();
+      binary.delete();
+    }
+  }
+
+  /**
+   * Compares batch scoring with full precision, float and byte factors and reports the accuracy
+   * lost by the smaller factors.
+   */
+  public void servingBenchmark() {
+    LatentLogLinear model = new LatentLogLinear(factors);
+    Random gen = RandomUtils.getRandom();
+    int[] actual = new int[opsPerUnit];
+    for (int i = 0; i < opsPerUnit; i++) {
+      actual[i] = (leftIds[i] + rightIds[i]) % 2;
+      model.train(leftIds[i], rightIds[i], actual[i]);
+    }
+
+    ServingLatentLogLinear floats = ServingLatentLogLinear.floats(model);
+    ServingLatentLogLinear bytes = ServingLatentLogLinear.bytes(model);
+    log.info("Serving floats: {}", floats.drift(model, leftIds, rightIds, actual));
+    log.info("Serving bytes: {}", bytes.drift(model, leftIds, rightIds, actual));
+
+    double[] out = new double[opsPerUnit];
+    double sum = 0;
+    TimingStatistics stats = new TimingStatistics();
+    for (int l = 0; l < loop; l++) {
+      TimingStatistics.Call call = stats.newCall();
+      model.classifyScalar(leftIds, rightIds, out);
+      call.end();
+      sum += out[gen.nextInt(opsPerUnit)];
+    }
+    printStats(stats, "Serving", "double", "sum = " + sum + ' ');
+
+    for (ServingLatentLogLinear snapshot : new ServingLatentLogLinear[] {floats, bytes}) {
+      sum = 0;
+      stats = new TimingStatistics();
+      for (int l = 0; l < loop; l++) {
+        TimingStatistics.Call call = stats.newCall();
+        snapshot.classifyScalar(leftIds, rightIds, out);
+        call.end();
+        sum += out[gen.nextInt(opsPerUnit)];
+      }
+      printStats(stats, "Serving", snapshot == floats ? "float" : "byte", "sum = " + sum + ' ');
+    }
+  }
+
+  /**
+   * Compares online training with mini-batch training when a few left ids are very popular.
+   */
+  public void miniBatchBenchmark(int batchSize) {
+    Random gen = RandomUtils.getRandom();
+    int[] hotLeft = new int[opsPerUnit];
+    int[] actual = new int[opsPerUnit];
+    for (int i = 0; i < opsPerUnit; i++) {
+      // heavily skewed towards small ids
+      hotLeft[i] = (int) (rows * Math.pow(gen.nextDouble(), 4));
+      actual[i] = gen.nextInt(2);
+    }
+
+    LatentLogLinear online = new LatentLogLinear(factors);
+    TimingStatistics stats = new TimingStatistics();
+    for (int l = 0; l < loop; l++) {
+      TimingStatistics.Call call = stats.newCall();
+      for (int i = 0; i < opsPerUnit; i++) {
+        online.train(hotLeft[i], rightIds[i], actual[i]);
+      }
+      call.end();
+    }
+    printStats(stats, "MiniBatch", "online", "p = " + online.classifyScalar(0, 0) + ' ');
+
+    MiniBatchLatentLogLinear batched = new MiniBatchLatentLogLinear(new LatentLogLinear(factors), batchSize);
+    stats = new TimingStatistics();
+    for (int l = 0; l < loop; l++) {
+      TimingStatistics.Call call = stats.newCall();
+      for (int i = 0; i < opsPerUnit; i++) {
+        batched.train(hotLeft[i], rightIds[i], actual[i]);
+      }
+      batched.flush();
+      call.end();
+    }
+    printStats(stats, "MiniBatch", "batch size " + batchSize,
+        "p = " + batched.getModel().classifyScalar(0, 0) + ' ');
+  }
+
+  /**
+   * Compares training and scoring a multinomial and an ordinal model with numCategories categories
+   * to doing the same with one binary model per category.
+   */
+  public void multiClassBenchmark(int numCategories) {
+    Random gen = RandomUtils.getRandom();
+    int[] actual = new int[opsPerUnit];
+    for (int i = 0; i < opsPerUnit; i++) {
+      actual[i] = gen.nextInt(numCategories);
+    }
+
+    AbstractMultiClassLatentLogLinear[] models = {
+        new MultinomialLatentLogLinear(numCategories, factors),
+        new OrdinalLatentLogLinear(numCategories, factors)
+    };
+    double[] p = new double[numCategories];
+    for (AbstractMultiClassLatentLogLinear model : models) {
+      String name = model.getClass().getSimpleName();
+      TimingStatistics stats = new TimingStatistics();
+      for (int l = 0; l < loop; l++) {
+        TimingStatistics.Call call = stats.newCall();
+        for (int i = 0; i < opsPerUnit; i++) {
+          model.train(leftIds[i], rightIds[i], actual[i]);
+        }
+        call.end();
+      }
+      printStats(stats, "MultiClass train", name, "");
+
+      double sum = 0;
+      stats = new TimingStatistics();
+      for (int l = 0; l < loop; l++) {
+        TimingStatistics.Call call = stats.newCall();
+        for (int i = 0; i < opsPerUnit; i++) {
+          model.classifyFull(leftIds[i], rightIds[i], p);
+          sum += p[0];
+        }
+        call.end();
+      }
+      printStats(stats, "MultiClass score", name, "sum = " + sum + ' ');
+    }
+
+    // one against the rest
+    LatentLogLinear[] binary = new LatentLogLinear[numCategories];
+    for (int c = 0; c < numCategories; c++) {
+      binary[c] = new LatentLogLinear(factors);
+    }
+    TimingStatistics stats = new TimingStatistics();
+    for (int l = 0; l < loop; l++) {
+      TimingStatistics.Call call = stats.newCall();
+      for (int i = 0; i < opsPerUnit; i++) {
+        for (int c = 0; c < numCategories; c++) {
+          binary[c].train(leftIds[i], rightIds[i], actual[i] == c ? 1 : 0);
+        }
+      }
+      call.end();
+    }
+    printStats(stats, "MultiClass train", numCategories + " binary models", "");
+
+    double sum = 0;
+    double[][] out = new double[numCategories][opsPerUnit];
+    stats = new TimingStatistics();
+    for (int l = 0; l < loop; l++) {
+      TimingStatistics.Call call = stats.newCall();
+      for (int c = 0; c < numCategories; c++) {
+        binary[c].classifyScalar(leftIds, rightIds, out[c]);
+      }
+      call.end();
+      sum += out[0][gen.nextInt(opsPerUnit)];
+    }
+    printStats(stats, "MultiClass score", numCategories + " binary models", "sum = " + sum + ' ');
+  }
+
+  /**
+   * Trades ranking quality against training speed for different ways of choosing the partners of
+   * rank based updates.  The data are dyads between items whose true log odds come from two
+   * random factors, as in LatentLogLinearTest.  A fifth of the dyads are held out and the AUC on
+   * them is measured after training for several epochs, once with the training data shuffled and
+   * once with it sorted by left id and label, which is the worst case for pairing each dyad with
+   * the last one of the other label.
+   */
+  public void rankingBenchmark(int items, int epochs) {
+    Random gen = RandomUtils.getRandom();
+    double[][] alpha = new double[items][2];
+    double[][] beta = new double[items][2];
+    for (int i = 0; i < items; i++) {
+      alpha[i][0] = gen.nextDouble() * 6 - 3;
+      alpha[i][1] = gen.nextDouble() * 6 - 3;
+      beta[i][0] = 1;
+      beta[i][1] = gen.nextDouble() * 6 - 3;
+    }
+
+    int n = items * items;
+    int[] left = new int[n];
+    int[] right = new int[n];
+    int[] actual = new int[n];
+    int i = 0;
+    for (int l = 0; l < items; l++) {
+      for (int r = 0; r < items; r++) {
+        double p = 1 / (1 + Math.exp(-alpha[l][0] * beta[r][0] - alpha[l][1] * beta[r][1]));
+        left[i] = l;
+        right[i] = r;
+        actual[i] = gen.nextDouble() < p ? 1 : 0;
+        i++;
+      }
+    }
+
+    // shuffle, hold out the tail and remember a sorted order of the rest
+    int[] order = new int[n];
+    for (i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    for (i = n - 1; i > 0; i--) {
+      int j = gen.nextInt(i + 1);
+      int tmp = order[i];
+      order[i] = order[j];
+      order[j] = tmp;
+    }
+    int cut = n * 4 / 5;
+    int[] shuffled = Arrays.copyOf(order, cut);
+    int[] sorted = Arrays.copyOf(order, cut);
+    Integer[] boxed = new Integer[cut];
+    for (i = 0; i < cut; i++) {
+      boxed[i] = sorted[i];
+    }
+    final int[] sortLeft = left;
+    final int[] sortActual = actual;
+    Arrays.sort(boxed, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        int r = sortLeft[a] - sortLeft[b];
+        return r != 0 ? r : sortActual[a] - sortActual[b];
+      }
+    });
+    for (i = 0; i < cut; i++) {
+      sorted[i] = boxed[i];
+    }
+    int[] test = Arrays.copyOfRange(order, cut, n);
+
+    String[] names = {
+        "pointwise only", "last other label, mix 0.1", "last other label, mix 0.5",
+        "recent, 1 pair, mix 0.5", "recent, 3 pairs, mix 0.5", "recent + popular, 3 pairs, mix 0.5",
+        "recent + popular, 5 pairs, mix 0.5"
+    };
+    for (int[] trainOrder : new int[][] {shuffled, sorted}) {
+      String orderName = trainOrder == shuffled ? "shuffled" : "sorted";
+      for (int k = 0; k < names.length; k++) {
+        LatentLogLinear model = new LatentLogLinear(2).learningRate(0.1).lambda(1.0e-8);
+        switch (k) {
+          case 0:
+            model.rankMixRate(0);
+            break;
+          case 1:
+            model.rankMixRate(0.1);
+            break;
+          case 2:
+            model.rankMixRate(0.5);
+            break;
+          case 3:
+            model.rankMixRate(0.5).negativeSampler(new NegativeSampler(10).pairs(1).popularityMix(0));
+            break;
+          case 4:
+            model.rankMixRate(0.5).negativeSampler(new NegativeSampler(10).pairs(3).popularityMix(0));
+            break;
+          case 5:
+            model.rankMixRate(0.5).negativeSampler(new NegativeSampler(10).pairs(3));
+            break;
+          default:
+            model.rankMixRate(0.5).negativeSampler(new NegativeSampler(10).pairs(5));
+            break;
+        }
+
+        long t0 = System.nanoTime();
+        for (int epoch = 0; epoch < epochs; epoch++) {
+          for (int e : trainOrder) {
+            model.train(left[e], right[e], actual[e]);
+          }
+        }
+        double rate = (double) epochs * cut * 1.0e9 / (System.nanoTime() - t0);
+
+        double[] scores = new double[test.length];
+        int[] labels = new int[test.length];
+        for (i = 0; i < test.length; i++) {
+          scores[i] = model.classifyScalar(left[test[i]], right[test[i]]);
+          labels[i] = actual[test[i]];
+        }
+        log.info("Ranking {} {}: AUC = {}, {} examples/sec",
+            new Object[] {orderName, names[k], String.format("%.4f", auc(scores, labels)), (float) rate});
+      }
+    }
+  }
+
+  // exact AUC by counting correctly ordered pairs, ties count half
+  private static double auc(double[] scores, int[] labels) {
+    Integer[] index = new Integer[scores.length];
+    for (int i = 0; i < index.length; i++) {
+      index[i] = i;
+    }
+    final double[] s = scores;
+    Arrays.sort(index, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Double.compare(s[a], s[b]);
+      }
+    });
+    double negativesBelow = 0;
+    double correct = 0;
+    long positives = 0;
+    int i = 0;
+    while (i < index.length) {
+      int j = i;
+      int tiedPositives = 0;
+      int tiedNegatives = 0;
+      while (j < index.length && s[index[j]] == s[index[i]]) {
+        if (labels[index[j]] == 1) {
+          tiedPositives++;
+        } else {
+          tiedNegatives++;
+        }
+        j++;
+      }
+      correct += tiedPositives * (negativesBelow + tiedNegatives / 2.0);
+      positives += tiedPositives;
+      negativesBelow += tiedNegatives;
+      i = j;
+    }
+    return correct / (positives * negativesBelow);
+  }
+
+  public static void main(String[] args) throws IOException {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    int factors = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    int loop = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+    int opsPerUnit = args.length > 3 ? Integer.parseInt(args[3]) : 100000;
+    int maxThreads = args.length > 4 ? Integer.parseInt(args[4]) : 32;
+
+    LatentLogLinearBenchmarks mark = new LatentLogLinearBenchmarks(rows, factors, loop, opsPerUnit);
+    mark.memoryBenchmark();
+    mark.rowAccessBenchmark();
+    mark.hogwildBenchmark(maxThreads);
+    mark.scoringBenchmark(maxThreads);
+    mark.topKBenchmark(10, 100);
+    mark.serializationBenchmark();
+    mark.servingBenchmark();
+    mark.miniBatchBenchmark(1000);
+    mark.multiClassBenchmark(5);
+    mark.rankingBenchmark(1000, 10);
+  }
+}
@@ -0,0 +1,468 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.mahout.classifier.AbstractVectorClassifier;
+import org.apache.mahout.classifier.sgd.AdaptiveLogisticRegression;
+import org.apache.mahout.classifier.sgd.BlockSparseMatrix;
+import org.apache.mahout.classifier.sgd.CrossFoldLearner;
+import org.apache.mahout.classifier.sgd.DefaultGradient;
+import org.apache.mahout.classifier.sgd.Gradient;
+import org.apache.mahout.classifier.sgd.L1;
+import org.apache.mahout.classifier.sgd.LatentLogLinear;
+import org.apache.mahout.classifier.sgd.ModelSerializer;
+import org.apache.mahout.classifier.sgd.OnlineLogisticRegression;
+import org.apache.mahout.classifier.sgd.SparseOnlineLogisticRegression;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.common.TimingStatistics;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Repeatable baseline for the SGD classifiers.  Each benchmark runs a few untimed warm-up units so
+ * that the JIT has settled and then times a number of units of work.  Besides the speed, the bytes
+ * allocated per operation are reported where the JVM can count them, summed over all threads so
+ * that thread pools are included.  Data come from a fixed random seed so runs can be compared.
+ * <p/>
+ * The benchmarks that train on vectors are run for every combination of feature count and number
+ * of non-zero features, and those that work with latent factors are run for every factor count.
+ * At the end, all of the results are logged again as one tab separated table.
+ * <p/>
+ * Usage: SgdBenchmarks [features [nonZeros [factors [loop [opsPerUnit [maxThreads]]]]]] where
+ * features, nonZeros and factors may be comma separated lists.
+ */
+public class SgdBenchmarks {
+
+  private static final Logger log = LoggerFactory.getLogger(SgdBenchmarks.class);
+
+  private static final int WARMUP = 5;
+  private static final int ROWS = 100000;
+
+  private final int numFeatures;
+  private final int nonZeros;
+  private final int factors;
+  private final int loop;
+  private final int opsPerUnit;
+
+  // training data shared by all of the vector benchmarks
+  private final Vector[] instances;
+  private final int[] targets;
+
+  // random row ids shared by all of the factor benchmarks
+  private final int[] leftIds;
+  private final int[] rightIds;
+
+  private final List<String> results;
+
+  public SgdBenchmarks(int numFeatures, int nonZeros, int factors, int loop, int opsPerUnit, List<String> results) {
+    this.numFeatures = numFeatures;
+    this.nonZeros = nonZeros;
+    this.factors = factors;
+    this.loop = loop;
+    this.opsPerUnit = opsPerUnit;
+    this.results = results;
+
+    RandomUtils.useTestSeed();
+    Random gen = RandomUtils.getRandom();
+
+    // targets come from a hidden linear model so that learning has something to find
+    double[] beta = new double[numFeatures];
+    for (int j = 0; j < numFeatures; j++) {
+      beta[j] = gen.nextGaussian();
+    }
+    instances = new Vector[opsPerUnit];
+    targets = new int[opsPerUnit];
+    for (int i = 0; i < opsPerUnit; i++) {
+      Vector v = new RandomAccessSparseVector(numFeatures, nonZeros);
+      double dot = 0;
+      for (int k = 0; k < nonZeros; k++) {
+        int j = gen.nextInt(numFeatures);
+        double x = gen.nextGaussian();
+        v.setQuick(j, x);
+        dot += beta[j] * x;
+      }
+      instances[i] = v;
+      targets[i] = dot + gen.nextGaussian() > 0 ? 1 : 0;
+    }
+
+    leftIds = new int[opsPerUnit];
+    rightIds = new int[opsPerUnit];
+    for (int i = 0; i < opsPerUnit; i++) {
+      leftIds[i] = gen.nextInt(ROWS);
+      rightIds[i] = gen.nextInt(ROWS);
+    }
+  }
+
+  /**
+   * One timed unit of work.  The result is accumulated and logged so that the JIT can't throw the
+   * work away.
+   */
+  private interface Unit {
+    double run() throws IOException;
+  }
+
+  private void measure(String benchmarkName, String implName, int opsPerCall, Unit unit) throws IOException {
+    double sink = 0;
+    for (int l = 0; l < WARMUP; l++) {
+      sink += unit.run();
+    }
+
+    TimingStatistics stats = new TimingStatistics();
+    long bytes0 = allocatedBytes();
+    for (int l = 0; l < loop; l++) {
+      TimingStatistics.Call call = stats.newCall();
+      sink += unit.run();
+      call.end();
+    }
+    long bytes1 = allocatedBytes();
+
+    long ops = (long) loop * opsPerCall;
+    float opsPerSec = ops * 1000000000.0f / stats.getSumTime();
+    String bytesPerOp = bytes0 < 0 ? "n/a" : String.format("%.1f", (double) (bytes1 - bytes0) / ops);
+    log.info("{} {} \nsink = {} {} \nSpeed: {} ops/sec, {} bytes/op",
+        new Object[] {benchmarkName, implName, sink, stats, opsPerSec, bytesPerOp});
+    results.add(benchmarkName + '\t' + implName + '\t' + numFeatures + '\t' + nonZeros + '\t' + factors + '\t'
+        + opsPerSec + '\t' + stats.getMeanTime() / 1000000.0 + '\t' + stats.getStdDevTime() / 1000000.0 + '\t'
+        + bytesPerOp);
+  }
+
+  // bytes allocated so far by all live threads, or -1 if the JVM doesn't count them
+  private static long allocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) threads;
+      if (sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled()) {
+        long sum = 0;
+        for (long bytes : sun.getThreadAllocatedBytes(sun.getAllThreadIds())) {
+          if (bytes > 0) {
+            sum += bytes;
+          }
+        }
+        return sum;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Times training and scoring of a single OnlineLogisticRegression, once with dense and once with
+   * sparse coefficients.  The heap retained by each trained model is reported as well so that the
+   * two can be compared at different ratios of touched to total features.  Training through the
+   * general code for any number of categories is timed as well.
+   */
+  public void logisticRegressionBenchmark() throws IOException {
+    logisticRegressionBenchmark("OnlineLogisticRegression", false);
+    logisticRegressionBenchmark("SparseOnlineLogisticRegression", true);
+
+    // any gradient other than the default one forces the general training code, which is the
+    // baseline for the two category fast path
+    final OnlineLogisticRegression general = new OnlineLogisticRegression(2, numFeatures, new L1()).lambda(1.0e-5);
+    general.setGradient(new Gradient() {
+      private final Gradient delegate = new DefaultGradient();
+
+      @Override
+      public Vector apply(String groupKey, int actual, Vector instance, AbstractVectorClassifier classifier) {
+        return delegate.apply(groupKey, actual, instance, classifier);
+      }
+    });
+    measure("OnlineLogisticRegression", "train (general path)", opsPerUnit, new Unit() {
+      @Override
+      public double run() {
+        for (int i = 0; i < opsPerUnit; i++) {
+          general.train(targets[i], instances[i]);
+        }
+        return general.getBeta().get(0, 0);
+      }
+    });
+  }
+
+  private void logisticRegressionBenchmark(String benchmarkName, boolean sparse) throws IOException {
+    long before = usedHeap();
+    final OnlineLogisticRegression model = sparse
+        ? new SparseOnlineLogisticRegression(2, numFeatures, new L1()).lambda(1.0e-5)
+        : new OnlineLogisticRegression(2, numFeatures, new L1()).lambda(1.0e-5);
+    measure(benchmarkName, "train", opsPerUnit, new Unit() {
+      @Override
+      public double run() {
+        for (int i = 0; i < opsPerUnit; i++) {
+          model.train(targets[i], instances[i]);
+        }
+        return model.getBeta().get(0, 0);
+      }
+    });
+    measure(benchmarkName, "classifyScalar", opsPerUnit, new Unit() {
+      @Override
+      public double run() {
+        double sum = 0;
+        for (int i = 0; i < opsPerUnit; i++) {
+          sum += model.classifyScalar(instances[i]);
+        }
+        return sum;
+      }
+    });
+    double megabytes = (usedHeap() - before) / 1.0e6;
+    log.info("{} retains {} MB", benchmarkName, megabytes);
+    results.add(benchmarkName + "\tretained MB\t" + numFeatures + '\t' + nonZeros + "\t\t" + megabytes + "\t\t\t");
+  }
+
+  /**
+   * Times training of a five-fold CrossFoldLearner.
+   */
+  public void crossFoldBenchmark() throws IOException {
+    final CrossFoldLearner model = new CrossFoldLearner(5, 2, numFeatures, new L1()).lambda(1.0e-5);
+    measure("CrossFoldLearner", "train", opsPerUnit, new Unit() {
+      @Override
+      public double run() {
+        for (int i = 0; i < opsPerUnit; i++) {
+          model.train(i, targets[i], instances[i]);
+        }
+        return model.auc();
+      }
+    });
+  }
+
+  /**
+   * Times training of AdaptiveLogisticRegression with 1, 2, 4 ... up to maxThreads threads.
+   */
+  public void adaptiveBenchmark(int maxThreads) throws IOException {
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      final AdaptiveLogisticRegression model = new AdaptiveLogisticRegression(2, numFeatures, new L1());
+      model.setThreadCount(threads);
+      model.setInterval(1000);
+      measure("AdaptiveLogisticRegression", threads + " threads", opsPerUnit, new Unit() {
+        @Override
+        public double run() {
+          for (int i = 0; i < opsPerUnit; i++) {
+            model.train(i, targets[i], instances[i]);
+          }
+          return model.getRecord();
+        }
+      });
+      model.close();
+    }
+  }
+
+  /**
+   * Times the copies that the evolutionary step of AdaptiveLogisticRegression makes.  Each unit
+   * copies a trained population member and trains the copy on a short stretch of examples, as a
+   * replacement member would be during the next generation.  The heap retained by the copies shows
+   * how much storage they share with the original.
+   */
+  public void copyBenchmark(int copies) throws IOException {
+    final AdaptiveLogisticRegression.Wrapper original =
+        new AdaptiveLogisticRegression.Wrapper(2, numFeatures, new L1());
+    for (int i = 0; i < opsPerUnit; i++) {
+      original.train(new AdaptiveLogisticRegression.TrainingExample(i, null, targets[i], instances[i]));
+    }
+    final int examples = Math.min(1000, opsPerUnit);
+    final List<AdaptiveLogisticRegression.Wrapper> kept = new ArrayList<AdaptiveLogisticRegression.Wrapper>();
+    measure("AdaptiveLogisticRegression", "copy+train " + examples, 1, new Unit() {
+      @Override
+      public double run() {
+        AdaptiveLogisticRegression.Wrapper copy = original.copy();
+        for (int i = 0; i < examples; i++) {
+          copy.train(new AdaptiveLogisticRegression.TrainingExample(i, null, targets[i], instances[i]));
+        }
+        kept.add(copy);
+        if (kept.size() > copies) {
+          kept.remove(0);
+        }
+        return copy.getLearner().getRecord();
+      }
+    });
+
+    int n = kept.size();
+    long before = usedHeap();
+    kept.clear();
+    double megabytes = (before - usedHeap()) / 1.0e6;
+    log.info("{} copies retain {} MB", n, megabytes);
+    results.add("AdaptiveLogisticRegression\tretained MB per copy\t" + numFeatures + '\t' + nonZeros + "\t\t"
+        + megabytes / n + "\t\t\t");
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /**
+   * Times training and scoring of a LatentLogLinear model with random dyads.
+   */
+  public void latentLogLinearBenchmark() throws IOException {
+    final LatentLogLinear model = new LatentLogLinear(factors);
+    measure("LatentLogLinear", "train", opsPerUnit, new Unit() {
+      @Override
+      public double run() {
+        for (int i = 0; i < opsPerUnit; i++) {
+          model.train(leftIds[i], rightIds[i], targets[i]);
+        }
+        return model.getStep();
+      }
+    });
+    measure("LatentLogLinear", "classifyScalar", opsPerUnit, new Unit() {
+      @Override
+      public double run() {
+        double sum = 0;
+        for (int i = 0; i < opsPerUnit; i++) {
+          sum += model.classifyScalar(leftIds[i], rightIds[i]);
+        }
+        return sum;
+      }
+    });
+  }
+
+  /**
+   * Times fetching two rows of a BlockSparseMatrix, taking their dot product and nudging one of
+   * them, which is the access pattern of dyadic training.
+   */
+  public void blockSparseBenchmark() throws IOException {
+    final Matrix m = new BlockSparseMatrix(factors);
+    Random gen = RandomUtils.getRandom();
+    for (int row = 0; row < ROWS; row++) {
+      for (int column = 0; column < factors; column++) {
+        m.setQuick(row, column, gen.nextGaussian());
+      }
+    }
+    measure("BlockSparseMatrix", "row access", opsPerUnit, new Unit() {
+      @Override
+      public double run() {
+        double sum = 0;
+        for (int i = 0; i < opsPerUnit; i++) {
+          Vector u = m.getRow(leftIds[i]);
+          double r = u.dot(m.getRow(rightIds[i]));
+          sum += r;
+          u.setQuick(0, u.getQuick(0) - 1.0e-9 * r);
+        }
+        return sum;
+      }
+    });
+  }
+
+  /**
+   * Times writing and reading back trained models with ModelSerializer.  Each operation is one
+   * complete round trip.
+   */
+  public void serializationBenchmark() throws IOException {
+    final OnlineLogisticRegression olr = new OnlineLogisticRegression(2, numFeatures, new L1());
+    for (int i = 0; i < opsPerUnit; i++) {
+      olr.train(targets[i], instances[i]);
+    }
+    measure("ModelSerializer", "OnlineLogisticRegression json", 1, new Unit() {
+      @Override
+      public double run() {
+        String json = ModelSerializer.gson().toJson(olr);
+        OnlineLogisticRegression copy = (OnlineLogisticRegression)
+            ModelSerializer.loadJsonFrom(new StringReader(json), OnlineLogisticRegression.class);
+        return copy.getBeta().get(0, 0);
+      }
+    });
+
+    final AdaptiveLogisticRegression alr = new AdaptiveLogisticRegression(2, numFeatures, new L1());
+    alr.setPoolSize(5);
+    for (int i = 0; i < opsPerUnit; i++) {
+      alr.train(i, targets[i], instances[i]);
+    }
+    alr.close();
+    measure("ModelSerializer", "AdaptiveLogisticRegression json", 1, new Unit() {
+      @Override
+      public double run() {
+        String json = ModelSerializer.gson().toJson(alr);
+        AdaptiveLogisticRegression copy = ModelSerializer.gson().fromJson(json, AdaptiveLogisticRegression.class);
+        return copy.getRecord();
+      }
+    });
+
+    final LatentLogLinear lll = new LatentLogLinear(factors);
+    for (int i = 0; i < opsPerUnit; i++) {
+      lll.train(leftIds[i], rightIds[i], targets[i]);
+    }
+    lll.close();
+    measure("ModelSerializer", "LatentLogLinear binary", 1, new Unit() {
+      @Override
+      public double run() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        ModelSerializer.writeBinary(out, lll);
+        out.close();
+        LatentLogLinear copy = ModelSerializer.readBinary(
+            new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        return copy.getStep();
+      }
+    });
+  }
+
+  private static int[] parseList(String arg) {
+    String[] parts = arg.split(",");
+    int[] r = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      r[i] = Integer.parseInt(parts[i].trim());
+    }
+    return r;
+  }
+
+  public static void main(String[] args) throws IOException {
+    int[] features = parseList(args.length > 0 ? args[0] : "1000,100000");
+    int[] nonZeros = parseList(args.length > 1 ? args[1] : "10,100");
+    int[] factors = parseList(args.length > 2 ? args[2] : "10,50");
+    int loop = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+    int opsPerUnit = args.length > 4 ? Integer.parseInt(args[4]) : 10000;
+    int maxThreads = args.length > 5 ? Integer.parseInt(args[5]) : 8;
+
+    List<String> results = new ArrayList<String>();
+    for (int f : features) {
+      for (int z : nonZeros) {
+        SgdBenchmarks mark = new SgdBenchmarks(f, z, factors[0], loop, opsPerUnit, results);
+        mark.logisticRegressionBenchmark();
+        mark.crossFoldBenchmark();
+        mark.adaptiveBenchmark(maxThreads);
+        mark.copyBenchmark(20);
+      }
+    }
+    for (int k : factors) {
+      SgdBenchmarks mark = new SgdBenchmarks(features[0], nonZeros[0], k, loop, opsPerUnit, results);
+      mark.latentLogLinearBenchmark();
+      mark.blockSparseBenchmark();
+    }
+    new SgdBenchmarks(features[0], nonZeros[0], factors[0], loop, opsPerUnit, results).serializationBenchmark();
+
+    StringBuilder table = new StringBuilder(
+        "\nbenchmark\timplementation\tfeatures\tnonZeros\tfactors\tops/sec\tmean ms\tstdDev ms\tbytes/op\n");
+    for (String line : results) {
+      table.append(line).append('\n');
+    }
+    log.info(table.toString());
+  }
+}